@@ -2,6 +2,8 @@ package com.owl.downloader.core;
 
 import com.owl.downloader.event.Dispatcher;
 import com.owl.downloader.event.Event;
+import com.owl.downloader.io.ByteBudget;
+import com.owl.downloader.io.TokenBucket;
 
 import java.net.ProxySelector;
 import java.util.HashMap;
@@ -23,6 +25,10 @@ public abstract class BaseTask implements Task {
     private String directory = Session.getInstance().getDirectory();
     private int blockSize;
     private ProxySelector proxySelector = Session.getInstance().getProxySelector();
+    private volatile long downloadLimit = 0;
+    private transient volatile TokenBucket downloadLimiter = null;
+    private volatile long inFlightLimit = 0;
+    private transient volatile ByteBudget inFlightBudget = null;
 
     static {
         EVENT_MAP.put(Status.ACTIVE, Event.START);
@@ -97,6 +103,11 @@ public abstract class BaseTask implements Task {
         this.maximumConnections = maximumConnections;
     }
 
+    @Override
+    public int targetConnections() {
+        return maximumConnections;
+    }
+
     @Override
     public String getDirectory() {
         return directory;
@@ -118,6 +129,71 @@ public abstract class BaseTask implements Task {
         this.blockSize = blockSize;
     }
 
+    @Override
+    public long getDownloadLimit() {
+        return downloadLimit;
+    }
+
+    @Override
+    public void setDownloadLimit(long downloadLimit) {
+        if (downloadLimit < 0) throw new IllegalArgumentException("the download limit should not be negative");
+        this.downloadLimit = downloadLimit;
+        TokenBucket downloadLimiter = this.downloadLimiter;
+        if (downloadLimiter != null) downloadLimiter.setRate(downloadLimit);
+    }
+
+    /**
+     * Get the token bucket limiting the download speed of this task, its parent limits the whole session
+     * <p>Registrations of the connections of this task should be limited by this bucket</p>
+     *
+     * @return the token bucket
+     * @see com.owl.downloader.io.Registration#setRateLimiter(TokenBucket)
+     */
+    protected final TokenBucket downloadLimiter() {
+        TokenBucket downloadLimiter = this.downloadLimiter;
+        if (downloadLimiter == null) {
+            synchronized (this) {
+                downloadLimiter = this.downloadLimiter;
+                if (downloadLimiter == null)
+                    this.downloadLimiter = downloadLimiter = new TokenBucket(downloadLimit, Session.getInstance().getDownloadLimiter());
+            }
+        }
+        return downloadLimiter;
+    }
+
+    @Override
+    public long getInFlightLimit() {
+        return inFlightLimit;
+    }
+
+    @Override
+    public void setInFlightLimit(long inFlightLimit) {
+        if (inFlightLimit < 0) throw new IllegalArgumentException("the in flight limit should not be negative");
+        this.inFlightLimit = inFlightLimit;
+        ByteBudget inFlightBudget = this.inFlightBudget;
+        if (inFlightBudget != null) inFlightBudget.setLimit(inFlightLimit);
+    }
+
+    /**
+     * Get the byte budget bounding the bytes in flight of this task, its parent bounds the whole session
+     * <p>Registrations of the connections of this task should be bounded by this budget,
+     * the bytes read should be released once written to disk</p>
+     *
+     * @return the byte budget
+     * @see com.owl.downloader.io.Registration#setBudget(ByteBudget)
+     */
+    protected final ByteBudget inFlightBudget() {
+        ByteBudget inFlightBudget = this.inFlightBudget;
+        if (inFlightBudget == null) {
+            synchronized (this) {
+                inFlightBudget = this.inFlightBudget;
+                if (inFlightBudget == null)
+                    this.inFlightBudget = inFlightBudget = new ByteBudget(inFlightLimit, Session.getInstance().getInFlightBudget());
+            }
+        }
+        return inFlightBudget;
+    }
+
     @Override
     public ProxySelector getProxySelector() {
         return proxySelector;
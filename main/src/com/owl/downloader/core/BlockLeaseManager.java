@@ -0,0 +1,465 @@
+package com.owl.downloader.core;
+
+import java.util.*;
+
+/**
+ * Lease manager of the blocks of a task
+ * <p>Each block goes through free, leased, written and verified. A free block is leased by one connection at a time,
+ * a leased block is either given back as free once its connection fails, or written once its bytes are all written to the file.
+ * The written blocks are verified once the file is persisted, the task is complete only if all of its blocks are verified.</p>
+ * All the transitions are atomic, the free blocks are kept in the order of the file, so leasing never scans the blocks already leased.
+ * <p>Blocks are leased either one by one, or as spans of contiguous blocks fetched by one request. A connection finishing early
+ * steals the back half of the largest span left, the end of the victim span is shortened in place, so the tail of a task is shared
+ * by all of its connections instead of waiting for the slowest one.</p>
+ * <p>Once no block is free and few blocks are left leased, the endgame starts: an idle connection hedges the span in flight
+ * which has the most blocks left, both twins fetch the same blocks, and each byte is written by the first twin reaching it only.
+ * Once one twin is finished, the request of the other one is cancelled, the bytes downloaded twice are counted as wasted.</p>
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+final class BlockLeaseManager {
+    /**
+     * The state of a block
+     */
+    enum State {
+        FREE, LEASED, WRITTEN, VERIFIED
+    }
+
+    private final List<FileData.Block> blocks;
+    private final Map<FileData.Block, Integer> indexes = new IdentityHashMap<>();
+    private final Map<FileData.Block, State> states = new IdentityHashMap<>();
+    private final Set<Span> spans = new LinkedHashSet<>();
+    private final List<FileData.Block> freeBlocks = new ArrayList<>();
+    private final List<FileData.Block> freeView = Collections.unmodifiableList(freeBlocks);
+    private int leasedCount = 0;
+    private int writtenCount = 0;
+    private int verifiedCount = 0;
+    private long wastedBytes = 0;
+
+    /**
+     * Manage the given blocks, blocks not available are taken as verified already
+     *
+     * @param blocks the blocks, in the order of the file
+     */
+    BlockLeaseManager(List<FileData.Block> blocks) {
+        this.blocks = new ArrayList<>(blocks);
+        for (FileData.Block block : blocks) {
+            indexes.put(block, indexes.size());
+            if (block.available) {
+                states.put(block, State.FREE);
+                freeBlocks.add(block);
+            } else {
+                states.put(block, State.VERIFIED);
+                ++verifiedCount;
+            }
+        }
+    }
+
+    /**
+     * Lease a free block chosen by the given selector, which selects from the free blocks only
+     *
+     * @param selector the block selector
+     * @return the block leased, null if no block is free or none is selected
+     * @throws IllegalStateException if the selector selects a block not free
+     */
+    synchronized FileData.Block lease(FileData.BlockSelector selector) {
+        Span span = lease(selector, 1);
+        return span == null ? null : blocks.get(span.first);
+    }
+
+    /**
+     * Lease a span of contiguous free blocks, which starts at the block chosen by the given selector
+     * <p>The free blocks are shared by the connections which have no span yet,
+     * so the span takes at most the free blocks divided by the given count of connections less the spans leased</p>
+     *
+     * @param selector    the block selector, which selects the first block from the free blocks
+     * @param connections the count of connections sharing the blocks
+     * @return the span leased, null if no block is free or none is selected
+     * @throws IllegalStateException if the selector selects a block not free
+     */
+    synchronized Span leaseSpan(FileData.BlockSelector selector, int connections) {
+        int share = Math.max(1, connections - spans.size());
+        Span span = lease(selector, (freeBlocks.size() + share - 1) / share);
+        if (span != null) spans.add(span);
+        return span;
+    }
+
+    private Span lease(FileData.BlockSelector selector, int maximumBlocks) {
+        if (freeBlocks.isEmpty()) return null;
+        FileData.Block block = selector.select(freeView);
+        if (block == null) return null;
+        if (states.get(block) != State.FREE) throw new IllegalStateException("the block selected is not free");
+        // The free blocks after the first one in the file are after it in the free blocks as well
+        int freeIndex = freeBlocks.indexOf(block);
+        int first = indexes.get(block);
+        int end = first + 1;
+        while (end - first < maximumBlocks && end < blocks.size() && states.get(blocks.get(end)) == State.FREE) ++end;
+        freeBlocks.subList(freeIndex, freeIndex + end - first).clear();
+        for (int i = first; i < end; ++i) {
+            FileData.Block leased = blocks.get(i);
+            states.put(leased, State.LEASED);
+            leased.available = false;
+        }
+        leasedCount += end - first;
+        return new Span(first, end);
+    }
+
+    /**
+     * Steal the back half of the span which has the most blocks not started, the end of the victim span is shortened in place
+     * <p>The block being written by the victim is never stolen, so a span can be stolen from only if at least 2 blocks are not started.
+     * The victim should stop at its new end, the bytes it has written beyond are written by the thief again.
+     * Hedged spans are never stolen from, since their twins fetch up to the same end.</p>
+     *
+     * @return the span stolen, null if no span is worth stealing
+     */
+    synchronized Span steal() {
+        Span victim = null;
+        int mostStealable = 1;
+        for (Span span : spans) {
+            if (span.twin != null) continue;
+            int stealable = span.end - span.next - 1;
+            if (stealable > mostStealable) {
+                mostStealable = stealable;
+                victim = span;
+            }
+        }
+        if (victim == null) return null;
+        int split = victim.end - mostStealable / 2;
+        Span span = new Span(split, victim.end);
+        victim.end = split;
+        spans.add(span);
+        return span;
+    }
+
+    /**
+     * Whether some block is free or some span is worth stealing
+     *
+     * @return true if a connection can lease something
+     */
+    synchronized boolean isLeasable() {
+        if (!freeBlocks.isEmpty()) return true;
+        for (Span span : spans) {
+            if (span.twin == null && span.end - span.next > 2) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Hedge the span in flight which has the most blocks left, once the endgame starts
+     * <p>The endgame starts once no block is free and at most the given count of blocks is leased.
+     * The twin fetches the blocks of the span not written yet, a span is hedged by one twin at most.
+     * A span with less bytes left than the given minimum is not hedged, since its bytes are mostly in flight already.</p>
+     *
+     * @param endgameBlocks the count of blocks leased at most in the endgame, 0 if never hedging
+     * @param minimumBytes  the bytes left at least in a span hedged
+     * @return the twin leased, null if not in the endgame or no span is worth hedging
+     */
+    synchronized Span hedge(int endgameBlocks, long minimumBytes) {
+        if (!freeBlocks.isEmpty() || leasedCount > endgameBlocks) return null;
+        Span hedged = null;
+        for (Span span : spans) {
+            if (span.twin != null || bytesLeft(span) < minimumBytes) continue;
+            if (hedged == null || span.end - span.next > hedged.end - hedged.next) hedged = span;
+        }
+        if (hedged == null) return null;
+        Span twin = new Span(hedged.next, hedged.end);
+        twin.twin = hedged;
+        hedged.twin = twin;
+        spans.add(twin);
+        return twin;
+    }
+
+    /**
+     * Whether some span can be hedged, see {@link #hedge(int, long)}
+     *
+     * @param endgameBlocks the count of blocks leased at most in the endgame, 0 if never hedging
+     * @param minimumBytes  the bytes left at least in a span hedged
+     * @return true if a connection can hedge a span
+     */
+    synchronized boolean isHedgeable(int endgameBlocks, long minimumBytes) {
+        if (!freeBlocks.isEmpty() || leasedCount > endgameBlocks) return false;
+        for (Span span : spans) {
+            if (span.twin == null && bytesLeft(span) >= minimumBytes) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Advance the span to the given position of the file, the blocks of the span wholly before the position are written
+     * <p>Blocks written by the twin already are skipped as wasted. Once a hedged span is finished, its twin is cancelled:
+     * the canceller of the twin is called outside the lock, and the owner of the twin should stop as if the twin were finished.</p>
+     *
+     * @param span     the span leased
+     * @param position the position written up to, exclusive
+     * @return true if all the blocks are written or verified since this advance
+     */
+    boolean advance(Span span, long position) {
+        Runnable canceller = null;
+        boolean written;
+        synchronized (this) {
+            boolean advanced = false;
+            while (span.next < span.end && endOf(span.next) <= position) {
+                FileData.Block block = blocks.get(span.next++);
+                if (states.get(block) == State.LEASED) {
+                    written(block);
+                    advanced = true;
+                } else wastedBytes += block.length;
+            }
+            span.position = Math.max(span.position, position);
+            if (span.next < span.end) return false;
+            spans.remove(span);
+            Span twin = span.twin;
+            if (twin != null) {
+                // The twin loses, the bytes it downloaded of the block being written are discarded
+                if (twin.next < twin.end) wastedBytes += Math.max(twin.position - blocks.get(twin.next).offset, 0);
+                twin.end = twin.next;
+                twin.twin = null;
+                span.twin = null;
+                spans.remove(twin);
+                canceller = twin.canceller;
+            }
+            written = advanced && isWritten();
+        }
+        if (canceller != null) canceller.run();
+        return written;
+    }
+
+    /**
+     * Get the position the span should write from, the bytes before are written by its twin already
+     *
+     * @param span the span leased
+     * @return the position written up to by the twin, the start of the span if not hedged
+     */
+    synchronized long skipTo(Span span) {
+        return span.twin == null ? span.start() : Math.max(span.twin.position, span.start());
+    }
+
+    /**
+     * Give the blocks of the span not written yet back, so that they can be leased again
+     * <p>The blocks of a hedged span are left to its twin instead.</p>
+     *
+     * @param span the span leased
+     */
+    synchronized void release(Span span) {
+        if (span.twin != null) {
+            span.twin.twin = null;
+            span.twin = null;
+        } else {
+            for (int i = span.next; i < span.end; ++i) {
+                // The blocks written by a former twin are not leased any more
+                FileData.Block block = blocks.get(i);
+                if (states.get(block) == State.LEASED) release(block);
+            }
+        }
+        span.end = span.next;
+        span.canceller = null;
+        spans.remove(span);
+    }
+
+    /**
+     * Give the leased block back, so that it can be leased again
+     *
+     * @param block the block leased
+     * @throws IllegalStateException if the block is not leased
+     */
+    synchronized void release(FileData.Block block) {
+        transit(block, State.LEASED, State.FREE);
+        --leasedCount;
+        block.available = true;
+        // Blocks given back are kept in the order of the file, so that the selector sees the same order as the first time
+        int index = Collections.binarySearch(freeBlocks, block, Comparator.comparingLong(free -> free.offset));
+        freeBlocks.add(index < 0 ? -index - 1 : index, block);
+    }
+
+    /**
+     * Mark the leased block written, all its bytes are written to the file but not persisted yet
+     *
+     * @param block the block leased
+     * @return true if all the blocks are written or verified
+     * @throws IllegalStateException if the block is not leased
+     */
+    synchronized boolean written(FileData.Block block) {
+        transit(block, State.LEASED, State.WRITTEN);
+        --leasedCount;
+        ++writtenCount;
+        return isWritten();
+    }
+
+    /**
+     * Mark all the written blocks verified, which should be called once the file is persisted
+     *
+     * @return the count of blocks verified by this call
+     */
+    synchronized int verify() {
+        int count = 0;
+        for (Map.Entry<FileData.Block, State> entry : states.entrySet()) {
+            if (entry.getValue() == State.WRITTEN) {
+                entry.setValue(State.VERIFIED);
+                ++count;
+            }
+        }
+        writtenCount -= count;
+        verifiedCount += count;
+        return count;
+    }
+
+    /**
+     * Get the state of the given block
+     *
+     * @param block the block
+     * @return the state of the block
+     * @throws IllegalArgumentException if the block is not managed
+     */
+    synchronized State state(FileData.Block block) {
+        State state = states.get(block);
+        if (state == null) throw new IllegalArgumentException("the block is not managed");
+        return state;
+    }
+
+    /**
+     * Whether some block is free
+     *
+     * @return true if some block is free
+     */
+    synchronized boolean hasFree() {
+        return !freeBlocks.isEmpty();
+    }
+
+    /**
+     * Get the count of blocks leased
+     *
+     * @return the count of blocks leased
+     */
+    synchronized int leasedCount() {
+        return leasedCount;
+    }
+
+    /**
+     * Get the bytes downloaded twice by hedged spans
+     *
+     * @return the bytes wasted, in bytes
+     */
+    synchronized long wastedBytes() {
+        return wastedBytes;
+    }
+
+    /**
+     * Whether all the blocks are written or verified
+     *
+     * @return true if nothing is left to download
+     */
+    synchronized boolean isWritten() {
+        return freeBlocks.isEmpty() && leasedCount == 0;
+    }
+
+    /**
+     * Whether all the blocks are verified
+     *
+     * @return true if all the blocks are persisted
+     */
+    synchronized boolean isComplete() {
+        return verifiedCount == states.size();
+    }
+
+    private long bytesLeft(Span span) {
+        return span.next == span.end ? 0 : endOf(span.end - 1) - Math.max(span.position, blocks.get(span.next).offset);
+    }
+
+    private long endOf(int index) {
+        FileData.Block block = blocks.get(index);
+        return block.offset + block.length;
+    }
+
+    private void transit(FileData.Block block, State from, State to) {
+        State state = states.get(block);
+        if (state == null) throw new IllegalArgumentException("the block is not managed");
+        if (state != from) throw new IllegalStateException("the block is " + state.name().toLowerCase() + " instead of " + from.name().toLowerCase());
+        states.put(block, to);
+    }
+
+    /**
+     * Contiguous blocks leased by one connection, which are fetched by one request and written in the order of the file
+     * <p>Its start never changes, its end is shortened once stolen from or once its twin wins, the owner should stop once its end is reached</p>
+     *
+     * @author Ricardo Evans
+     * @version 1.0
+     */
+    final class Span {
+        private final int first;
+        private int next;  // the first block not written yet
+        private int end;  // exclusive, shortened once stolen from
+        private long requestedEnd = -1;
+        private long position;  // the position written up to
+        private Span twin;  // the span fetching the same blocks in the endgame
+        private Runnable canceller;  // cancels the request of the span once its twin wins
+
+        private Span(int first, int end) {
+            this.first = first;
+            this.next = first;
+            this.end = end;
+            this.position = start();
+        }
+
+        /**
+         * Get the first byte of the span
+         *
+         * @return the offset of the span
+         */
+        long start() {
+            return blocks.get(first).offset;
+        }
+
+        /**
+         * Get the end of the span, which may be shortened at any time
+         *
+         * @return the end of the span, exclusive
+         */
+        long end() {
+            synchronized (BlockLeaseManager.this) {
+                return end == first ? start() : endOf(end - 1);
+            }
+        }
+
+        /**
+         * Record the end of the span as requested, the response of the request may exceed the span once stolen from
+         *
+         * @return the end requested, exclusive
+         */
+        long request() {
+            requestedEnd = end();
+            return requestedEnd;
+        }
+
+        /**
+         * Get the end of the span when requested
+         *
+         * @return the end requested, exclusive, -1 if not requested yet
+         */
+        long requestedEnd() {
+            return requestedEnd;
+        }
+
+        /**
+         * Set the canceller of the request fetching the span, which is called once its twin wins
+         *
+         * @param canceller the canceller, null if nothing to cancel
+         */
+        void setCanceller(Runnable canceller) {
+            synchronized (BlockLeaseManager.this) {
+                this.canceller = canceller;
+            }
+        }
+
+        /**
+         * Whether all the blocks of the span are written, or given back
+         *
+         * @return true if nothing is left in the span
+         */
+        boolean isFinished() {
+            synchronized (BlockLeaseManager.this) {
+                return next == end;
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.owl.downloader.core;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Controller of the connections count of a task, which adapts the count to the throughput measured, additive increase and multiplicative decrease
+ * <p>The target starts at the initial count, which is half of the maximum connections configured, and grows by 1 at a time while the throughput keeps rising.
+ * An increase which does not raise the throughput by the gain is taken back, an increase after which the throughput falls by the gain halves the target,
+ * the target is held for a while then before probing again. Failures, including servers answering 429 or 503, halve the target at most once per window.</p>
+ * The throughput is measured over windows from the first bytes, the window right after a change is skipped so that the connections settle first.
+ * The target never exceeds the maximum given, which is the maximum connections configured.
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+final class ConnectionController {
+    static final long WINDOW = 500;  // ms
+    static final double GAIN = 0.1;
+    static final int HOLD_WINDOWS = 8;
+    private final LongSupplier clock;
+    private int target;
+    private int previousTarget;
+    private boolean increased = false;
+    private boolean settling = false;
+    private int holdWindows = 0;
+    private double baseline = 0;  // the throughput before the last increase
+    private long windowStart = -1;  // -1 until the first bytes
+    private long windowBytes = 0;
+    private long lastBackOff;
+
+    /**
+     * Get the initial target of a task, half of its maximum connections, so that the connections added are measured
+     *
+     * @param maximum the maximum connections
+     * @return the initial target, at least 1
+     */
+    static int initialTarget(int maximum) {
+        return Math.max((maximum + 1) / 2, 1);
+    }
+
+    /**
+     * Construct a controller measuring with the wall clock
+     *
+     * @param initial the initial target
+     * @throws IllegalArgumentException if the initial target is not positive
+     */
+    ConnectionController(int initial) {
+        this(initial, System::currentTimeMillis);
+    }
+
+    /**
+     * Construct a controller measuring with the given clock
+     *
+     * @param initial the initial target
+     * @param clock   the clock, in milliseconds
+     * @throws IllegalArgumentException if the initial target is not positive
+     */
+    ConnectionController(int initial, LongSupplier clock) {
+        if (initial <= 0) throw new IllegalArgumentException("invalid initial target");
+        this.target = initial;
+        this.previousTarget = initial;
+        this.clock = clock;
+        this.lastBackOff = clock.getAsLong() - WINDOW;
+    }
+
+    /**
+     * Record the bytes downloaded, the target is adjusted once a window is finished
+     *
+     * @param bytes   the bytes downloaded
+     * @param maximum the maximum connections
+     * @return true if the target is increased, new connections should be started then
+     */
+    synchronized boolean record(long bytes, int maximum) {
+        long now = clock.getAsLong();
+        if (windowStart == -1) windowStart = now;
+        windowBytes += bytes;
+        long elapsed = now - windowStart;
+        if (elapsed < WINDOW) return false;
+        double throughput = windowBytes * 1000.0 / elapsed;
+        windowStart = now;
+        windowBytes = 0;
+        if (target > maximum) target = maximum;
+        if (settling) {
+            settling = false;
+            return false;
+        }
+        if (increased) {
+            increased = false;
+            if (throughput < baseline * (1 + GAIN)) {
+                // The connection added does not pay, or even slows the others down
+                target = throughput < baseline * (1 - GAIN) ? Math.max(previousTarget / 2, 1) : Math.min(previousTarget, maximum);
+                holdWindows = HOLD_WINDOWS;
+                settling = true;
+                return false;
+            }
+        }
+        if (holdWindows > 0) {
+            --holdWindows;
+            return false;
+        }
+        if (target >= maximum) return false;
+        previousTarget = target;
+        baseline = throughput;
+        ++target;
+        increased = true;
+        settling = true;
+        return true;
+    }
+
+    /**
+     * Halve the target once a connection fails or the server asks to slow down, failures within a window are taken as one
+     */
+    synchronized void backOff() {
+        long now = clock.getAsLong();
+        if (now - lastBackOff < WINDOW) return;
+        lastBackOff = now;
+        target = Math.max(target / 2, 1);
+        increased = false;
+        holdWindows = HOLD_WINDOWS;
+        settling = true;
+        windowStart = now;
+        windowBytes = 0;
+    }
+
+    /**
+     * Get the current target
+     *
+     * @param maximum the maximum connections
+     * @return the target, between 1 and the maximum
+     */
+    synchronized int target(int maximum) {
+        return Math.max(Math.min(target, maximum), 1);
+    }
+}
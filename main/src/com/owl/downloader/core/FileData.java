@@ -33,7 +33,7 @@ public class FileData implements Serializable {
     }
 
     private void split(int blockSize) {
-        int offset = 0;
+        long offset = 0;
         while (offset < file.length()) {
             blocks.add(new Block(offset, Math.min(blockSize, file.length() - offset)));
             offset += blockSize;
@@ -110,7 +110,7 @@ public class FileData implements Serializable {
          */
         static BlockSelector getDefault() {
             BlockSelector blockSelector = (List<Block> blocks1) -> {
-                return blocks1.stream().filter(block -> block.available).findAny().get();
+                return blocks1.stream().filter(block -> block.available).findAny().orElse(null);
             };
             return blockSelector;
         }
@@ -119,7 +119,7 @@ public class FileData implements Serializable {
          * Select a block from the given available blocks
          *
          * @param availableBlocks the available block
-         * @return the prefer block
+         * @return the prefer block, null if no block is available
          */
         Block select(List<Block> availableBlocks);
     }
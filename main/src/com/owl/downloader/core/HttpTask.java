@@ -1,27 +1,35 @@
 package com.owl.downloader.core;
 
+import com.owl.downloader.http.ConnectionPool;
+import com.owl.downloader.http.HttpConnection;
+import com.owl.downloader.http.HttpResponseParser;
+import com.owl.downloader.io.HappyEyeballs;
 import com.owl.downloader.io.IOCallback;
 import com.owl.downloader.io.IOScheduler;
-import com.owl.downloader.util.MyX509TrustManager;
-import com.owl.downloader.util.SSLEngineUtil;
+import com.owl.downloader.io.Registration;
+import com.owl.downloader.io.TlsChannel;
 
 import javax.net.ssl.*;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.ProtocolException;
 import java.net.Proxy;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Objects;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Task that downloads http url
@@ -30,23 +38,51 @@ import java.util.Objects;
  * @version 1.0
  */
 public class HttpTask extends BaseTask implements Task {
-    private final URI uri;
+    private static final int RESPONSE_BUFFER_SIZE = 16384;
+    private static final int MAXIMUM_REDIRECTS = 5;
+    private static final int BUSY_RETRY_DELAY = 100; // ms
+    private static final int FAILURE_RETRY_DELAY = 500; // ms
+    private static final double MIRROR_HYSTERESIS = 1.25;
+    private static final double SLOW_MIRROR_RATIO = 0.1;
+    private final List<Mirror> mirrors = new ArrayList<>();
     private Proxy proxy;
     private String type;
-    private String protocol;
-    private final IOScheduler ioScheduler = IOScheduler.getInstance();
-    private long currentConnections = 0;
+    private transient IOScheduler ioScheduler;
+    private final AtomicInteger currentConnections = new AtomicInteger(0);
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean(false);
     private long downloadSpeed = 0;
     private long downloadedLength = 0;
     private long totalLength = 0;
+    private boolean acceptRanges;
+    private String etag;
+    private String lastModified;
     private long currentTime;
     private final List<FileData> files = new LinkedList<>();
+    private transient volatile BlockLeaseManager leases;
+    private transient volatile ConnectionController connectionController;
+    private transient volatile Map<String, Mirror> origins;
 
     public HttpTask(URI uri) {
-        super(new File(uri.getPath()).getName());
-        this.uri = uri;
-        this.protocol = uri.getScheme();
-        this.proxy = getProxySelector().select(uri).get(0);
+        this(List.of(uri));
+    }
+
+    /**
+     * Construct a task downloading the same resource from the given mirrors, the first one is probed for the resource
+     * <p>The other mirrors are verified to agree on the length and the entity tag once the task runs,
+     * the connections are spread across the mirrors in proportion to their speeds</p>
+     *
+     * @param uris the uris of the mirrors, the first one is preferred
+     * @throws IllegalArgumentException if no uri is given
+     */
+    public HttpTask(List<URI> uris) {
+        super(nameOf(uris));
+        for (URI uri : uris) mirrors.add(new Mirror(uri));
+        this.proxy = getProxySelector().select(uris.get(0)).get(0);
+    }
+
+    private static String nameOf(List<URI> uris) {
+        if (uris.isEmpty()) throw new IllegalArgumentException("no uri of the resource");
+        return new File(uris.get(0).getPath()).getName();
     }
 
 
@@ -88,251 +124,1004 @@ public class HttpTask extends BaseTask implements Task {
     }
 
     /**
-     * Create connections for available blocks.
+     * Get the target connections count, which adapts to the throughput measured once the task runs
+     *
+     * @return the target connections count, the maximum connections count if the task is not run yet
+     */
+    @Override
+    public int targetConnections() {
+        ConnectionController connectionController = this.connectionController;
+        if (connectionController == null) return getMaximumConnections();
+        return connectionController.target(getMaximumConnections());
+    }
+
+    /**
+     * Get the entity tag of the resource, which is known once the task is started
+     *
+     * @return the entity tag, null if not given by the server
+     */
+    public String etag() {
+        return etag;
+    }
+
+    /**
+     * Get the last modified date of the resource, which is known once the task is started
+     *
+     * @return the last modified date, null if not given by the server
+     */
+    public String lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Get the bytes downloaded twice by the connections hedging the tail of the task, which are discarded
+     *
+     * @return the bytes wasted, 0 if the task is not started
+     */
+    public long wastedLength() {
+        BlockLeaseManager leases = this.leases;
+        return leases == null ? 0 : leases.wastedBytes();
+    }
+
+    /**
+     * Probe the resource, then start connections for the free blocks, the connections lease the next blocks by themselves once finished.
+     * The task completes once all the blocks are persisted, no thread waits for it, not even for the probe.
      */
     @Override
     public void run() {
-        if (protocol.equals("http")) {
-            try {
-                setHttpFileAttributes();
-            } catch (IOException e) {
-                changeStatus(Status.ERROR, e);
+        ioScheduler = IOScheduler.getInstance();
+        connectionController = new ConnectionController(ConnectionController.initialTarget(getMaximumConnections()));
+        origins = new ConcurrentHashMap<>();
+        for (Mirror mirror : mirrors) mirror.setState(Mirror.State.PENDING);
+        Mirror primary = mirrors.get(0);
+        probe(primary).whenComplete((probeConnection, throwable) -> {
+            if (throwable != null) {
+                changeStatus(Status.ERROR, exceptionOf(throwable));
                 return;
             }
-        } else {
             try {
-                setHttpsFileAttributes();
-            } catch (Exception e) {
+                start(primary, probeConnection);
+            } catch (RuntimeException e) {
                 changeStatus(Status.ERROR, e);
+            }
+        });
+    }
+
+    /**
+     * Start connections for the free blocks once the resource is probed, the connection of the probe takes the first block.
+     */
+    private void start(Mirror primary, HttpConnection probeConnection) {
+        primary.setState(Mirror.State.VERIFIED);
+        origins.put(primary.origin(), primary);
+
+        // A resumed task keeps the blocks of its file
+        if (leases == null) {
+            createFile();
+            if (status() != Status.ACTIVE) {
+                if (probeConnection != null) probeConnection.release();
                 return;
             }
+            leases = new BlockLeaseManager(files.get(0).getBlocks());
+        }
+        currentTime = System.currentTimeMillis();
+        if (leases.isWritten()) {
+            if (probeConnection != null) probeConnection.release();
+            persist();
+            return;
         }
 
-        createFile();
-        FileData.BlockSelector blockSelector = FileData.BlockSelector.getDefault();
-        List<FileData.Block> availableBlocks = files.get(0).getBlocks();  //need to change.
+        if (probeConnection != null) {
+            // The connection of the probe is kept for the first block, which saves its connect and handshake
+            if (Session.getInstance().isHttp2Enabled() || !reserveConnection()) probeConnection.release();
+            else {
+                primary.connect(System.currentTimeMillis());
+                finishRequest(probeConnection, false);
+            }
+        }
+        // The other mirrors take connections once verified, ranges are fetched from them only
+        if (acceptRanges && !Session.getInstance().isHttp2Enabled()) {
+            for (Mirror mirror : mirrors.subList(1, mirrors.size())) verifyMirror(mirror);
+        }
+        dispatch();
+    }
 
+    /**
+     * Verify the mirror by its probe, a mirror agreeing with the resource takes connections of the task from then on.
+     * Mirrors redirected to the origin of another mirror are taken as one, since they share the connections of the origin.
+     * A failed probe is a failure of the mirror, which is probed again a moment later, the mirror is rejected once it is demoted.
+     * A mirror answering something else than the resource is rejected at once.
+     */
+    private void verifyMirror(Mirror mirror) {
+        probe(mirror).whenComplete((connection, throwable) -> {
+            if (throwable == null) {
+                verified(mirror, connection);
+                return;
+            }
+            long now = System.currentTimeMillis();
+            mirror.fail(now);
+            if (exceptionOf(throwable) instanceof ProtocolException || mirror.isDemoted(now) || status() != Status.ACTIVE) mirror.setState(Mirror.State.REJECTED);
+            else CompletableFuture.delayedExecutor(FAILURE_RETRY_DELAY, TimeUnit.MILLISECONDS).execute(() -> verifyMirror(mirror));
+        });
+    }
 
-        FileData.Block block;
-        currentTime = System.currentTimeMillis();
+    // The mirror agrees with the resource, its origin is taken unless another mirror holds it already
+    private void verified(Mirror mirror, HttpConnection connection) {
+        if (connection != null) connection.release();
+        if (origins.putIfAbsent(mirror.origin(), mirror) != null) {
+            mirror.setState(Mirror.State.REJECTED);
+            return;
+        }
+        mirror.setState(Mirror.State.VERIFIED);
+        // Connections move to the mirror as they finish their spans
+        dispatch();
+    }
 
-        while ((block = Objects.requireNonNull(blockSelector).select(availableBlocks)) != null) {
-            if (currentConnections < getMaximumConnections() && status() == Status.ACTIVE) {
-                ++currentConnections;
-                block.available = false;
-                if (protocol.equals("http")) {
-                    createHttpConnection(block);
-                } else {
-                    createHttpsConnection(block);
+    /**
+     * Start connections for the free blocks and the spans worth stealing, up to the maximum connections of the task.
+     * It is called once the task runs and whenever a connection finishes, so the blocks given back by broken connections are leased again.
+     */
+    private void dispatch() {
+        ConnectionPool connectionPool = Session.getInstance().getConnectionPool();
+        boolean http2 = Session.getInstance().isHttp2Enabled();
+        while (status() == Status.ACTIVE && (http2 ? leases.hasFree() : isLeasable()) && reserveConnection()) {
+            if (http2) {
+                FileData.Block block = takeBlock();
+                if (block == null) {
+                    currentConnections.decrementAndGet();
+                    return;
                 }
+                http2Request(block);
+                continue;
             }
+            Mirror mirror = chooseMirror(null);
+            HttpConnection connection = connectionPool.acquire(mirror.origin());
+            if (connection == null) {
+                currentConnections.decrementAndGet();
+                // The host is busy with the connections of other tasks
+                scheduleDispatch(BUSY_RETRY_DELAY);
+                return;
+            }
+            mirror.connect(System.currentTimeMillis());
+            if (!finishRequest(connection, false)) return;
         }
+    }
 
-        changeStatus(Status.COMPLETED);
+    private void scheduleDispatch(long delay) {
+        if (!dispatchScheduled.compareAndSet(false, true)) return;
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+            dispatchScheduled.set(false);
+            dispatch();
+        });
+    }
+
+    // Reserve a connection of the task up to its target, streams are counted as connections
+    private boolean reserveConnection() {
+        int maximum = Session.getInstance().isHttp2Enabled() ? maximumStreams() : connectionsLimit();
+        while (true) {
+            int current = currentConnections.get();
+            if (current >= maximum) return false;
+            if (currentConnections.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    // Streams served by http/1.1 take a connection each, so they are limited by the maximum connections until the host proves to be http/2
+    private int maximumStreams() {
+        if (Session.getInstance().getHttp2Transport().isMultiplexed(mirrors.get(0).uri())) return Session.getInstance().getMaximumStreams();
+        return Math.min(Session.getInstance().getMaximumStreams(), getMaximumConnections());
     }
 
     /**
-     * Set Http source file's length and type.
+     * Lease a free block chosen by the block selector, each http/2 stream fetches a single block.
      */
-    private void setHttpFileAttributes() throws IOException {
-        HttpURLConnection httpConnection = null;
-        httpConnection = (HttpURLConnection) this.uri.toURL().openConnection();
-        httpConnection.connect();
-        totalLength = httpConnection.getContentLength();
-        type = httpConnection.getContentType();
+    private FileData.Block takeBlock() {
+        return leases.lease(getBlockSelector());
     }
 
-    private void setHttpsFileAttributes() throws NoSuchProviderException, NoSuchAlgorithmException, KeyManagementException, IOException {
-        SSLContext sslcontext = SSLContext.getInstance("SSL", "SunJSSE");
-        sslcontext.init(null, new TrustManager[]{new MyX509TrustManager()}, new java.security.SecureRandom());
-        HostnameVerifier ignoreHostnameVerifier = (s, sslsession) -> true;
-        HttpsURLConnection.setDefaultHostnameVerifier(ignoreHostnameVerifier);
-        HttpsURLConnection.setDefaultSSLSocketFactory(sslcontext.getSocketFactory());
-        HttpsURLConnection httpsConnection = null;
-        try {
-            httpsConnection = (HttpsURLConnection) this.uri.toURL().openConnection(proxy);
+    private void returnBlock(FileData.Block block) {
+        leases.release(block);
+    }
+
+    /**
+     * Lease a span of free blocks, or steal the back half of the largest span left once no block is free,
+     * or hedge the span in flight with the most blocks left once the endgame starts.
+     */
+    private BlockLeaseManager.Span takeSpan() {
+        BlockLeaseManager.Span span = leaseSpan();
+        if (span == null) span = leases.steal();
+        return span != null ? span : leases.hedge(Session.getInstance().getEndgameBlocks(), RESPONSE_BUFFER_SIZE);
+    }
+
+    private boolean isLeasable() {
+        return leases.isLeasable() || isHedgeable();
+    }
+
+    // A span with less bytes left than one read is not hedged, its bytes are mostly in flight already
+    private boolean isHedgeable() {
+        return leases.isHedgeable(Session.getInstance().getEndgameBlocks(), RESPONSE_BUFFER_SIZE);
+    }
+
+    // The tail is too short for the target to adapt, so the endgame may take all the connections configured
+    private int connectionsLimit() {
+        return isHedgeable() ? getMaximumConnections() : targetConnections();
+    }
+
+    // The free blocks are shared by the connections of the task
+    private BlockLeaseManager.Span leaseSpan() {
+        return leases.leaseSpan(getBlockSelector(), getMaximumConnections());
+    }
+
+    /**
+     * Mark the block written once its response is finished, the file is persisted once the last block is written.
+     */
+    private void finishBlock(FileData.Block block) {
+        // Forcing the file blocks, so it is done off the io threads
+        if (leases.written(block)) CompletableFuture.runAsync(this::persist);
+    }
+
+    /**
+     * Advance the span to the position written, the file is persisted once the last block is written.
+     */
+    private void advance(BlockLeaseManager.Span span, long position) {
+        if (leases.advance(span, position)) CompletableFuture.runAsync(this::persist);
+        else scheduleHedge();
+    }
+
+    /**
+     * Start new connections once the endgame starts, which hedge the spans in flight, so a stalled connection no longer holds back the task.
+     */
+    private void scheduleHedge() {
+        if (currentConnections.get() < getMaximumConnections() && isHedgeable()) scheduleDispatch(0);
+    }
+
+    /**
+     * Force the written blocks to the disk and verify them, the task completes once all the blocks are verified.
+     */
+    private void persist() {
+        try (FileChannel fileChannel = FileChannel.open(Paths.get(getDirectory() + name()), StandardOpenOption.WRITE)) {
+            fileChannel.force(false);
         } catch (IOException e) {
             changeStatus(Status.ERROR, e);
             return;
         }
-        httpsConnection.setInstanceFollowRedirects(false);
-        httpsConnection.connect();
-        totalLength = httpsConnection.getContentLength();
-        type = httpsConnection.getContentType();
+        leases.verify();
+        // A task paused meanwhile completes once resumed
+        if (leases.isComplete() && status() == Status.ACTIVE) changeStatus(Status.COMPLETED);
     }
 
     /**
-     * Create connection for a block,send channels and buffers to IOScheduler.
+     * Send the request of the next span on the connection, or give the connection back to the pool once nothing left.
+     * A connection broken leaves its slot to a new connection a moment later, so a broken host is not hammered by reconnects.
+     * Failures, including the responses 429 and 503, back the target connections off, connections beyond the target are given back.
+     * A connection moves to another mirror once the other gets a larger share of speed, its slot is taken by a new connection to the other.
+     *
+     * @return false if the connection is given back with nothing left to lease
      */
-    private void createHttpConnection(FileData.Block block) {
-        try (SocketChannel socketChannel = SocketChannel.open()) {
-            socketChannel.configureBlocking(false);
+    private boolean finishRequest(HttpConnection connection, boolean failed) {
+        HttpResponseParser parser = connection.parser();
+        Mirror mirror = mirrorOf(connection);
+        boolean reusable = !connection.isConnected() || (connection.isOpen() && (connection.requestCount() == 0 || (parser.isComplete() && parser.isKeepAlive())));
+        if (!failed && reusable && status() == Status.ACTIVE && currentConnections.get() <= connectionsLimit() && chooseMirror(mirror) == mirror) {
+            BlockLeaseManager.Span span = takeSpan();
+            if (span != null) {
+                scheduleHedge();
+                httpRequest(connection, span);
+                return true;
+            }
+            mirror.disconnect(System.currentTimeMillis());
+            connection.release();
+            currentConnections.decrementAndGet();
+            return false;
+        }
+        mirror.disconnect(System.currentTimeMillis());
+        connection.release();
+        currentConnections.decrementAndGet();
+        if (failed) {
+            mirror.fail(System.currentTimeMillis());
+            connectionController.backOff();
+            scheduleDispatch(FAILURE_RETRY_DELAY);
+        } else dispatch();
+        return true;
+    }
 
-            String host = uri.getHost();
-            String path = uri.getPath();
-            int port = uri.getPort();
-            if (port == -1) {
-                port = 80;
+    // The connections of the task are keyed by the origins of the verified mirrors
+    private Mirror mirrorOf(HttpConnection connection) {
+        return origins.get(connection.origin());
+    }
+
+    /**
+     * Choose the mirror where a connection gets the largest share of speed, so the connections go in proportion to the speeds of the mirrors.
+     * Mirrors not measured yet are taken as fast as the fastest one, a connection moves only if another mirror is better by the hysteresis.
+     * Demoted mirrors and slow mirrors holding a connection already are skipped, the current mirror or the first one is kept if nothing else is left.
+     *
+     * @param current the mirror of the connection finishing, which counts the connection, null for a new connection
+     */
+    private Mirror chooseMirror(Mirror current) {
+        Mirror first = mirrors.get(0);
+        if (mirrors.size() == 1) return first;
+        long now = System.currentTimeMillis();
+        double fastest = 0;
+        for (Mirror mirror : mirrors) fastest = Math.max(fastest, mirror.speed());
+        Mirror best = null;
+        double bestShare = 0;
+        for (Mirror mirror : mirrors) {
+            if (mirror.state() != Mirror.State.VERIFIED || mirror.isDemoted(now)) continue;
+            double speed = mirror.speed() == 0 ? Math.max(fastest, 1) : mirror.speed();
+            int connections = mirror.connections();
+            if (mirror != current) {
+                if (speed < fastest * SLOW_MIRROR_RATIO && connections > 0) continue;
+                ++connections;
             }
-            InetSocketAddress address = new InetSocketAddress(host, port);
-            socketChannel.connect(address);
-
-            String requestMessage = ("GET " + path + " HTTP/1.1\r\n") +
-                    "Host:" + host + "\r\n" +
-                    "Connection: close\r\n" +
-                    "Range: bytes=" + block.offset + "-" + (block.length + block.offset - 1) + "\r\n" +
-                    "\r\n";
-            ByteBuffer requestBuffer = ByteBuffer.wrap(requestMessage.getBytes());
-            while (!socketChannel.finishConnect()) {
+            double share = speed / Math.max(connections, 1);
+            if (mirror == current) share *= MIRROR_HYSTERESIS;
+            if (best == null || share > bestShare) {
+                best = mirror;
+                bestShare = share;
             }
-            socketChannel.write(requestBuffer);
-            skipHttpHeader(socketChannel);
-
-            FileChannel fileChannel = (new FileInputStream(getDirectory() + name())).getChannel().position(block.offset);
-            ByteBuffer responseBuffer = ByteBuffer.allocate(16 * 1024);
+        }
+        if (best != null) return best;
+        return current != null ? current : first;
+    }
 
-            httpRead(socketChannel, fileChannel, responseBuffer);
+    /**
+     * Probe the length, type and validators of the resource with a HEAD request, redirects are followed and the final uri is kept.
+     * The first byte is requested instead if HEAD is not supported or the ranges are not advertised.
+     * The probe goes through the IOScheduler like the blocks, the connection of the probe is returned for the first block.
+     * The other connections of the task are established meanwhile.
+     * The resource of the first mirror is taken as the resource of the task, the other mirrors should agree with it.
+     * No thread waits for the probe, the future is completed by the io callbacks.
+     *
+     * @param mirror the mirror probed
+     * @return the future of the connection of the probe, whose value is null if the connection cannot be reused
+     */
+    private CompletableFuture<HttpConnection> probe(Mirror mirror) {
+        CompletableFuture<HttpConnection> future = new CompletableFuture<>();
+        probe(mirror, true, 0, future);
+        return future;
+    }
 
-        } catch (IOException e) {
-            block.available = true;
+    /**
+     * Send a single request of the probe, a redirect or a HEAD not supported sends the next request.
+     * A reused connection closed before the response starts sends the same request again on another connection.
+     */
+    private void probe(Mirror mirror, boolean head, int redirects, CompletableFuture<HttpConnection> future) {
+        HttpConnection connection = Session.getInstance().getConnectionPool().acquire(mirror.origin());
+        if (connection == null) {
+            // The host is busy with the connections of other tasks
+            CompletableFuture.delayedExecutor(BUSY_RETRY_DELAY, TimeUnit.MILLISECONDS).execute(() -> probe(mirror, head, redirects, future));
+            return;
         }
+        CompletableFuture<HttpResponseParser> response = probe(connection, mirror, head);
+        if (mirror == mirrors.get(0) && head && redirects == 0) preconnect(mirror);
+        response.whenComplete((parser, throwable) -> {
+            if (throwable == null) {
+                try {
+                    probed(connection, mirror, parser, head, redirects, future);
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+                return;
+            }
+            Exception exception = exceptionOf(throwable);
+            connection.close();
+            if (isStale(connection, exception)) probe(mirror, head, redirects, future);
+            else future.completeExceptionally(exception);
+        });
     }
 
-    private void createHttpsConnection(FileData.Block block) {
-        try {
-            String host = uri.getHost();
-            String path = uri.getPath();
-            int port = uri.getPort();
-            if (port == -1) {
-                port = 443;
+    /**
+     * Take the response of the probe, the resource of the first mirror is recorded, the resource of another mirror is compared with it.
+     */
+    private void probed(HttpConnection connection, Mirror mirror, HttpResponseParser parser, boolean head, int redirects, CompletableFuture<HttpConnection> future) throws ProtocolException {
+        boolean primary = mirror == mirrors.get(0);
+        int status = parser.statusCode();
+        if (status >= 300 && status < 400 && parser.location() != null) {
+            finishProbe(connection);
+            if (redirects + 1 > MAXIMUM_REDIRECTS) throw new ProtocolException("too many redirects");
+            mirror.redirect(parser.location());
+            probe(mirror, head, redirects + 1, future);
+            return;
+        }
+        if (head && (status >= 400 || parser.acceptRanges() == null)) {
+            finishProbe(connection);
+            probe(mirror, false, redirects, future);
+            return;
+        }
+        long length;
+        boolean ranges;
+        if (status == 206) {
+            length = parser.completeLength();
+            ranges = true;
+        } else if (status >= 200 && status < 300) {
+            length = parser.contentLength();
+            ranges = head && parser.acceptRanges().equalsIgnoreCase("bytes");
+        } else {
+            finishProbe(connection);
+            throw new ProtocolException("unexpected status " + status);
+        }
+        if (!primary) {
+            // Entity tags are compared only if both given, since mirrors seldom share them
+            boolean sameEtag = etag == null || parser.etag() == null || etag.equals(parser.etag());
+            if (length != totalLength || !ranges || !sameEtag) {
+                finishProbe(connection);
+                throw new ProtocolException("the mirror does not agree with the resource");
             }
-            SSLEngine sslEngine = SSLEngineUtil.prepareEngine(host, port);
-            SocketChannel socketChannel = SSLEngineUtil.prepareChannel(host, port);
-            while (!socketChannel.finishConnect()) {
+        } else {
+            totalLength = length;
+            acceptRanges = ranges;
+            type = parser.contentType();
+            etag = parser.etag();
+            lastModified = parser.lastModified();
+            if (totalLength < 0 || (!acceptRanges && totalLength > Integer.MAX_VALUE)) {
+                finishProbe(connection);
+                throw new ProtocolException(totalLength < 0 ? "the length of the resource is unknown" : "ranges are not supported by the server");
             }
-            SSLSession session = sslEngine.getSession();
-            ByteBuffer myAppBuffer = ByteBuffer.allocate(session.getApplicationBufferSize());
-            ByteBuffer myNetBuffer = ByteBuffer.allocate(session.getPacketBufferSize());
-            ByteBuffer peerAppBuffer = ByteBuffer.allocate(session.getApplicationBufferSize());
-            ByteBuffer peerNetBuffer = ByteBuffer.allocate(session.getPacketBufferSize());
-
-            SSLEngineUtil.doHandshake(socketChannel, sslEngine, myNetBuffer, peerNetBuffer);
+        }
+        if (connection.isOpen() && parser.isComplete() && parser.isKeepAlive()) {
+            future.complete(connection);
+            return;
+        }
+        finishProbe(connection);
+        future.complete(null);
+    }
 
-            SSLEngineUtil.sendRequest(host, port, path, sslEngine, myAppBuffer, myNetBuffer, socketChannel, block);
+    /**
+     * Establish the other connections of the task speculatively, the connections established are released to the pool,
+     * where they are leased by the blocks once the length is known.
+     * A redirect to another origin leaves them idle until they are evicted by the pool.
+     */
+    private void preconnect(Mirror mirror) {
+        if (Session.getInstance().isHttp2Enabled()) return;
+        ConnectionPool connectionPool = Session.getInstance().getConnectionPool();
+        List<HttpConnection> idleConnections = new ArrayList<>();
+        for (int i = 1; i < getMaximumConnections(); ++i) {
+            HttpConnection connection = connectionPool.acquire(mirror.origin());
+            if (connection == null) break;
+            // Idle connections are established already, they are held until all acquired so that they are not leased again
+            if (connection.isConnected()) {
+                idleConnections.add(connection);
+                continue;
+            }
+            httpConnect(connection, mirror, (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+                if (exception == null) connection.release();
+                else connection.close();
+            });
+        }
+        idleConnections.forEach(HttpConnection::release);
+    }
 
-            FileChannel fileChannel = (new FileInputStream(getDirectory() + name())).getChannel().position(block.offset);
+    // The connection is reused only if the response is finished, since the rest of its body is not read
+    private static void finishProbe(HttpConnection connection) {
+        if (!connection.parser().isComplete()) connection.close();
+        else connection.release();
+    }
 
-            httpsRead(socketChannel, fileChannel, peerNetBuffer, peerAppBuffer, sslEngine);
-        } catch (Exception e) {
-            block.available = true;
+    /**
+     * Send the request of the probe on the connection, connect first if the connection is a new one, the future is completed once the header is parsed.
+     */
+    private CompletableFuture<HttpResponseParser> probe(HttpConnection connection, Mirror mirror, boolean head) {
+        CompletableFuture<HttpResponseParser> future = new CompletableFuture<>();
+        if (connection.isConnected()) {
+            probeSend(connection, mirror, head, future);
+            return future;
         }
+        httpConnect(connection, mirror, (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            if (exception == null) probeSend(connection, mirror, head, future);
+            else future.completeExceptionally(exception);
+        });
+        return future;
     }
 
+    private void probeSend(HttpConnection connection, Mirror mirror, boolean head, CompletableFuture<HttpResponseParser> future) {
+        Registration registration;
+        try {
+            registration = ioScheduler.register(connection.socketChannel());
+        } catch (ClosedChannelException e) {
+            future.completeExceptionally(e);
+            return;
+        }
+        // The probe is not persisted, so its reads are not bounded by the budget
+        registration.setRateLimiter(null);
+        registration.setBudget(null);
+        connection.startRequests();
+        HttpResponseParser parser = connection.request();
+        parser.recordMetadata();
+        if (head) parser.expectHead();
+        String requestMessage = (head ? "HEAD " : "GET ") + mirror.target() + " HTTP/1.1\r\n"
+                + "Host:" + mirror.host() + "\r\n"
+                + "Connection: keep-alive\r\n"
+                + (head ? "" : "Range: bytes=0-0\r\n")
+                + "\r\n";
+        IOCallback probeSendCallback = (Channel channel, ByteBuffer requestBuffer, int size, Exception exception) -> {
+            if (exception != null) {
+                future.completeExceptionally(exception);
+                return;
+            }
+            ByteBuffer responseBuffer;
+            try {
+                responseBuffer = ioScheduler.getBufferPool().lease(RESPONSE_BUFFER_SIZE);
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            probeRead(connection, registration, responseBuffer, future);
+        };
+        httpWrite(connection, registration, ByteBuffer.wrap(requestMessage.getBytes()), probeSendCallback);
+    }
 
-    private void httpsRead(ReadableByteChannel readChannel, WritableByteChannel writeChannel, ByteBuffer netBuffer, ByteBuffer appBuffer, SSLEngine sslEngine) {
-        IOCallback httpsReadCallback = (Channel socketchannel, ByteBuffer responseBuffer, int size, Exception exception) -> {
-            if (size != -1) {
-                responseBuffer.flip();
-                SSLEngineResult res = null;
-                try {
-                    res = sslEngine.unwrap(responseBuffer, appBuffer);
-                } catch (SSLException e) {
-                }
-                if (res.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+    /**
+     * Read the response of the probe until its header is parsed, a short body is read as well so that the connection can be reused.
+     */
+    private void probeRead(HttpConnection connection, Registration registration, ByteBuffer buffer, CompletableFuture<HttpResponseParser> future) {
+        HttpResponseParser parser = connection.parser();
+        TlsChannel tlsChannel = connection.tlsChannel();
+        IOCallback probeReadCallback = (Channel channel, ByteBuffer responseBuffer, int size, Exception exception) -> {
+            try {
+                if (exception != null) throw exception;
+                if (size == -1) {
+                    if (!parser.isHeaderComplete()) throw new ProtocolException("unexpected end of stream");
+                    connection.close();
+                } else {
+                    responseBuffer.flip();
+                    int bodySize;
+                    while ((bodySize = parser.parse(responseBuffer)) > 0) responseBuffer.position(responseBuffer.position() + bodySize);
                     responseBuffer.compact();
-                    httpsRead((ReadableByteChannel) socketchannel, writeChannel, responseBuffer, appBuffer, sslEngine);
                 }
-                if (res.getStatus() == SSLEngineResult.Status.OK) {
-                    responseBuffer.compact();
-                    skipHttpsHeader(appBuffer);
-                    httpsWrite((ReadableByteChannel) socketchannel, writeChannel, appBuffer, appBuffer, sslEngine);
+                // Bytes left behind belong to no request, so the connection cannot be reused
+                if (parser.isComplete() && responseBuffer.position() != 0) connection.close();
+                boolean shortBody = parser.remaining() >= 0 && parser.remaining() <= RESPONSE_BUFFER_SIZE;
+                if (!connection.isOpen() || parser.isComplete() || (parser.isHeaderComplete() && !shortBody)) {
+                    ioScheduler.getBufferPool().release(responseBuffer);
+                    future.complete(parser);
+                    return;
                 }
-            } else {
-                --currentConnections;
+                probeRead(connection, registration, responseBuffer, future);
+            } catch (Exception e) {
+                ioScheduler.getBufferPool().release(responseBuffer);
+                future.completeExceptionally(e);
             }
         };
-        Objects.requireNonNull(ioScheduler).read(readChannel, netBuffer, httpsReadCallback);
+        int timeout = parser.isHeaderComplete() ? Session.getInstance().getIdleTimeout() : Session.getInstance().getFirstByteTimeout();
+        if (tlsChannel != null) tlsChannel.read(registration, buffer, timeout, TimeUnit.MILLISECONDS, probeReadCallback);
+        else registration.read(buffer, timeout, TimeUnit.MILLISECONDS, probeReadCallback);
+    }
 
+    /**
+     * Fetch the block as a stream multiplexed over the shared http/2 connection of the host.
+     * The stream is paid with the rate limiter and bounded by the byte budget of the task, as the http/1.1 connections are.
+     */
+    private void http2Request(FileData.Block block) {
+        FileChannel fileChannel;
+        try {
+            fileChannel = FileChannel.open(Paths.get(getDirectory() + name()), StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            returnBlock(block);
+            currentConnections.decrementAndGet();
+            scheduleDispatch(FAILURE_RETRY_DELAY);
+            return;
+        }
+        Session.getInstance().getHttp2Transport().fetch(mirrors.get(0).uri(), block.offset, block.offset + block.length - 1, fileChannel, downloadLimiter(), inFlightBudget(), this::recordDownloaded)
+                .whenComplete((written, exception) -> {
+                    closeChannel(fileChannel);
+                    if (exception != null) returnBlock(block);
+                    else finishBlock(block);
+                    currentConnections.decrementAndGet();
+                    if (exception != null) scheduleDispatch(FAILURE_RETRY_DELAY);
+                    else dispatch();
+                });
     }
 
-    private void httpsWrite(ReadableByteChannel readChannel, WritableByteChannel writeChannel, ByteBuffer netBuffer, ByteBuffer appBuffer, SSLEngine sslEngine) {
-        IOCallback httpsWriteCallback = (Channel fileChannel, ByteBuffer responseBuffer, int size, Exception exception) -> {
-            long lastTime = currentTime;
-            currentTime = System.currentTimeMillis();
-            downloadSpeed = size / (currentTime - lastTime) * 1000;//B/s
-            System.out.println(size);
-            synchronized (this) {
-                adjustDownloadedLength(size);
+    /**
+     * Send the request of a span on the connection, connect first if the connection is a new one, send channels and buffers to IOScheduler.
+     */
+    private void httpRequest(HttpConnection connection, BlockLeaseManager.Span span) {
+        connection.startRequests();
+        Deque<BlockLeaseManager.Span> pipeline = new ArrayDeque<>();
+        pipeline.add(span);
+        if (!connection.isConnected()) {
+            IOCallback connectCallback = (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+                if (exception == null) {
+                    httpConnected(connection, pipeline);
+                    return;
+                }
+                connection.close();
+                httpFinish(connection, null, pipeline, null);
+            };
+            httpConnect(connection, mirrorOf(connection), connectCallback);
+            return;
+        }
+        httpConnected(connection, pipeline);
+    }
+
+    /**
+     * Establish the new connection, the host is resolved by the resolver of the session, whose addresses are raced by the connection.
+     * A new connection is established by the IOScheduler, so the connections of the task are established concurrently.
+     * A https connection is secured by its TlsChannel, whose handshake is driven by the IOScheduler as well, the callback is called once all done or failed.
+     */
+    private void httpConnect(HttpConnection connection, Mirror mirror, IOCallback callback) {
+        String host = mirror.host();
+        int port = mirror.port();
+        boolean https = mirror.protocol().equals("https");
+        Session.getInstance().getHostResolver().resolve(host).whenComplete((addresses, throwable) -> {
+            if (throwable != null) {
+                callback.callback(null, null, 0, exceptionOf(throwable));
+                return;
             }
-            httpsRead(readChannel, (WritableByteChannel) fileChannel, netBuffer, appBuffer, sslEngine);
-        };
-        Objects.requireNonNull(ioScheduler).write(writeChannel, appBuffer, httpsWriteCallback);
+            List<InetSocketAddress> socketAddresses = new ArrayList<>(addresses.size());
+            for (InetAddress address : addresses) socketAddresses.add(new InetSocketAddress(address, port));
+            IOCallback connectCallback = (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+                if (exception != null) {
+                    callback.callback(channel, buffer, size, exception);
+                    return;
+                }
+                SocketChannel socketChannel = (SocketChannel) channel;
+                TlsChannel tlsChannel = null;
+                try {
+                    if (https) tlsChannel = new TlsChannel(socketChannel, Session.getInstance().createSSLEngine(host, port), ioScheduler.getBufferPool());
+                    connection.open(socketChannel, tlsChannel);
+                } catch (Exception e) {
+                    closeChannel(tlsChannel != null ? tlsChannel : socketChannel);
+                    callback.callback(channel, null, 0, e);
+                    return;
+                }
+                if (tlsChannel == null) {
+                    callback.callback(channel, null, 0, null);
+                    return;
+                }
+                try {
+                    tlsChannel.handshake(ioScheduler.register(socketChannel), Session.getInstance().getConnectTimeout(), TimeUnit.MILLISECONDS, callback);
+                } catch (ClosedChannelException e) {
+                    callback.callback(channel, null, 0, e);
+                }
+            };
+            HappyEyeballs.connect(ioScheduler, socketAddresses, Session.getInstance().getConnectionAttemptDelay(), Session.getInstance().getConnectTimeout(), TimeUnit.MILLISECONDS, connectCallback);
+        });
     }
 
+    /**
+     * Send the requests on the established connection.
+     */
+    private void httpConnected(HttpConnection connection, Deque<BlockLeaseManager.Span> pipeline) {
+        Registration registration;
+        try {
+            registration = ioScheduler.register(connection.socketChannel());
+        } catch (ClosedChannelException e) {
+            connection.close();
+            httpFinish(connection, null, pipeline, null);
+            return;
+        }
+        httpSend(connection, registration, pipeline);
+    }
 
-    private void httpRead(ReadableByteChannel readChannel, WritableByteChannel writeChannel, ByteBuffer buffer) {
+    /**
+     * Send the requests and read the responses once sent.
+     * Requests of more spans are pipelined on a connection already reused while blocks are free, unless its host is known to break pipelining.
+     */
+    private void httpSend(HttpConnection connection, Registration registration, Deque<BlockLeaseManager.Span> pipeline) {
+        int depth = pipelineDepth(connection);
+        BlockLeaseManager.Span next;
+        while (pipeline.size() < depth && (next = leaseSpan()) != null) pipeline.add(next);
+        BlockLeaseManager.Span span = pipeline.getFirst();
+        // The response of the first request is started before it is written, so a write failure is taken as a response not started
+        HttpResponseParser parser = connection.request();
+        connection.startWriting();
+        IOCallback httpSendCallback = (Channel channel, ByteBuffer requestBuffer, int size, Exception exception) -> {
+            connection.finishWriting();
+            if (exception != null && isStale(connection, exception)) {
+                httpAbort(connection, null, pipeline, null);
+                return;
+            }
+            FileChannel fileChannel = null;
+            ByteBuffer responseBuffer = null;
+            try {
+                if (exception != null) throw exception;
+                fileChannel = FileChannel.open(Paths.get(getDirectory() + name()), StandardOpenOption.WRITE);
+                registration.setRateLimiter(downloadLimiter());
+                registration.setBudget(inFlightBudget());
+                parser.expectRange(span.start(), span.requestedEnd() - 1);
+                span.setCanceller(registration::cancel);
+                responseBuffer = ioScheduler.getBufferPool().lease(RESPONSE_BUFFER_SIZE);
+
+                httpRead(connection, registration, fileChannel, pipeline, span.start(), responseBuffer);
+            } catch (Exception e) {
+                connection.close();
+                httpFinish(connection, fileChannel, pipeline, responseBuffer);
+            }
+        };
+        httpWrite(connection, registration, pipeline, httpSendCallback);
+    }
 
-        IOCallback httpReadCallback = (Channel socketchannel, ByteBuffer responseBuffer, int size, Exception exception) -> {
-            long lastTime = currentTime;
-            currentTime = System.currentTimeMillis();
-            downloadSpeed = size / (currentTime - lastTime) * 1000;//B/s
-            System.out.println(size);
-            synchronized (this) {
-                adjustDownloadedLength(size);
+    /**
+     * Read the http response and parse it, the body bytes are written to file as soon as parsed.
+     * The records of a https connection are decrypted by its TlsChannel.
+     */
+    private void httpRead(HttpConnection connection, Registration registration, FileChannel fileChannel, Deque<BlockLeaseManager.Span> pipeline, long position, ByteBuffer buffer) {
+        HttpResponseParser parser = connection.parser();
+        TlsChannel tlsChannel = connection.tlsChannel();
+        IOCallback httpReadCallback = (Channel channel, ByteBuffer responseBuffer, int size, Exception exception) -> {
+            if (exception == null && size != -1) {
+                httpParse(connection, registration, fileChannel, pipeline, position, responseBuffer);
+                // Written to file by the parse, the tls channel releases the records by itself
+                if (tlsChannel == null) inFlightBudget().release(size);
+                return;
             }
-            if (size != -1) {
-                httpWrite((ReadableByteChannel) socketchannel, writeChannel, responseBuffer);
-            } else {
-                --currentConnections;
+            if (isStale(connection, exception)) {
+                httpAbort(connection, fileChannel, pipeline, responseBuffer);
+                return;
+            }
+            if (exception == null) {
+                try {
+                    parser.endOfStream();
+                    leases.release(pipeline.removeFirst());
+                } catch (ProtocolException ignored) {
+                    // The response is cut short by the close, its span is given back as the connection fails
+                }
             }
+            httpFail(connection, fileChannel, pipeline, responseBuffer);
         };
-        Objects.requireNonNull(ioScheduler).read(readChannel, buffer, httpReadCallback);
+        int timeout = parser.isHeaderComplete() ? Session.getInstance().getIdleTimeout() : Session.getInstance().getFirstByteTimeout();
+        if (tlsChannel != null) tlsChannel.read(registration, buffer, timeout, TimeUnit.MILLISECONDS, httpReadCallback);
+        else registration.read(buffer, timeout, TimeUnit.MILLISECONDS, httpReadCallback);
+    }
 
+    /**
+     * Parse the bytes read into the buffer, which is in write mode.
+     * Once the header is parsed and the length of the rest body is known, the body of a plain connection is transferred from socket to file directly.
+     * The bytes beyond the end of the span are dropped, so are the bytes a hedged span is behind its twin with,
+     * the response is dropped once its span is finished early.
+     */
+    private void httpParse(HttpConnection connection, Registration registration, FileChannel fileChannel, Deque<BlockLeaseManager.Span> pipeline, long position, ByteBuffer buffer) {
+        HttpResponseParser parser = connection.parser();
+        BlockLeaseManager.Span span = pipeline.getFirst();
+        try {
+            buffer.flip();
+            long end = span.end();
+            long from = leases.skipTo(span);
+            long parsed = writeBody(parser, buffer, fileChannel, position, from, end);
+            buffer.compact();
+            long written = writtenOf(position, position + parsed, from, end);
+            if (written > 0) recordDownloaded(connection, (int) written);
+            long advanced = Math.min(parsed, Math.max(end - position, 0));
+            if (advanced > 0) advance(span, position + advanced);
+            if (parser.isComplete()) {
+                httpNext(connection, registration, fileChannel, pipeline, buffer);
+            } else if (span.isFinished() || status() != Status.ACTIVE) {
+                httpAbort(connection, fileChannel, pipeline, buffer);
+            } else if (parser.remaining() > 0 && connection.tlsChannel() == null && leases.skipTo(span) <= position + parsed) {
+                // The buffer is drained once the body of known length starts
+                httpTransfer(connection, registration, fileChannel, pipeline, position + parsed, buffer);
+            } else httpRead(connection, registration, fileChannel, pipeline, position + parsed, buffer);
+        } catch (ProtocolException e) {
+            if (breaksPipelining(connection)) Session.getInstance().getConnectionPool().disablePipelining(connection.origin());
+            httpFail(connection, fileChannel, pipeline, buffer);
+        } catch (IOException e) {
+            // The file cannot be written, which no other connection could fix
+            changeStatus(Status.ERROR, e);
+            httpAbort(connection, fileChannel, pipeline, buffer);
+        }
     }
 
-    private void httpWrite(ReadableByteChannel readChannel, WritableByteChannel writeChannel, ByteBuffer buffer) {
-        IOCallback httpWriteCallback = (Channel fileChannel, ByteBuffer responseBuffer, int size, Exception exception) -> {
-            httpRead(readChannel, (WritableByteChannel) fileChannel, responseBuffer);
+    /**
+     * Transfer the http body from socket to file directly, until the span is finished or the connection is closed.
+     * A connection idle for too long is closed, its span is given back to other connections.
+     * A hedged span falling behind its twin goes back to reading, which drops the bytes written by the twin already.
+     */
+    private void httpTransfer(HttpConnection connection, Registration registration, FileChannel fileChannel, Deque<BlockLeaseManager.Span> pipeline, long position, ByteBuffer buffer) {
+        HttpResponseParser parser = connection.parser();
+        BlockLeaseManager.Span span = pipeline.getFirst();
+        IOCallback httpTransferCallback = (Channel channel, ByteBuffer transferBuffer, int size, Exception exception) -> {
+            if (exception == null && size > 0) {
+                // The span may be stolen from during the transfer, the bytes beyond its end are written by the thief as well
+                long written = writtenOf(position, position + size, leases.skipTo(span), span.end());
+                if (written > 0) recordDownloaded(connection, (int) written);
+                parser.skip(size);
+                advance(span, position + size);
+                if (parser.isComplete()) httpNext(connection, registration, fileChannel, pipeline, buffer);
+                else if (span.isFinished() || status() != Status.ACTIVE) httpAbort(connection, fileChannel, pipeline, buffer);
+                else if (leases.skipTo(span) > position + size) httpRead(connection, registration, fileChannel, pipeline, position + size, buffer);
+                else httpTransfer(connection, registration, fileChannel, pipeline, position + size, buffer);
+                return;
+            }
+            httpFail(connection, fileChannel, pipeline, buffer);
         };
-        Objects.requireNonNull(ioScheduler).write(writeChannel, buffer, httpWriteCallback);
+        // A blocking transfer returns once all transferred, so a block at a time keeps the end of the span checked
+        long count = Math.min(Math.min(parser.remaining(), span.end() - position), getBlockSize());
+        if (count <= 0) {
+            // The span is cut short by a thief, the bytes beyond its end are read to be dropped rather than transferred
+            httpRead(connection, registration, fileChannel, pipeline, position, buffer);
+            return;
+        }
+        registration.transfer(fileChannel, position, count, Session.getInstance().getIdleTimeout(), TimeUnit.MILLISECONDS, httpTransferCallback);
     }
 
     /**
-     * Skip the header to download content.
+     * Go on with the next pipelined response once the current one is finished, the request of another span is pipelined to keep the depth.
+     * The bytes left in the buffer belong to the next response.
      */
-    private void skipHttpHeader(SocketChannel socketChannel) throws IOException {
-        ByteBuffer tempBuffer = ByteBuffer.allocate(1);
-        byte LastByte = 0;
-        int read = socketChannel.read(tempBuffer);
-        while (read != -1) {
-            if (LastByte == 10 && tempBuffer.get(0) == 13) {
-                break;
-            }
-            LastByte = tempBuffer.get(0);
-            tempBuffer.clear();
-            read = socketChannel.read(tempBuffer);
-        }
-        tempBuffer.clear();
-        socketChannel.read(tempBuffer);
-    }
-
-    private void skipHttpsHeader(ByteBuffer appBuffer) {
-        int count = 0;
-        byte lastByte = 0;
-        if ((char) appBuffer.get(0) == 'H' && (char) appBuffer.get(1) == 'T') {
-            while (true) {
-                if (lastByte == 10 && appBuffer.get(count) == 13) {
-                    count += 2;
-                    break;
-                }
-                lastByte = appBuffer.get(count);
-                count++;
+    private void httpNext(HttpConnection connection, Registration registration, FileChannel fileChannel, Deque<BlockLeaseManager.Span> pipeline, ByteBuffer buffer) {
+        leases.release(pipeline.removeFirst());
+        mirrorOf(connection).succeed();
+        if (!connection.parser().isKeepAlive()) {
+            connection.close();
+            httpFinish(connection, fileChannel, pipeline, buffer);
+            return;
+        }
+        // The depth is kept by the next response if the requests before are still being written
+        if (pipeline.size() < pipelineDepth(connection) && status() == Status.ACTIVE && connection.startWriting()) {
+            List<BlockLeaseManager.Span> spans = new ArrayList<>();
+            BlockLeaseManager.Span next;
+            while (pipeline.size() + spans.size() < pipelineDepth(connection) && (next = leaseSpan()) != null) spans.add(next);
+            if (spans.isEmpty()) connection.finishWriting();
+            else {
+                pipeline.addAll(spans);
+                scheduleHedge();
+                // A broken connection fails the pending response, whose spans are given back then
+                httpWrite(connection, registration, spans, IOCallback.inline((Channel channel, ByteBuffer requestBuffer, int size, Exception exception) -> {
+                    connection.finishWriting();
+                    if (exception != null) connection.close();
+                }));
             }
-            count++;
-            appBuffer.position(count);
-        } else {
-            appBuffer.position(0);
         }
+        if (pipeline.isEmpty()) {
+            // Bytes left behind belong to no request, so the connection cannot be reused
+            if (buffer.position() != 0) connection.close();
+            httpFinish(connection, fileChannel, pipeline, buffer);
+            return;
+        }
+        BlockLeaseManager.Span span = pipeline.getFirst();
+        HttpResponseParser parser = connection.request();
+        parser.expectRange(span.start(), span.requestedEnd() - 1);
+        span.setCanceller(registration::cancel);
+        if (buffer.position() != 0) httpParse(connection, registration, fileChannel, pipeline, span.start(), buffer);
+        else httpRead(connection, registration, fileChannel, pipeline, span.start(), buffer);
+    }
+
+    /**
+     * Drop the rest of the response once its span is finished early or the task is no longer active, the connection is closed instead of drained.
+     * The spans pipelined behind are given back, which is not a failure of the connection.
+     */
+    private void httpAbort(HttpConnection connection, FileChannel fileChannel, Deque<BlockLeaseManager.Span> pipeline, ByteBuffer buffer) {
+        pipeline.forEach(leases::release);
+        pipeline.clear();
+        connection.close();
+        httpFinish(connection, fileChannel, pipeline, buffer);
+    }
+
+    /**
+     * Close the broken connection, the spans are given back as the connection fails.
+     * The request of a hedged span is cancelled once its twin wins, which is an abort rather than a failure.
+     */
+    private void httpFail(HttpConnection connection, FileChannel fileChannel, Deque<BlockLeaseManager.Span> pipeline, ByteBuffer buffer) {
+        if (!pipeline.isEmpty() && pipeline.getFirst().isFinished()) {
+            httpAbort(connection, fileChannel, pipeline, buffer);
+            return;
+        }
+        connection.close();
+        httpFinish(connection, fileChannel, pipeline, buffer);
+    }
+
+    /**
+     * Give the unfinished spans back to other connections, release the buffer and reuse the connection if not closed.
+     */
+    private void httpFinish(HttpConnection connection, FileChannel fileChannel, Deque<BlockLeaseManager.Span> pipeline, ByteBuffer buffer) {
+        boolean failed = !pipeline.isEmpty();
+        pipeline.forEach(leases::release);
+        if (buffer != null) ioScheduler.getBufferPool().release(buffer);
+        closeChannel(fileChannel);
+        finishRequest(connection, failed);
+    }
+
+    /**
+     * Whether the reused connection is closed by the server before the response starts, which is the race of a server closing an idle connection.
+     * The requests are never served by such a connection, so they are retried at once on another connection rather than backed off (RFC 9112 section 9.3.1).
+     */
+    private static boolean isStale(HttpConnection connection, Exception exception) {
+        return connection.isReused() && !connection.parser().isStarted() && !(exception instanceof SocketTimeoutException);
+    }
+
+    /**
+     * Whether the malformed response shows the host breaking pipelining, which is a pipelined response out of sync with its request or broken in framing.
+     * An error status such as 429 or 503 is an answer to the request, so it keeps pipelining on.
+     */
+    private static boolean breaksPipelining(HttpConnection connection) {
+        int status = connection.parser().statusCode();
+        return connection.isPipelined() && (status == 0 || status == 200 || status == 206);
+    }
+
+    private int pipelineDepth(HttpConnection connection) {
+        // Pipelining starts once the host proves to keep connections alive
+        if (connection.requestCount() == 0 || !Session.getInstance().getConnectionPool().isPipeliningEnabled(connection.origin())) return 1;
+        return Session.getInstance().getPipeliningDepth();
+    }
+
+    /**
+     * Write the requests of the spans, the callback is called once all written or failed.
+     */
+    private void httpWrite(HttpConnection connection, Registration registration, Collection<BlockLeaseManager.Span> spans, IOCallback callback) {
+        Mirror mirror = mirrorOf(connection);
+        StringBuilder requestMessage = new StringBuilder();
+        for (BlockLeaseManager.Span span : spans) {
+            requestMessage.append("GET ").append(mirror.target()).append(" HTTP/1.1\r\n")
+                    .append("Host:").append(mirror.host()).append("\r\n")
+                    .append("Connection: keep-alive\r\n")
+                    .append("Range: bytes=").append(span.start()).append("-").append(span.request() - 1).append("\r\n")
+                    .append("\r\n");
+        }
+        httpWrite(connection, registration, ByteBuffer.wrap(requestMessage.toString().getBytes()), callback);
+    }
+
+    private void httpWrite(HttpConnection connection, Registration registration, ByteBuffer requestBuffer, IOCallback callback) {
+        TlsChannel tlsChannel = connection.tlsChannel();
+        if (tlsChannel != null) tlsChannel.write(registration, requestBuffer, Session.getInstance().getIdleTimeout(), TimeUnit.MILLISECONDS, callback);
+        else httpWrite(registration, requestBuffer, callback);
+    }
+
+    private void httpWrite(Registration registration, ByteBuffer requestBuffer, IOCallback callback) {
+        IOCallback httpWriteCallback = (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            if (exception == null && buffer.hasRemaining()) httpWrite(registration, buffer, callback);
+            else callback.callback(channel, buffer, size, exception);
+        };
+        registration.write(requestBuffer, Session.getInstance().getIdleTimeout(), TimeUnit.MILLISECONDS, callback.isInline() ? IOCallback.inline(httpWriteCallback) : httpWriteCallback);
+    }
+
+    /**
+     * Record the bytes written to file, always occurs during callback.
+     * The throughput drives the target connections, new connections are started once the target increases.
+     */
+    private void recordDownloaded(int size) {
+        long lastTime = currentTime;
+        currentTime = System.currentTimeMillis();
+        downloadSpeed = size * 1000L / Math.max(currentTime - lastTime, 1);//B/s
+        synchronized (this) {
+            adjustDownloadedLength(size);
+        }
+        if (connectionController.record(size, getMaximumConnections())) scheduleDispatch(0);
+    }
+
+    // The bytes of a connection are recorded by its mirror as well, which measures the speed of the mirror
+    private void recordDownloaded(HttpConnection connection, int size) {
+        if (mirrors.size() > 1) mirrorOf(connection).record(size, System.currentTimeMillis());
+        recordDownloaded(size);
+    }
+
+    // The count of bytes read from start to end which are written to file, the bytes before from or beyond the end of the span are dropped
+    private static long writtenOf(long start, long end, long from, long spanEnd) {
+        return Math.max(Math.min(end, spanEnd) - Math.max(start, from), 0);
+    }
+
+    private static Exception exceptionOf(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+        return cause instanceof Exception ? (Exception) cause : new CompletionException(cause);
+    }
+
+    // A channel failing to close has nothing left to undo, the file is forced to disk once the task is written
+    private static void closeChannel(Channel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Write the body bytes parsed from the buffer to file, the framing bytes are skipped without copying.
+     * Only the body bytes from the given from to the given end are written, the rest are parsed but dropped, the count parsed is returned.
+     */
+    private static long writeBody(HttpResponseParser parser, ByteBuffer buffer, FileChannel fileChannel, long position, long from, long end) throws IOException {
+        long parsed = 0;
+        int limit = buffer.limit();
+        int size;
+        while ((size = parser.parse(buffer)) > 0) {
+            int skipped = (int) Math.min(size, Math.max(from - position - parsed, 0));
+            int kept = (int) Math.max(Math.min(size, end - position - parsed) - skipped, 0);
+            int start = buffer.position();
+            buffer.position(start + skipped);
+            buffer.limit(start + skipped + kept);
+            while (buffer.hasRemaining()) fileChannel.write(buffer, position + parsed + buffer.position() - start);
+            buffer.limit(limit);
+            buffer.position(start + size);
+            parsed += size;
+        }
+        return parsed;
     }
 
     /**
@@ -344,7 +1133,8 @@ public class HttpTask extends BaseTask implements Task {
             try {
                 file.createNewFile();
             } catch (IOException e) {
-                e.printStackTrace();
+                changeStatus(Status.ERROR, e);
+                return;
             }
             try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
                 randomAccessFile.setLength(totalLength);
@@ -352,7 +1142,9 @@ public class HttpTask extends BaseTask implements Task {
                 changeStatus(Status.ERROR, e);
             }
         }
-        this.files.add(new FileData(file, (int) getBlockSize()));
+        // A resource without ranges is fetched as a single block
+        int blockSize = acceptRanges ? getBlockSize() : (int) Math.max(totalLength, 1);
+        this.files.add(new FileData(file, blockSize));
     }
 
 
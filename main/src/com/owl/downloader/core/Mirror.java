@@ -0,0 +1,230 @@
+package com.owl.downloader.core;
+
+import java.io.Serializable;
+import java.net.ProtocolException;
+import java.net.URI;
+
+/**
+ * A mirror of the resource of a task, which is an uri with the statistics of its connections
+ * <p>The speed of a mirror is measured per connection, which is the bytes downloaded divided by the time its connections are held,
+ * so the connections of a task can be spread in proportion to the speeds of its mirrors.
+ * A mirror failing repeatedly is demoted for a while, a mirror not agreeing with the first one is rejected.</p>
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+final class Mirror implements Serializable {
+    private static final long serialVersionUID = 4629162849327412557L;
+    static final long WINDOW = 1000;  // connection ms
+    static final double SMOOTHING = 0.3;
+    static final int MAXIMUM_FAILURES = 3;
+    static final long DEMOTION_TIME = 30000;  // ms
+
+    /**
+     * The state of a mirror
+     */
+    enum State {
+        PENDING, VERIFIED, REJECTED
+    }
+
+    private URI uri;
+    private String protocol;
+    private transient State state = State.PENDING;
+    private transient int connections = 0;
+    private transient long lastChange = 0;
+    private transient long connectionTime = 0;  // connection ms of the current window
+    private transient long windowBytes = 0;
+    private transient double speed = 0;
+    private transient int failures = 0;
+    private transient long demotedUntil = 0;
+
+    /**
+     * Construct a mirror of the given uri
+     *
+     * @param uri the uri, whose scheme is http or https
+     */
+    Mirror(URI uri) {
+        this.uri = uri;
+        this.protocol = uri.getScheme();
+    }
+
+    /**
+     * Get the uri, which is the final one once redirected
+     *
+     * @return the uri
+     */
+    synchronized URI uri() {
+        return uri;
+    }
+
+    /**
+     * Get the protocol
+     *
+     * @return http or https
+     */
+    synchronized String protocol() {
+        return protocol;
+    }
+
+    /**
+     * Get the host
+     *
+     * @return the host of the uri
+     */
+    synchronized String host() {
+        return uri.getHost();
+    }
+
+    /**
+     * Get the port, the default port of the protocol if not given
+     *
+     * @return the port
+     */
+    synchronized int port() {
+        int port = uri.getPort();
+        if (port == -1) {
+            port = protocol.equals("http") ? 80 : 443;
+        }
+        return port;
+    }
+
+    /**
+     * Get the origin, which keys the connections in the pool
+     *
+     * @return the origin
+     */
+    synchronized String origin() {
+        return protocol + "://" + uri.getHost() + ":" + port();
+    }
+
+    /**
+     * Get the path and the query of the uri, as sent in the request line
+     *
+     * @return the request target
+     */
+    synchronized String target() {
+        String path = uri.getRawPath();
+        if (path == null || path.isEmpty()) path = "/";
+        return uri.getRawQuery() == null ? path : path + "?" + uri.getRawQuery();
+    }
+
+    /**
+     * Follow the redirect to the given location
+     *
+     * @param location the location, which may be relative to the uri
+     * @throws ProtocolException if the location is not http or https
+     */
+    synchronized void redirect(String location) throws ProtocolException {
+        URI redirected = uri.resolve(location);
+        if (!"http".equals(redirected.getScheme()) && !"https".equals(redirected.getScheme())) {
+            throw new ProtocolException("unsupported redirect to " + redirected);
+        }
+        uri = redirected;
+        protocol = redirected.getScheme();
+    }
+
+    /**
+     * Get the state
+     *
+     * @return the state
+     */
+    synchronized State state() {
+        return state;
+    }
+
+    /**
+     * Change the state, once probed or once the task runs again
+     *
+     * @param state the state
+     */
+    synchronized void setState(State state) {
+        this.state = state;
+    }
+
+    /**
+     * Record a connection of the task to the mirror
+     *
+     * @param now the current time, in ms
+     */
+    synchronized void connect(long now) {
+        accumulate(now);
+        ++connections;
+    }
+
+    /**
+     * Record a connection of the task given back
+     *
+     * @param now the current time, in ms
+     */
+    synchronized void disconnect(long now) {
+        accumulate(now);
+        --connections;
+    }
+
+    /**
+     * Get the count of connections of the task to the mirror
+     *
+     * @return the count of connections
+     */
+    synchronized int connections() {
+        return connections;
+    }
+
+    /**
+     * Record the bytes downloaded from the mirror, the speed is updated once the connections are held for a window
+     *
+     * @param bytes the bytes downloaded
+     * @param now   the current time, in ms
+     */
+    synchronized void record(long bytes, long now) {
+        accumulate(now);
+        windowBytes += bytes;
+        if (connectionTime < WINDOW) return;
+        double sample = windowBytes * 1000.0 / connectionTime;
+        speed = speed == 0 ? sample : speed * (1 - SMOOTHING) + sample * SMOOTHING;
+        windowBytes = 0;
+        connectionTime = 0;
+    }
+
+    /**
+     * Get the speed of a connection to the mirror
+     *
+     * @return the speed, in bytes/second, 0 if not measured yet
+     */
+    synchronized double speed() {
+        return speed;
+    }
+
+    /**
+     * Record a request finished, which clears the failures
+     */
+    synchronized void succeed() {
+        failures = 0;
+    }
+
+    /**
+     * Record a request failed, the mirror is demoted once it fails repeatedly
+     *
+     * @param now the current time, in ms
+     */
+    synchronized void fail(long now) {
+        if (++failures < MAXIMUM_FAILURES) return;
+        failures = 0;
+        demotedUntil = now + DEMOTION_TIME;
+    }
+
+    /**
+     * Whether the mirror is demoted
+     *
+     * @param now the current time, in ms
+     * @return true if the mirror failed repeatedly not long ago
+     */
+    synchronized boolean isDemoted(long now) {
+        return now < demotedUntil;
+    }
+
+    private void accumulate(long now) {
+        if (lastChange != 0) connectionTime += connections * Math.max(now - lastChange, 0);
+        lastChange = now;
+    }
+}
@@ -3,12 +3,22 @@ package com.owl.downloader.core;
 import com.owl.downloader.event.Dispatcher;
 import com.owl.downloader.event.Event;
 import com.owl.downloader.exception.UnsupportedProtocolException;
+import com.owl.downloader.http.ConnectionPool;
+import com.owl.downloader.http.HostResolver;
+import com.owl.downloader.http.Http2Transport;
+import com.owl.downloader.io.ByteBudget;
 import com.owl.downloader.io.IOScheduler;
+import com.owl.downloader.io.TokenBucket;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.ProxySelector;
 import java.net.URI;
+import java.security.GeneralSecurityException;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -35,6 +45,24 @@ public final class Session implements Serializable {
     private String directory = System.getProperty("user.dir");
     private int maximumConnections = 5;
     private int blockSize = 1 << 14; // 16KB
+    private final TokenBucket downloadLimiter = new TokenBucket(0);
+    private final ByteBudget inFlightBudget = new ByteBudget(64L << 20); // 64MB
+    private int connectTimeout = 10000;
+    private int firstByteTimeout = 15000;
+    private int idleTimeout = 30000;
+    private final ConnectionPool connectionPool = new ConnectionPool();
+    private int pipeliningDepth = 1;
+    private int endgameBlocks = 16;
+    private boolean http2Enabled = false;
+    private int maximumStreams = 32;
+    private transient Http2Transport http2Transport = null;
+    private int tlsSessionCacheSize = 256;
+    private int tlsSessionTimeout = 86400; // 1 day
+    private transient SSLContext sslContext = null;
+    private int dnsCacheTtl = 60;
+    private int dnsNegativeCacheTtl = 10;
+    private int connectionAttemptDelay = 250;
+    private transient HostResolver hostResolver = null;
 
     private Session() {
         Dispatcher.getInstance().attach(this::onTaskStatusChange);
@@ -57,6 +85,7 @@ public final class Session implements Serializable {
         IOScheduler.getInstance().stop();
         if (executor != null) executor.shutdownNow();
         executor = null;
+        connectionPool.clear();
     }
 
     // Execute waiting tasks if active tasks count does not reach max tasks
@@ -277,6 +306,428 @@ public final class Session implements Serializable {
         this.blockSize = blockSize;
     }
 
+    /**
+     * Get the connect timeout of connections, in milliseconds
+     *
+     * @return the connect timeout, 0 means no timeout
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Set the connect timeout of connections, in milliseconds, a connection timed out is closed and its block is downloaded again
+     *
+     * @param connectTimeout the connect timeout, 0 means no timeout
+     * @throws IllegalArgumentException if the timeout is negative
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        if (connectTimeout < 0) throw new IllegalArgumentException("the timeout should not be negative");
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Get the first byte timeout of connections, in milliseconds
+     *
+     * @return the first byte timeout, 0 means no timeout
+     */
+    public int getFirstByteTimeout() {
+        return firstByteTimeout;
+    }
+
+    /**
+     * Set the first byte timeout of connections, in milliseconds, a connection timed out is closed and its block is downloaded again
+     *
+     * @param firstByteTimeout the first byte timeout, 0 means no timeout
+     * @throws IllegalArgumentException if the timeout is negative
+     */
+    public void setFirstByteTimeout(int firstByteTimeout) {
+        if (firstByteTimeout < 0) throw new IllegalArgumentException("the timeout should not be negative");
+        this.firstByteTimeout = firstByteTimeout;
+    }
+
+    /**
+     * Get the idle timeout of connections, in milliseconds
+     *
+     * @return the idle timeout, 0 means no timeout
+     */
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Set the idle timeout of connections, in milliseconds, a connection timed out is closed and its block is downloaded again
+     *
+     * @param idleTimeout the idle timeout, 0 means no timeout
+     * @throws IllegalArgumentException if the timeout is negative
+     */
+    public void setIdleTimeout(int idleTimeout) {
+        if (idleTimeout < 0) throw new IllegalArgumentException("the timeout should not be negative");
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Get the download speed limit of the whole session, in bytes/second
+     *
+     * @return the download speed limit, 0 means unlimited
+     */
+    public long getDownloadLimit() {
+        return downloadLimiter.getRate();
+    }
+
+    /**
+     * Set the download speed limit of the whole session, in bytes/second, the change is applied immediately even to the running tasks
+     *
+     * @param downloadLimit the download speed limit, 0 means unlimited
+     * @throws IllegalArgumentException if the download limit is negative
+     */
+    public void setDownloadLimit(long downloadLimit) {
+        downloadLimiter.setRate(downloadLimit);
+    }
+
+    // The parent of the token buckets of all the tasks
+    TokenBucket getDownloadLimiter() {
+        return downloadLimiter;
+    }
+
+    /**
+     * Get the maximum bytes in flight of the whole session, which are downloaded but not written to disk yet
+     *
+     * @return the maximum bytes in flight, 0 means unlimited
+     */
+    public long getInFlightLimit() {
+        return inFlightBudget.getLimit();
+    }
+
+    /**
+     * Set the maximum bytes in flight of the whole session, the downloading pauses once exceeded and resumes as the data is written to disk
+     *
+     * @param inFlightLimit the maximum bytes in flight, 0 means unlimited
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    public void setInFlightLimit(long inFlightLimit) {
+        inFlightBudget.setLimit(inFlightLimit);
+    }
+
+    // The parent of the byte budgets of all the tasks
+    ByteBudget getInFlightBudget() {
+        return inFlightBudget;
+    }
+
+    /**
+     * Get the maximum connections per host, shared by all the tasks
+     *
+     * @return the maximum connections per host
+     */
+    public int getMaximumConnectionsPerHost() {
+        return connectionPool.getMaximumConnectionsPerHost();
+    }
+
+    /**
+     * Set the maximum connections per host, shared by all the tasks, the connections already opened are not closed if exceeded
+     *
+     * @param maximumConnectionsPerHost the maximum connections per host
+     * @throws IllegalArgumentException if the maximum connections is not positive
+     */
+    public void setMaximumConnectionsPerHost(int maximumConnectionsPerHost) {
+        connectionPool.setMaximumConnectionsPerHost(maximumConnectionsPerHost);
+    }
+
+    /**
+     * Get the keepalive time of idle connections, in seconds
+     *
+     * @return the keepalive time of idle connections
+     */
+    public int getConnectionKeepaliveTime() {
+        return connectionPool.getKeepaliveTime();
+    }
+
+    /**
+     * Set the keepalive time of idle connections, in seconds, an idle connection is reused by the next request to the same host before closed
+     *
+     * @param connectionKeepaliveTime the keepalive time of idle connections, 0 means connections are never reused
+     * @throws IllegalArgumentException if the keepalive time is negative
+     */
+    public void setConnectionKeepaliveTime(int connectionKeepaliveTime) {
+        connectionPool.setKeepaliveTime(connectionKeepaliveTime);
+    }
+
+    /**
+     * Get the count of requests pipelined on a connection
+     *
+     * @return the pipelining depth, 1 means no pipelining
+     */
+    public int getPipeliningDepth() {
+        return pipeliningDepth;
+    }
+
+    /**
+     * Set the count of requests pipelined on a connection, pipelining saves round trips on high latency links
+     * <p>Requests are pipelined only on connections already reused, hosts found breaking pipelining fall back to one request at a time</p>
+     *
+     * @param pipeliningDepth the pipelining depth, 1 means no pipelining
+     * @throws IllegalArgumentException if the depth is not positive
+     */
+    public void setPipeliningDepth(int pipeliningDepth) {
+        if (pipeliningDepth <= 0) throw new IllegalArgumentException("the pipelining depth should be positive");
+        this.pipeliningDepth = pipeliningDepth;
+    }
+
+    /**
+     * Get the count of blocks left leased when a task starts its endgame
+     *
+     * @return the endgame blocks, 0 means no endgame
+     */
+    public int getEndgameBlocks() {
+        return endgameBlocks;
+    }
+
+    /**
+     * Set the count of blocks left leased when a task starts its endgame
+     * <p>Once no block is free and at most this count of blocks is leased, idle connections request the blocks in flight again,
+     * the first response wins and the other one is cancelled, so a slow connection no longer holds back the end of a task</p>
+     *
+     * @param endgameBlocks the endgame blocks, 0 means no endgame
+     * @throws IllegalArgumentException if the count is negative
+     */
+    public void setEndgameBlocks(int endgameBlocks) {
+        if (endgameBlocks < 0) throw new IllegalArgumentException("the endgame blocks should not be negative");
+        this.endgameBlocks = endgameBlocks;
+    }
+
+    // The connections shared by all the tasks
+    ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Whether the http tasks download over http/2, blocks are fetched as concurrent streams multiplexed over one connection per host
+     *
+     * @return true if http/2 is enabled
+     */
+    public boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    /**
+     * Set whether the http tasks download over http/2, hosts without http/2 are served by http/1.1 instead
+     *
+     * @param http2Enabled true to enable http/2
+     */
+    public void setHttp2Enabled(boolean http2Enabled) {
+        this.http2Enabled = http2Enabled;
+    }
+
+    /**
+     * Get the maximum concurrent streams of a task over http/2
+     *
+     * @return the maximum concurrent streams
+     */
+    public int getMaximumStreams() {
+        return maximumStreams;
+    }
+
+    /**
+     * Set the maximum concurrent streams of a task over http/2, which replaces the maximum connections of the task
+     *
+     * @param maximumStreams the maximum concurrent streams
+     * @throws IllegalArgumentException if the maximum streams is not positive
+     */
+    public void setMaximumStreams(int maximumStreams) {
+        if (maximumStreams <= 0) throw new IllegalArgumentException("maximum streams should be positive");
+        this.maximumStreams = maximumStreams;
+    }
+
+    // The http/2 connections shared by all the tasks, created with the timeouts once first used
+    synchronized Http2Transport getHttp2Transport() {
+        if (http2Transport == null) http2Transport = new Http2Transport(connectTimeout, firstByteTimeout, getSSLContext());
+        return http2Transport;
+    }
+
+    /**
+     * Get the ssl context shared by all the https connections of the session
+     * <p>The default context trusts the default trust store of the JVM, which is loaded only once.
+     * The sessions negotiated are cached by the context, keyed by host and port,
+     * so the later connections to the same origin resume them with session tickets instead of full handshakes</p>
+     *
+     * @return the ssl context
+     * @throws IllegalStateException if the default context cannot be initialized
+     */
+    public synchronized SSLContext getSSLContext() {
+        if (sslContext == null) {
+            try {
+                SSLContext context = SSLContext.getInstance("TLS");
+                context.init(null, null, null);
+                configureSessionCache(context);
+                sslContext = context;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("cannot initialize the ssl context", e);
+            }
+        }
+        return sslContext;
+    }
+
+    /**
+     * Set the ssl context shared by all the https connections of the session, such as a context trusting a custom trust store
+     * <p>The session cache of the given context is configured by the session, connections opened already keep their context</p>
+     *
+     * @param sslContext the ssl context, null to use the default context
+     */
+    public synchronized void setSSLContext(SSLContext sslContext) {
+        if (sslContext != null) configureSessionCache(sslContext);
+        this.sslContext = sslContext;
+        // Http/2 connections are bound to the context of their client
+        http2Transport = null;
+    }
+
+    /**
+     * Get the maximum count of tls sessions cached for resumption
+     *
+     * @return the cache size, 0 means unlimited
+     */
+    public synchronized int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    /**
+     * Set the maximum count of tls sessions cached for resumption, the least recently used sessions are dropped once exceeded
+     *
+     * @param tlsSessionCacheSize the cache size, 0 means unlimited
+     * @throws IllegalArgumentException if the cache size is negative
+     */
+    public synchronized void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        if (tlsSessionCacheSize < 0) throw new IllegalArgumentException("the tls session cache size should not be negative");
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+        if (sslContext != null) configureSessionCache(sslContext);
+    }
+
+    /**
+     * Get the lifetime of the tls sessions cached, in seconds
+     *
+     * @return the session timeout, 0 means no limit
+     */
+    public synchronized int getTlsSessionTimeout() {
+        return tlsSessionTimeout;
+    }
+
+    /**
+     * Set the lifetime of the tls sessions cached, in seconds, expired sessions are negotiated again with full handshakes
+     *
+     * @param tlsSessionTimeout the session timeout, 0 means no limit
+     * @throws IllegalArgumentException if the session timeout is negative
+     */
+    public synchronized void setTlsSessionTimeout(int tlsSessionTimeout) {
+        if (tlsSessionTimeout < 0) throw new IllegalArgumentException("the tls session timeout should not be negative");
+        this.tlsSessionTimeout = tlsSessionTimeout;
+        if (sslContext != null) configureSessionCache(sslContext);
+    }
+
+    // Engines created with the peer host and port look up the cached sessions of the origin, the host name is verified against the certificate
+    SSLEngine createSSLEngine(String host, int port) {
+        SSLEngine engine = getSSLContext().createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(parameters);
+        return engine;
+    }
+
+    private void configureSessionCache(SSLContext context) {
+        context.getClientSessionContext().setSessionCacheSize(tlsSessionCacheSize);
+        context.getClientSessionContext().setSessionTimeout(tlsSessionTimeout);
+    }
+
+    /**
+     * Get the time the addresses of a host are cached, in seconds
+     *
+     * @return the dns cache ttl
+     */
+    public synchronized int getDnsCacheTtl() {
+        return dnsCacheTtl;
+    }
+
+    /**
+     * Set the time the addresses of a host are cached, in seconds, the hosts cached already keep their ttl
+     *
+     * @param dnsCacheTtl the dns cache ttl, 0 means the addresses are looked up for every connection
+     * @throws IllegalArgumentException if the ttl is negative
+     */
+    public synchronized void setDnsCacheTtl(int dnsCacheTtl) {
+        if (dnsCacheTtl < 0) throw new IllegalArgumentException("the dns cache ttl should not be negative");
+        this.dnsCacheTtl = dnsCacheTtl;
+        if (hostResolver != null) hostResolver.setTtl(dnsCacheTtl);
+    }
+
+    /**
+     * Get the time the failures of looking up a host are cached, in seconds
+     *
+     * @return the dns negative cache ttl
+     */
+    public synchronized int getDnsNegativeCacheTtl() {
+        return dnsNegativeCacheTtl;
+    }
+
+    /**
+     * Set the time the failures of looking up a host are cached, in seconds, the hosts cached already keep their ttl
+     *
+     * @param dnsNegativeCacheTtl the dns negative cache ttl, 0 means the failures are not cached
+     * @throws IllegalArgumentException if the ttl is negative
+     */
+    public synchronized void setDnsNegativeCacheTtl(int dnsNegativeCacheTtl) {
+        if (dnsNegativeCacheTtl < 0) throw new IllegalArgumentException("the dns negative cache ttl should not be negative");
+        this.dnsNegativeCacheTtl = dnsNegativeCacheTtl;
+        if (hostResolver != null) hostResolver.setNegativeTtl(dnsNegativeCacheTtl);
+    }
+
+    /**
+     * Get the delay before the next address of a host is tried by a connection, in milliseconds
+     *
+     * @return the connection attempt delay
+     */
+    public int getConnectionAttemptDelay() {
+        return connectionAttemptDelay;
+    }
+
+    /**
+     * Set the delay before the next address of a host is tried by a connection, in milliseconds
+     * <p>The addresses of a host are raced, the next address is tried once the attempt before fails or does not finish within the delay</p>
+     *
+     * @param connectionAttemptDelay the connection attempt delay
+     * @throws IllegalArgumentException if the delay is negative
+     */
+    public void setConnectionAttemptDelay(int connectionAttemptDelay) {
+        if (connectionAttemptDelay < 0) throw new IllegalArgumentException("the connection attempt delay should not be negative");
+        this.connectionAttemptDelay = connectionAttemptDelay;
+    }
+
+    // The addresses looked up shared by all the tasks, created with the ttl once first used
+    synchronized HostResolver getHostResolver() {
+        if (hostResolver == null) hostResolver = new HostResolver(dnsCacheTtl, dnsNegativeCacheTtl);
+        return hostResolver;
+    }
+
+    /**
+     * Get the io scheduler used by the session
+     *
+     * @return the io scheduler
+     */
+    public IOScheduler getIOScheduler() {
+        return IOScheduler.getInstance();
+    }
+
+    /**
+     * Set the io scheduler used by the session, such as a MultiReactorIOScheduler, a VirtualThreadIOScheduler or an AsynchronousIOScheduler, it is started in start
+     *
+     * @param ioScheduler the io scheduler
+     * @throws NullPointerException  if the given io scheduler is null
+     * @throws IllegalStateException if the session is already started
+     */
+    public void setIOScheduler(IOScheduler ioScheduler) {
+        Objects.requireNonNull(ioScheduler);
+        if (executor != null) throw new IllegalStateException("cannot change the io scheduler of a started session");
+        IOScheduler.setInstance(ioScheduler);
+    }
+
     private Object readResolve() {
         if (instance == null)
             synchronized (Session.class) {
@@ -289,6 +740,10 @@ public final class Session implements Serializable {
      * Factories to construct tasks from uri, all uri task implementations should register here
      */
     private static final Map<String, Function<URI, Task>> uriTaskFactories = new HashMap<>();
+    /**
+     * Factories to construct tasks from the uris of mirrors, all uri task implementations supporting mirrors should register here
+     */
+    private static final Map<String, Function<List<URI>, Task>> mirrorTaskFactories = new HashMap<>();
     /**
      * Factories to construct tasks from file, all file task implementations should register here
      */
@@ -309,6 +764,33 @@ public final class Session implements Serializable {
         return uriTaskFactories.get(uri.getScheme()).apply(uri);
     }
 
+    /**
+     * Construct a task downloading the same resource from the given mirrors
+     * <p>The first uri is probed for the resource, the others are verified to agree with it once the task runs</p>
+     *
+     * @param uris the uris of the mirrors, the first one is preferred
+     * @return the constructed task
+     * @throws UnsupportedProtocolException if some protocol is not supported by mirrors, or the protocols are not supported by the same task
+     * @throws IllegalArgumentException     if no uri is given
+     * @throws NullPointerException         if the given uris or any of them is null
+     */
+    public static Task fromUris(List<URI> uris) {
+        Objects.requireNonNull(uris);
+        if (uris.isEmpty()) throw new IllegalArgumentException("no uri to construct task");
+        if (uris.size() == 1) return fromUri(uris.get(0));
+        Function<List<URI>, Task> factory = null;
+        for (URI uri : uris) {
+            Objects.requireNonNull(uri);
+            Function<List<URI>, Task> mirrorFactory = mirrorTaskFactories.get(uri.getScheme());
+            if (mirrorFactory == null)
+                throw new UnsupportedProtocolException("protocol " + uri.getScheme() + " is not supported by mirrors");
+            if (factory != null && factory != mirrorFactory)
+                throw new UnsupportedProtocolException("protocol " + uri.getScheme() + " is not supported with " + uris.get(0).getScheme());
+            factory = mirrorFactory;
+        }
+        return factory.apply(uris);
+    }
+
     /**
      * Construct a task from the given file
      *
@@ -331,5 +813,8 @@ public final class Session implements Serializable {
     static {
         uriTaskFactories.put("http", HttpTask::new);
         uriTaskFactories.put("https", HttpTask::new);
+        Function<List<URI>, Task> httpMirrorTaskFactory = HttpTask::new;
+        mirrorTaskFactories.put("http", httpMirrorTaskFactory);
+        mirrorTaskFactories.put("https", httpMirrorTaskFactory);
     }
 }
@@ -83,6 +83,13 @@ public interface Task extends Runnable, Serializable {
      */
     void setMaximumConnections(int maximumConnections);
 
+    /**
+     * Get the connections count the task currently aims at, which never exceeds the maximum connections count
+     *
+     * @return the target connections count
+     */
+    int targetConnections();
+
     /**
      * Get the block size
      *
@@ -97,6 +104,38 @@ public interface Task extends Runnable, Serializable {
      */
     void setBlockSize(int blockSize);
 
+    /**
+     * Get the download speed limit, in bytes/second
+     *
+     * @return the download speed limit, 0 means unlimited
+     */
+    long getDownloadLimit();
+
+    /**
+     * Set the download speed limit, in bytes/second, the change is applied immediately even if the task is running
+     * <p>The download speed is limited by the download limit of the session as well</p>
+     *
+     * @param downloadLimit the download speed limit, 0 means unlimited
+     * @throws IllegalArgumentException if the download limit is negative
+     */
+    void setDownloadLimit(long downloadLimit);
+
+    /**
+     * Get the maximum bytes in flight, which are downloaded but not written to disk yet
+     *
+     * @return the maximum bytes in flight, 0 means unlimited
+     */
+    long getInFlightLimit();
+
+    /**
+     * Set the maximum bytes in flight, the downloading pauses once exceeded and resumes as the data is written to disk
+     * <p>The bytes in flight are bounded by the limit of the session as well</p>
+     *
+     * @param inFlightLimit the maximum bytes in flight, 0 means unlimited
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    void setInFlightLimit(long inFlightLimit);
+
     /**
      * Get the download speed, in bytes/second
      *
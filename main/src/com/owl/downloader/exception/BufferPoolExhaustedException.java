@@ -0,0 +1,28 @@
+package com.owl.downloader.exception;
+
+/**
+ * Exception thrown when a buffer is required but the memory of the buffer pool is exhausted
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+public class BufferPoolExhaustedException extends RuntimeException {
+    public BufferPoolExhaustedException() {
+    }
+
+    public BufferPoolExhaustedException(String message) {
+        super(message);
+    }
+
+    public BufferPoolExhaustedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public BufferPoolExhaustedException(Throwable cause) {
+        super(cause);
+    }
+
+    public BufferPoolExhaustedException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
+}
@@ -0,0 +1,208 @@
+package com.owl.downloader.http;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of persistent http connections, grouped by origin
+ * <p>The count of connections to an origin, idle or in use, never exceeds the maximum connections per host.
+ * The most recently released connection is leased first, connections idle longer than the keepalive time are closed,
+ * the eviction is done lazily whenever the pool is accessed, so no thread is required.</p>
+ * The pool also remembers the origins which break pipelining.
+ * Connections are not serialized, a deserialized pool is empty.
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+public final class ConnectionPool implements Serializable {
+    private static final long serialVersionUID = 4811934209436118562L;
+    private int maximumConnectionsPerHost;
+    private int keepaliveTime;
+    private transient Map<String, Deque<HttpConnection>> idleConnections = null;
+    private transient Map<String, Integer> connectionCounts = null;
+    private transient Set<String> unpipelinedOrigins = null;
+
+    /**
+     * Construct a pool with at most 8 connections per host, which keeps idle connections for 60 seconds
+     */
+    public ConnectionPool() {
+        this(8, 60);
+    }
+
+    /**
+     * Construct a pool with the given limits
+     *
+     * @param maximumConnectionsPerHost the maximum connections per host
+     * @param keepaliveTime             the keepalive time of idle connections, in seconds, 0 means idle connections are closed at once
+     * @throws IllegalArgumentException if the maximum connections is not positive or the keepalive time is negative
+     */
+    public ConnectionPool(int maximumConnectionsPerHost, int keepaliveTime) {
+        setMaximumConnectionsPerHost(maximumConnectionsPerHost);
+        setKeepaliveTime(keepaliveTime);
+    }
+
+    /**
+     * Lease a connection to the given origin
+     * <p>An idle connection is returned if any, otherwise a new connection not connected yet is returned if the origin has free slots</p>
+     *
+     * @param origin the origin, such as http://example.com:80
+     * @return the connection leased, null if the origin reaches the maximum connections
+     */
+    public synchronized HttpConnection acquire(String origin) {
+        Objects.requireNonNull(origin);
+        evict();
+        Deque<HttpConnection> connections = idleConnections().get(origin);
+        while (connections != null && !connections.isEmpty()) {
+            HttpConnection connection = connections.pollFirst();
+            if (!connection.isStale()) return connection;
+            connection.close();
+        }
+        if (connectionCount(origin) >= maximumConnectionsPerHost) return null;
+        connectionCounts().merge(origin, 1, Integer::sum);
+        return new HttpConnection(this, origin);
+    }
+
+    /**
+     * Release the given connection back to the pool, the connection is closed if it cannot be reused
+     * <p>A connection can be reused only if it is connected, its response is finished and the response allows persistent connection,
+     * a connection established in advance without any request is reused as well</p>
+     *
+     * @param connection the connection to release
+     */
+    public void release(HttpConnection connection) {
+        HttpResponseParser parser = connection.parser();
+        boolean finished = connection.requestCount() == 0 || (parser.isComplete() && parser.isKeepAlive());
+        if (!connection.isOpen() || !connection.isConnected() || !finished || keepaliveTime == 0) {
+            connection.close();
+            return;
+        }
+        synchronized (this) {
+            connection.idle(System.nanoTime());
+            idleConnections().computeIfAbsent(connection.origin(), origin -> new ArrayDeque<>()).offerFirst(connection);
+            evict();
+        }
+    }
+
+    /**
+     * Close all the idle connections
+     */
+    public void clear() {
+        List<HttpConnection> connections = new ArrayList<>();
+        synchronized (this) {
+            idleConnections().values().forEach(connections::addAll);
+            idleConnections().clear();
+        }
+        connections.forEach(HttpConnection::close);
+    }
+
+    /**
+     * Get the count of connections to the given origin, idle or in use
+     *
+     * @param origin the origin
+     * @return the count of connections
+     */
+    public synchronized int connectionCount(String origin) {
+        return connectionCounts().getOrDefault(origin, 0);
+    }
+
+    /**
+     * Get the count of idle connections to the given origin
+     *
+     * @param origin the origin
+     * @return the count of idle connections
+     */
+    public synchronized int idleCount(String origin) {
+        Deque<HttpConnection> connections = idleConnections().get(origin);
+        return connections == null ? 0 : connections.size();
+    }
+
+    /**
+     * Get the maximum connections per host
+     *
+     * @return the maximum connections per host
+     */
+    public synchronized int getMaximumConnectionsPerHost() {
+        return maximumConnectionsPerHost;
+    }
+
+    /**
+     * Set the maximum connections per host, the connections already opened are not closed if exceeded
+     *
+     * @param maximumConnectionsPerHost the maximum connections per host
+     * @throws IllegalArgumentException if the maximum connections is not positive
+     */
+    public synchronized void setMaximumConnectionsPerHost(int maximumConnectionsPerHost) {
+        if (maximumConnectionsPerHost <= 0) throw new IllegalArgumentException("maximum connections per host should be positive");
+        this.maximumConnectionsPerHost = maximumConnectionsPerHost;
+    }
+
+    /**
+     * Get the keepalive time of idle connections, in seconds
+     *
+     * @return the keepalive time
+     */
+    public synchronized int getKeepaliveTime() {
+        return keepaliveTime;
+    }
+
+    /**
+     * Set the keepalive time of idle connections, in seconds
+     *
+     * @param keepaliveTime the keepalive time, 0 means idle connections are closed at once
+     * @throws IllegalArgumentException if the keepalive time is negative
+     */
+    public synchronized void setKeepaliveTime(int keepaliveTime) {
+        if (keepaliveTime < 0) throw new IllegalArgumentException("cannot set keepalive time of idle connections to negative");
+        this.keepaliveTime = keepaliveTime;
+    }
+
+    /**
+     * Whether requests to the given origin can be pipelined
+     *
+     * @param origin the origin
+     * @return false if pipelining is disabled for the origin
+     */
+    public synchronized boolean isPipeliningEnabled(String origin) {
+        return unpipelinedOrigins == null || !unpipelinedOrigins.contains(origin);
+    }
+
+    /**
+     * Disable pipelining to the given origin, once the origin is found breaking pipelined requests
+     *
+     * @param origin the origin
+     */
+    public synchronized void disablePipelining(String origin) {
+        if (unpipelinedOrigins == null) unpipelinedOrigins = new HashSet<>();
+        unpipelinedOrigins.add(origin);
+    }
+
+    // Called once the connection is closed, its slot can be used by a new connection
+    synchronized void closed(HttpConnection connection) {
+        Deque<HttpConnection> connections = idleConnections().get(connection.origin());
+        if (connections != null) connections.remove(connection);
+        connectionCounts().computeIfPresent(connection.origin(), (origin, count) -> count > 1 ? count - 1 : null);
+    }
+
+    // Close the expired idle connections, which are the oldest ones
+    private void evict() {
+        long deadline = System.nanoTime() - TimeUnit.SECONDS.toNanos(keepaliveTime);
+        List<HttpConnection> expired = new ArrayList<>();
+        for (Deque<HttpConnection> connections : idleConnections().values()) {
+            while (!connections.isEmpty() && connections.peekLast().idleSince() - deadline <= 0) {
+                expired.add(connections.pollLast());
+            }
+        }
+        expired.forEach(HttpConnection::close);
+    }
+
+    private Map<String, Deque<HttpConnection>> idleConnections() {
+        if (idleConnections == null) idleConnections = new HashMap<>();
+        return idleConnections;
+    }
+
+    private Map<String, Integer> connectionCounts() {
+        if (connectionCounts == null) connectionCounts = new HashMap<>();
+        return connectionCounts;
+    }
+}
@@ -0,0 +1,209 @@
+package com.owl.downloader.http;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caching resolver of host names, which never blocks the caller
+ * <p>Lookups run on a bounded executor, concurrent lookups of the same host share one lookup.
+ * Addresses resolved are cached for the ttl, failures are cached for the negative ttl, so a broken name is not looked up by every connection.
+ * The addresses of a host are interleaved by family as happy eyeballs suggests, and each resolve rotates them,
+ * so parallel connections to a host are spread across all of its addresses.</p>
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+public final class HostResolver {
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Executor executor;
+    private final Lookup lookup;
+    private long ttl;
+    private long negativeTtl;
+
+    /**
+     * Construct a resolver which caches addresses for 60 seconds and failures for 10 seconds
+     */
+    public HostResolver() {
+        this(60, 10);
+    }
+
+    /**
+     * Construct a resolver with the given ttl
+     *
+     * @param ttl         the time addresses are cached, in seconds
+     * @param negativeTtl the time failures are cached, in seconds
+     * @throws IllegalArgumentException if any ttl is negative
+     */
+    public HostResolver(long ttl, long negativeTtl) {
+        this(ttl, negativeTtl, InetAddress::getAllByName, LookupExecutorHolder.EXECUTOR);
+    }
+
+    HostResolver(long ttl, long negativeTtl, Lookup lookup, Executor executor) {
+        setTtl(ttl);
+        setNegativeTtl(negativeTtl);
+        this.lookup = Objects.requireNonNull(lookup);
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * Resolve the addresses of the given host
+     * <p>The future is completed at once if the host is cached, otherwise completed in the lookup thread.
+     * It fails with UnknownHostException if the host cannot be resolved</p>
+     *
+     * @param host the host name or address literal
+     * @return the future of the addresses, never empty, interleaved by family and rotated for each resolve
+     */
+    public CompletableFuture<List<InetAddress>> resolve(String host) {
+        Objects.requireNonNull(host);
+        Entry entry;
+        synchronized (this) {
+            long now = System.nanoTime();
+            entry = entries.get(host);
+            if (entry == null || entry.expired(now)) {
+                // Expired entries keep their rotation, so the spreading goes on across lookups
+                Entry next = new Entry(entry != null ? entry.rotation : new AtomicInteger(0));
+                entries.put(host, next);
+                executor.execute(() -> complete(host, next));
+                entry = next;
+            }
+        }
+        AtomicInteger rotation = entry.rotation;
+        return entry.future.thenApply(addresses -> rotate(addresses, rotation.getAndIncrement()));
+    }
+
+    /**
+     * Drop all the entries cached
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Get the time addresses are cached
+     *
+     * @return the ttl, in seconds
+     */
+    public synchronized long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Set the time addresses are cached, the entries cached already keep their ttl
+     *
+     * @param ttl the ttl, in seconds, 0 means addresses are not cached
+     * @throws IllegalArgumentException if the ttl is negative
+     */
+    public synchronized void setTtl(long ttl) {
+        if (ttl < 0) throw new IllegalArgumentException("the dns cache ttl should not be negative");
+        this.ttl = ttl;
+    }
+
+    /**
+     * Get the time failures are cached
+     *
+     * @return the negative ttl, in seconds
+     */
+    public synchronized long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    /**
+     * Set the time failures are cached, the entries cached already keep their ttl
+     *
+     * @param negativeTtl the negative ttl, in seconds, 0 means failures are not cached
+     * @throws IllegalArgumentException if the negative ttl is negative
+     */
+    public synchronized void setNegativeTtl(long negativeTtl) {
+        if (negativeTtl < 0) throw new IllegalArgumentException("the dns negative cache ttl should not be negative");
+        this.negativeTtl = negativeTtl;
+    }
+
+    // Look up in the lookup thread, the entry expires since it is completed
+    private void complete(String host, Entry entry) {
+        InetAddress[] addresses = null;
+        UnknownHostException exception = null;
+        try {
+            addresses = interleave(lookup.lookup(host));
+            if (addresses.length == 0) throw new UnknownHostException(host);
+        } catch (UnknownHostException e) {
+            exception = e;
+        } catch (RuntimeException e) {
+            exception = new UnknownHostException(host);
+            exception.initCause(e);
+        }
+        synchronized (this) {
+            long lifetime = exception == null ? ttl : negativeTtl;
+            entry.expiry = System.nanoTime() + TimeUnit.SECONDS.toNanos(lifetime);
+        }
+        if (exception == null) entry.future.complete(addresses);
+        else entry.future.completeExceptionally(exception);
+    }
+
+    // The family of the first address goes first, then the families alternate
+    static InetAddress[] interleave(InetAddress[] addresses) {
+        if (addresses.length <= 1) return addresses.clone();
+        boolean firstIPv6 = addresses[0] instanceof Inet6Address;
+        Deque<InetAddress> preferred = new ArrayDeque<>();
+        Deque<InetAddress> others = new ArrayDeque<>();
+        for (InetAddress address : addresses) {
+            if ((address instanceof Inet6Address) == firstIPv6) preferred.add(address);
+            else others.add(address);
+        }
+        InetAddress[] result = new InetAddress[addresses.length];
+        for (int i = 0; i < result.length; ++i) {
+            boolean fromPreferred = others.isEmpty() || (!preferred.isEmpty() && i % 2 == 0);
+            result[i] = fromPreferred ? preferred.poll() : others.poll();
+        }
+        return result;
+    }
+
+    private static List<InetAddress> rotate(InetAddress[] addresses, int rotation) {
+        int offset = Math.floorMod(rotation, addresses.length);
+        List<InetAddress> result = new ArrayList<>(addresses.length);
+        for (int i = 0; i < addresses.length; ++i) result.add(addresses[(offset + i) % addresses.length]);
+        return result;
+    }
+
+    /**
+     * The blocking lookup of a host
+     */
+    @FunctionalInterface
+    interface Lookup {
+        InetAddress[] lookup(String host) throws UnknownHostException;
+    }
+
+    private static final class Entry {
+        private final CompletableFuture<InetAddress[]> future = new CompletableFuture<>();
+        private final AtomicInteger rotation;
+        private long expiry = Long.MAX_VALUE;  // pending lookups never expire
+
+        private Entry(AtomicInteger rotation) {
+            this.rotation = rotation;
+        }
+
+        private boolean expired(long now) {
+            return expiry != Long.MAX_VALUE && now - expiry >= 0;
+        }
+    }
+
+    // Lookups block, so they run on their own threads instead of the io threads
+    private static final class LookupExecutorHolder {
+        private static final Executor EXECUTOR;
+
+        static {
+            int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+            AtomicInteger count = new AtomicInteger(0);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "dns-lookup-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTOR = executor;
+        }
+    }
+}
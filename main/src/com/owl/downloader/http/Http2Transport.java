@@ -0,0 +1,227 @@
+package com.owl.downloader.http;
+
+import com.owl.downloader.io.ByteBudget;
+import com.owl.downloader.io.TokenBucket;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Transport which fetches ranges as concurrent http/2 streams, multiplexed over one connection per origin
+ * <p>Http/2 is negotiated by ALPN for https, and by upgrade for http, servers without http/2 are served by http/1.1 instead.
+ * Each range is a stream whose body is written to the file directly, the next data of a stream is demanded only once the data
+ * before is written and paid with the tokens of the rate limiter, and once the byte budget has room, the flow control window of the stream
+ * is updated as the data is demanded, so the window follows the throughput of the task instead of buffering what the disk or the limits cannot take.</p>
+ * Streams are opened through a shared HttpClient, which keeps the connections of all the origins.
+ * <p>A stream served by http/1.1 takes a connection of its own, so the caller should limit the streams of an origin
+ * to its connections until the origin is known to be multiplexed.</p>
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+public final class Http2Transport {
+    private final HttpClient client;
+    private final int firstByteTimeout;
+    private final Set<String> multiplexedOrigins = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Construct a transport whose client prefers http/2, with the default ssl context
+     *
+     * @param connectTimeout   the connect timeout, in milliseconds, 0 means no timeout
+     * @param firstByteTimeout the timeout until the header of a response arrives, in milliseconds, 0 means no timeout
+     * @throws IllegalArgumentException if a timeout is negative
+     */
+    public Http2Transport(int connectTimeout, int firstByteTimeout) {
+        this(connectTimeout, firstByteTimeout, null);
+    }
+
+    /**
+     * Construct a transport whose client prefers http/2
+     *
+     * @param connectTimeout   the connect timeout, in milliseconds, 0 means no timeout
+     * @param firstByteTimeout the timeout until the header of a response arrives, in milliseconds, 0 means no timeout
+     * @param sslContext       the ssl context of https connections, null to use the default context
+     * @throws IllegalArgumentException if a timeout is negative
+     */
+    public Http2Transport(int connectTimeout, int firstByteTimeout, SSLContext sslContext) {
+        if (connectTimeout < 0 || firstByteTimeout < 0) throw new IllegalArgumentException("the timeout should not be negative");
+        HttpClient.Builder builder = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).followRedirects(HttpClient.Redirect.NORMAL);
+        if (connectTimeout > 0) builder.connectTimeout(Duration.ofMillis(connectTimeout));
+        if (sslContext != null) builder.sslContext(sslContext);
+        this.client = builder.build();
+        this.firstByteTimeout = firstByteTimeout;
+    }
+
+    /**
+     * Fetch the given range of the resource as a stream, the body is written to the file at the position of the first byte of the range
+     * <p>The server may return less than requested only if the range exceeds the end of the resource</p>
+     *
+     * @param uri         the uri of the resource
+     * @param start       the first byte requested, inclusive
+     * @param end         the last byte requested, inclusive
+     * @param fileChannel the file to write
+     * @param rateLimiter the rate limiter paid for the body, null if unlimited
+     * @param budget      the budget of the bytes received but not written yet, null if unlimited
+     * @param progress    called with the count of bytes once written
+     * @return the future of the count of bytes written, completed exceptionally with ProtocolException if the response is not the range requested
+     * @throws IllegalArgumentException if the range is invalid
+     */
+    public CompletableFuture<Long> fetch(URI uri, long start, long end, FileChannel fileChannel, TokenBucket rateLimiter, ByteBudget budget, IntConsumer progress) {
+        if (start < 0 || end < start) throw new IllegalArgumentException("invalid range");
+        Objects.requireNonNull(fileChannel);
+        Objects.requireNonNull(progress);
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri).header("Range", "bytes=" + start + "-" + end).GET();
+        if (firstByteTimeout > 0) builder.timeout(Duration.ofMillis(firstByteTimeout));
+        return client.sendAsync(builder.build(), responseInfo -> {
+            if (responseInfo.version() == HttpClient.Version.HTTP_2) multiplexedOrigins.add(originOf(uri));
+            RangeSubscriber subscriber = new RangeSubscriber(fileChannel, start, rateLimiter, budget, progress);
+            long last = validate(responseInfo, start, end);
+            if (last < 0) subscriber.fail(new ProtocolException("unexpected response " + responseInfo.statusCode()));
+            else subscriber.limit = last + 1;
+            return subscriber;
+        }).thenApply(HttpResponse::body);
+    }
+
+    /**
+     * Whether the origin of the given uri is known to serve http/2, whose streams are multiplexed over one connection
+     *
+     * @param uri the uri of the resource
+     * @return true once a response of the origin is received over http/2
+     */
+    public boolean isMultiplexed(URI uri) {
+        return multiplexedOrigins.contains(originOf(uri));
+    }
+
+    private static String originOf(URI uri) {
+        return uri.getScheme() + "://" + uri.getRawAuthority();
+    }
+
+    // The last byte of the range returned, -1 if not the range requested
+    private static long validate(HttpResponse.ResponseInfo responseInfo, long start, long end) {
+        if (responseInfo.statusCode() != 206) return -1;
+        String contentRange = responseInfo.headers().firstValue("Content-Range").orElse("");
+        if (!contentRange.startsWith("bytes ")) return -1;
+        int dash = contentRange.indexOf('-');
+        int slash = contentRange.indexOf('/');
+        if (dash < 0 || slash < dash) return -1;
+        try {
+            long first = Long.parseLong(contentRange.substring(6, dash).trim());
+            long last = Long.parseLong(contentRange.substring(dash + 1, slash).trim());
+            String complete = contentRange.substring(slash + 1).trim();
+            // Ranges exceeding the resource are truncated to its end
+            boolean truncated = !complete.equals("*") && last == Long.parseLong(complete) - 1 && last < end;
+            return first == start && (last == end || truncated) ? last : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Write the body to file, the next data is demanded once the data before is written and paid, and the budget has room
+    private static final class RangeSubscriber implements HttpResponse.BodySubscriber<Long> {
+        private final CompletableFuture<Long> result = new CompletableFuture<>();
+        private final FileChannel fileChannel;
+        private final TokenBucket rateLimiter;
+        private final ByteBudget budget;
+        private final IntConsumer progress;
+        private final long start;
+        private long position;
+        private long limit = Long.MAX_VALUE;
+        private Flow.Subscription subscription = null;
+
+        RangeSubscriber(FileChannel fileChannel, long start, TokenBucket rateLimiter, ByteBudget budget, IntConsumer progress) {
+            this.fileChannel = fileChannel;
+            this.start = start;
+            this.position = start;
+            this.rateLimiter = rateLimiter;
+            this.budget = budget;
+            this.progress = progress;
+        }
+
+        void fail(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public CompletionStage<Long> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            // A refused response resets its stream
+            if (result.isDone()) subscription.cancel();
+            else demand();
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            if (result.isDone()) return;
+            int size = 0;
+            // The data is held in memory until written, so it is counted by the budget meanwhile
+            long held = budget == null ? 0 : budget.acquire(buffers.stream().mapToLong(ByteBuffer::remaining).sum());
+            try {
+                for (ByteBuffer buffer : buffers) {
+                    if (buffer.remaining() > limit - position) throw new ProtocolException("body exceeds content range");
+                    while (buffer.hasRemaining()) {
+                        int written = fileChannel.write(buffer, position);
+                        position += written;
+                        size += written;
+                    }
+                }
+            } catch (IOException e) {
+                subscription.cancel();
+                result.completeExceptionally(e);
+                return;
+            } finally {
+                if (budget != null) budget.release(held);
+            }
+            if (size > 0) progress.accept(size);
+            pay(size);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (position != limit) result.completeExceptionally(new ProtocolException("body shorter than content range"));
+            else result.complete(position - start);
+        }
+
+        // Pay the tokens of the data received, the next data is demanded once paid
+        private void pay(long size) {
+            long unpaid = rateLimiter == null ? 0 : size - rateLimiter.acquire(size);
+            if (unpaid <= 0) {
+                demand();
+                return;
+            }
+            CompletableFuture.delayedExecutor(Math.max(rateLimiter.delay(), 1), TimeUnit.NANOSECONDS).execute(() -> pay(unpaid));
+        }
+
+        // The next data is demanded once the budget has room, so a full budget stops the window of the stream as well
+        private void demand() {
+            if (budget == null) subscription.request(1);
+            else budget.whenAvailable(() -> subscription.request(1));
+        }
+    }
+}
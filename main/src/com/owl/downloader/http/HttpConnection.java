@@ -0,0 +1,219 @@
+package com.owl.downloader.http;
+
+import com.owl.downloader.io.TlsChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Persistent http connection to an origin, which is leased from a ConnectionPool
+ * <p>A connection leased from the pool is either an idle connection already established, or a new one which is not connected yet,
+ * the new connection holds a slot of its origin and should be opened with an established socket by the leaser.
+ * Once a response is finished, the connection is released back to the pool if it can be reused, otherwise closed.</p>
+ * Each connection keeps its own response parser, which is reset for each request.
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+public final class HttpConnection implements Channel {
+    private final ConnectionPool pool;
+    private final String origin;
+    private final HttpResponseParser parser = new HttpResponseParser();
+    private SocketChannel socketChannel = null;
+    private TlsChannel tlsChannel = null;
+    private int requestCount = 0;
+    private int requestsBefore = 0;
+    private boolean writing = false;
+    private long idleSince = 0;
+    private boolean closed = false;
+
+    HttpConnection(ConnectionPool pool, String origin) {
+        this.pool = pool;
+        this.origin = origin;
+    }
+
+    /**
+     * Attach an established socket to the connection
+     *
+     * @param socketChannel the established socket channel, in non-blocking mode
+     * @param tlsChannel    the tls channel securing the socket, null if not https
+     * @throws IllegalStateException if the connection is already opened or closed
+     */
+    public synchronized void open(SocketChannel socketChannel, TlsChannel tlsChannel) {
+        if (closed || this.socketChannel != null) throw new IllegalStateException();
+        this.socketChannel = socketChannel;
+        this.tlsChannel = tlsChannel;
+    }
+
+    /**
+     * Whether the socket is attached
+     *
+     * @return true if the socket is attached
+     */
+    public synchronized boolean isConnected() {
+        return socketChannel != null;
+    }
+
+    /**
+     * Start a request on the connection, the parser is reset
+     *
+     * @return the parser of the response
+     */
+    public HttpResponseParser request() {
+        ++requestCount;
+        parser.reset();
+        return parser;
+    }
+
+    /**
+     * Start a sequence of requests on the connection, such as a pipeline, the requests before are all answered
+     */
+    public void startRequests() {
+        requestsBefore = requestCount;
+    }
+
+    /**
+     * Whether the current request is the first of its sequence on a connection which answered requests before
+     * <p>The server may close such a connection as idle before it reads the request, the request is safe to retry then</p>
+     *
+     * @return true if the connection is reused by the current request
+     */
+    public boolean isReused() {
+        return requestsBefore > 0 && requestCount == requestsBefore + 1;
+    }
+
+    /**
+     * Whether the current response follows another response of its sequence, so its request is pipelined behind the request before
+     *
+     * @return true if the current request is pipelined
+     */
+    public boolean isPipelined() {
+        return requestCount > requestsBefore + 1;
+    }
+
+    /**
+     * Mark the requests being written, at most one write of requests can be pending on a connection
+     *
+     * @return false if a write of requests is pending already
+     */
+    public synchronized boolean startWriting() {
+        if (writing) return false;
+        writing = true;
+        return true;
+    }
+
+    /**
+     * Mark the pending write of requests finished
+     */
+    public synchronized void finishWriting() {
+        writing = false;
+    }
+
+    /**
+     * Get the origin of the connection, such as http://example.com:80
+     *
+     * @return the origin
+     */
+    public String origin() {
+        return origin;
+    }
+
+    /**
+     * Get the socket of the connection
+     *
+     * @return the socket channel, null if not connected
+     */
+    public synchronized SocketChannel socketChannel() {
+        return socketChannel;
+    }
+
+    /**
+     * Get the tls channel of the connection
+     *
+     * @return the tls channel, null if not https or not connected
+     */
+    public synchronized TlsChannel tlsChannel() {
+        return tlsChannel;
+    }
+
+    /**
+     * Get the parser of the current response
+     *
+     * @return the parser
+     */
+    public HttpResponseParser parser() {
+        return parser;
+    }
+
+    /**
+     * Get the count of requests started on the connection
+     *
+     * @return the count of requests
+     */
+    public int requestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Release the connection back to the pool, the connection is closed instead if the last response does not allow reuse
+     */
+    public void release() {
+        pool.release(this);
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Close the socket, after close_notify if https, and give the slot of the origin back to the pool
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            if (socketChannel != null) {
+                try {
+                    if (tlsChannel != null) tlsChannel.close();
+                    else socketChannel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        pool.closed(this);
+    }
+
+    synchronized long idleSince() {
+        return idleSince;
+    }
+
+    synchronized void idle(long now) {
+        idleSince = now;
+    }
+
+    // An idle connection closed by the peer is readable, either the end of stream or unexpected bytes, records carrying no data are not
+    synchronized boolean isStale() {
+        if (closed || socketChannel == null || !socketChannel.isConnected()) return true;
+        ReadableByteChannel channel = tlsChannel != null ? tlsChannel : socketChannel;
+        try {
+            synchronized (socketChannel.blockingLock()) {
+                // Blocking schedulers leave the socket in blocking mode, which is given back after the check
+                boolean blocking = socketChannel.isBlocking();
+                if (blocking) socketChannel.configureBlocking(false);
+                try {
+                    return channel.read(ByteBuffer.allocate(1)) != 0;
+                } finally {
+                    if (blocking) socketChannel.configureBlocking(true);
+                }
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,564 @@
+package com.owl.downloader.http;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental parser of http/1.1 responses
+ * <p>The parser is a state machine fed with arbitrary slices of the response, it never blocks and never allocates once constructed,
+ * so one parser can be kept per connection and reset for each response.
+ * The metadata headers, such as ETag, are recorded as strings only if asked for, which is meant for the probe of a resource.
+ * The body is not copied, the parser tells how many bytes at the position of the buffer are body bytes,
+ * which are handed to the file writer directly, the framing of chunked bodies is skipped by the parser.</p>
+ * A typical loop is:
+ * <pre>
+ * int size;
+ * while ((size = parser.parse(buffer)) &gt; 0) {
+ *     // write the size bytes at the position of the buffer, then advance the position by size
+ * }
+ * // size is 0 if more bytes are required, -1 if the response is finished
+ * </pre>
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+public final class HttpResponseParser {
+    private static final int MAXIMUM_LINE_LENGTH = 8192;
+    private static final int MAXIMUM_HEADER_LENGTH = 65536;
+    private static final byte[] HTTP_VERSION = "HTTP/1.".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_RANGE = "content-range".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONNECTION = "connection".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BYTES = "bytes".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CHUNKED = "chunked".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE = "close".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEEP_ALIVE = "keep-alive".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ACCEPT_RANGES = "accept-ranges".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ETAG = "etag".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_MODIFIED = "last-modified".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LOCATION = "location".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_TYPE = "content-type".getBytes(StandardCharsets.US_ASCII);
+
+    private enum State {
+        STATUS_LINE, HEADER, BODY, BODY_UNTIL_CLOSE, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILER, DONE
+    }
+
+    private final byte[] line = new byte[MAXIMUM_LINE_LENGTH];
+    private int lineLength;
+    private int headerLength;
+    private State state;
+    private boolean started;
+    private int statusCode;
+    private boolean keepAlive;
+    private boolean chunked;
+    private long contentLength;
+    private long rangeStart;
+    private long rangeEnd;
+    private long completeLength;
+    private long remaining;
+    private long expectedStart = -1;
+    private long expectedEnd = -1;
+    private boolean head;
+    private boolean recordMetadata;
+    private String acceptRanges;
+    private String etag;
+    private String lastModified;
+    private String location;
+    private String contentType;
+
+    /**
+     * Construct a parser waiting for the status line
+     */
+    public HttpResponseParser() {
+        reset();
+    }
+
+    /**
+     * Reset the parser for the next response on the same connection, the expectations and the metadata are cleared as well
+     */
+    public void reset() {
+        lineLength = 0;
+        headerLength = 0;
+        state = State.STATUS_LINE;
+        started = false;
+        statusCode = 0;
+        keepAlive = false;
+        chunked = false;
+        contentLength = -1;
+        rangeStart = -1;
+        rangeEnd = -1;
+        completeLength = -1;
+        remaining = 0;
+        expectedStart = -1;
+        expectedEnd = -1;
+        head = false;
+        recordMetadata = false;
+        acceptRanges = null;
+        etag = null;
+        lastModified = null;
+        location = null;
+        contentType = null;
+    }
+
+    /**
+     * Expect the response to be a 206 response of the given range, which is validated once the header is parsed
+     * <p>The server may return less than requested only if the range exceeds the end of the resource,
+     * a 200 response is accepted only if the range is the whole resource</p>
+     *
+     * @param start the first byte requested, inclusive
+     * @param end   the last byte requested, inclusive
+     * @throws IllegalArgumentException if the range is invalid
+     */
+    public void expectRange(long start, long end) {
+        if (start < 0 || end < start) throw new IllegalArgumentException("invalid range");
+        this.expectedStart = start;
+        this.expectedEnd = end;
+    }
+
+    /**
+     * Expect the response to be the response of a HEAD request, which has no body whatever its header says
+     */
+    public void expectHead() {
+        this.head = true;
+    }
+
+    /**
+     * Record the metadata headers of the response, which can be got once the header is parsed
+     */
+    public void recordMetadata() {
+        this.recordMetadata = true;
+    }
+
+    /**
+     * Parse the given buffer from its position, until some body bytes are found or the buffer is consumed
+     * <p>If positive count is returned, the body bytes start at the position of the buffer,
+     * the caller should consume them and advance the position by the count before the next call</p>
+     *
+     * @param buffer the buffer to parse, in read mode
+     * @return the count of body bytes at the position of the buffer, 0 if more bytes are required, -1 if the response is finished
+     * @throws ProtocolException if the response is malformed or not the expected one
+     */
+    public int parse(ByteBuffer buffer) throws ProtocolException {
+        if (buffer.hasRemaining()) started = true;
+        while (true) {
+            switch (state) {
+                case DONE:
+                    return -1;
+                case BODY:
+                case CHUNK_DATA: {
+                    int size = (int) Math.min(remaining, buffer.remaining());
+                    remaining -= size;
+                    if (remaining == 0) state = state == State.BODY ? State.DONE : State.CHUNK_END;
+                    return size;
+                }
+                case BODY_UNTIL_CLOSE:
+                    return buffer.remaining();
+                default:
+                    if (!readLine(buffer)) return 0;
+                    parseLine();
+            }
+        }
+    }
+
+    /**
+     * Skip body bytes consumed by the caller without parsing, for example transferred from the socket to the file directly
+     * <p>Only the bytes of a body whose length is known or which ends with the connection can be skipped</p>
+     *
+     * @param count the count of body bytes skipped
+     * @throws IllegalStateException    if the parser is not in such a body
+     * @throws IllegalArgumentException if the count is negative or exceeds the remaining bytes
+     */
+    public void skip(long count) {
+        if (state != State.BODY && state != State.BODY_UNTIL_CLOSE) throw new IllegalStateException();
+        if (count < 0 || (state == State.BODY && count > remaining)) throw new IllegalArgumentException("invalid count");
+        if (state == State.BODY_UNTIL_CLOSE) return;
+        remaining -= count;
+        if (remaining == 0) state = State.DONE;
+    }
+
+    /**
+     * Notify the parser the connection is closed by the peer
+     *
+     * @throws ProtocolException if the response is not finished yet
+     */
+    public void endOfStream() throws ProtocolException {
+        if (state == State.BODY_UNTIL_CLOSE) state = State.DONE;
+        if (state != State.DONE) throw new ProtocolException("unexpected end of stream");
+    }
+
+    /**
+     * Get the count of body bytes remaining
+     *
+     * @return the remaining bytes of a body whose length is known, -1 if the length of the body is unknown yet
+     */
+    public long remaining() {
+        switch (state) {
+            case BODY:
+                return remaining;
+            case DONE:
+                return 0;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Whether the header is parsed
+     *
+     * @return true if the header is parsed
+     */
+    public boolean isHeaderComplete() {
+        return state != State.STATUS_LINE && state != State.HEADER;
+    }
+
+    /**
+     * Whether any byte of the response is parsed, a request closed before its response starts was never served
+     *
+     * @return true if any byte is parsed since the parser is reset
+     */
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Whether the response is finished
+     *
+     * @return true if the response is finished
+     */
+    public boolean isComplete() {
+        return state == State.DONE;
+    }
+
+    /**
+     * Get the status code, which is valid once the status line is parsed
+     *
+     * @return the status code, 0 if the status line is not parsed yet
+     */
+    public int statusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Whether the connection can be reused for the next request once the response is finished
+     *
+     * @return true if the connection can be reused
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Whether the body is chunked
+     *
+     * @return true if the body is chunked
+     */
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    /**
+     * Get the Content-Length of the response
+     *
+     * @return the content length, -1 if not given
+     */
+    public long contentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Get the first byte of the Content-Range of the response
+     *
+     * @return the first byte, inclusive, -1 if not given
+     */
+    public long rangeStart() {
+        return rangeStart;
+    }
+
+    /**
+     * Get the last byte of the Content-Range of the response
+     *
+     * @return the last byte, inclusive, -1 if not given
+     */
+    public long rangeEnd() {
+        return rangeEnd;
+    }
+
+    /**
+     * Get the complete length of the resource given by the Content-Range of the response
+     *
+     * @return the complete length, -1 if not given or unknown
+     */
+    public long completeLength() {
+        return completeLength;
+    }
+
+    /**
+     * Get the Accept-Ranges of the response, which is recorded only if asked for
+     *
+     * @return the accept ranges, null if not given
+     */
+    public String acceptRanges() {
+        return acceptRanges;
+    }
+
+    /**
+     * Get the ETag of the response, which is recorded only if asked for
+     *
+     * @return the entity tag, null if not given
+     */
+    public String etag() {
+        return etag;
+    }
+
+    /**
+     * Get the Last-Modified of the response, which is recorded only if asked for
+     *
+     * @return the last modified date, null if not given
+     */
+    public String lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Get the Location of the response, which is recorded only if asked for
+     *
+     * @return the location, null if not given
+     */
+    public String location() {
+        return location;
+    }
+
+    /**
+     * Get the Content-Type of the response, which is recorded only if asked for
+     *
+     * @return the content type, null if not given
+     */
+    public String contentType() {
+        return contentType;
+    }
+
+    // Read bytes until a line feed, the carriage return before it is dropped
+    private boolean readLine(ByteBuffer buffer) throws ProtocolException {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (isHeaderState() && ++headerLength > MAXIMUM_HEADER_LENGTH) throw new ProtocolException("header too large");
+            if (b == '\n') {
+                if (lineLength > 0 && line[lineLength - 1] == '\r') --lineLength;
+                return true;
+            }
+            if (lineLength == line.length) throw new ProtocolException("line too long");
+            line[lineLength++] = b;
+        }
+        return false;
+    }
+
+    private boolean isHeaderState() {
+        return state == State.STATUS_LINE || state == State.HEADER;
+    }
+
+    private void parseLine() throws ProtocolException {
+        int length = lineLength;
+        lineLength = 0;
+        switch (state) {
+            case STATUS_LINE:
+                // Empty lines before the status line are tolerated
+                if (length > 0) parseStatusLine(length);
+                break;
+            case HEADER:
+                if (length == 0) finishHeader();
+                else parseHeader(length);
+                break;
+            case CHUNK_SIZE:
+                parseChunkSize(length);
+                break;
+            case CHUNK_END:
+                if (length != 0) throw new ProtocolException("invalid chunk");
+                state = State.CHUNK_SIZE;
+                break;
+            case TRAILER:
+                // Trailers are ignored
+                if (length == 0) state = State.DONE;
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private void parseStatusLine(int length) throws ProtocolException {
+        int versionLength = HTTP_VERSION.length;
+        if (length < versionLength + 5 || !regionMatches(0, versionLength, HTTP_VERSION) || !isDigit(line[versionLength]) || line[versionLength + 1] != ' ') {
+            throw new ProtocolException("invalid status line");
+        }
+        int code = 0;
+        for (int i = versionLength + 2; i < versionLength + 5; ++i) {
+            if (!isDigit(line[i])) throw new ProtocolException("invalid status line");
+            code = code * 10 + line[i] - '0';
+        }
+        if (length > versionLength + 5 && line[versionLength + 5] != ' ') throw new ProtocolException("invalid status line");
+        statusCode = code;
+        // Connections of http/1.1 are persistent unless closed explicitly
+        keepAlive = line[versionLength] != '0';
+        state = State.HEADER;
+    }
+
+    private void parseHeader(int length) throws ProtocolException {
+        int colon = indexOf((byte) ':', 0, length);
+        if (colon <= 0) throw new ProtocolException("invalid header");
+        int start = colon + 1;
+        int end = length;
+        while (start < end && isWhitespace(line[start])) ++start;
+        while (end > start && isWhitespace(line[end - 1])) --end;
+        if (nameMatches(colon, CONTENT_LENGTH)) {
+            long value = parseDecimal(start, end);
+            if (contentLength != -1 && contentLength != value) throw new ProtocolException("conflicting content length");
+            contentLength = value;
+        } else if (nameMatches(colon, CONTENT_RANGE)) {
+            parseContentRange(start, end);
+        } else if (nameMatches(colon, TRANSFER_ENCODING)) {
+            // Only the last transfer coding decides the framing
+            chunked = end - start >= CHUNKED.length && regionMatches(end - CHUNKED.length, end, CHUNKED);
+        } else if (nameMatches(colon, CONNECTION)) {
+            if (contains(start, end, CLOSE)) keepAlive = false;
+            else if (contains(start, end, KEEP_ALIVE)) keepAlive = true;
+        } else if (recordMetadata) {
+            parseMetadata(colon, start, end);
+        }
+    }
+
+    private void parseMetadata(int colon, int start, int end) {
+        if (nameMatches(colon, ACCEPT_RANGES)) acceptRanges = value(start, end);
+        else if (nameMatches(colon, ETAG)) etag = value(start, end);
+        else if (nameMatches(colon, LAST_MODIFIED)) lastModified = value(start, end);
+        else if (nameMatches(colon, LOCATION)) location = value(start, end);
+        else if (nameMatches(colon, CONTENT_TYPE)) contentType = value(start, end);
+    }
+
+    private String value(int start, int end) {
+        return new String(line, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    // bytes first-last/complete, or bytes */complete if the range is not satisfiable
+    private void parseContentRange(int start, int end) throws ProtocolException {
+        if (end - start <= BYTES.length || !regionMatches(start, start + BYTES.length, BYTES) || line[start + BYTES.length] != ' ') {
+            throw new ProtocolException("invalid content range");
+        }
+        int slash = indexOf((byte) '/', start, end);
+        if (slash < 0) throw new ProtocolException("invalid content range");
+        int rangeBegin = start + BYTES.length + 1;
+        if (!(slash - rangeBegin == 1 && line[rangeBegin] == '*')) {
+            int dash = indexOf((byte) '-', rangeBegin, slash);
+            if (dash < 0) throw new ProtocolException("invalid content range");
+            rangeStart = parseDecimal(rangeBegin, dash);
+            rangeEnd = parseDecimal(dash + 1, slash);
+            if (rangeEnd < rangeStart) throw new ProtocolException("invalid content range");
+        }
+        completeLength = end - slash == 2 && line[slash + 1] == '*' ? -1 : parseDecimal(slash + 1, end);
+    }
+
+    private void parseChunkSize(int length) throws ProtocolException {
+        int end = indexOf((byte) ';', 0, length);
+        if (end < 0) end = length;
+        while (end > 0 && isWhitespace(line[end - 1])) --end;
+        if (end == 0) throw new ProtocolException("invalid chunk size");
+        long size = 0;
+        for (int i = 0; i < end; ++i) {
+            int digit = Character.digit(line[i], 16);
+            if (digit < 0 || size > (Long.MAX_VALUE >> 4)) throw new ProtocolException("invalid chunk size");
+            size = (size << 4) | digit;
+        }
+        remaining = size;
+        state = size == 0 ? State.TRAILER : State.CHUNK_DATA;
+    }
+
+    private void finishHeader() throws ProtocolException {
+        // Interim responses are followed by the final response
+        if (statusCode >= 100 && statusCode < 200 && statusCode != 101) {
+            long start = expectedStart;
+            long end = expectedEnd;
+            boolean head = this.head;
+            boolean recordMetadata = this.recordMetadata;
+            reset();
+            expectedStart = start;
+            expectedEnd = end;
+            this.head = head;
+            this.recordMetadata = recordMetadata;
+            return;
+        }
+        if (expectedStart >= 0) validateRange();
+        if (head || statusCode == 204 || statusCode == 304 || statusCode < 200) {
+            state = State.DONE;
+        } else if (chunked) {
+            state = State.CHUNK_SIZE;
+        } else if (contentLength >= 0) {
+            remaining = contentLength;
+            state = contentLength == 0 ? State.DONE : State.BODY;
+        } else {
+            keepAlive = false;
+            state = State.BODY_UNTIL_CLOSE;
+        }
+    }
+
+    private void validateRange() throws ProtocolException {
+        // A server not supporting ranges returns the whole resource, which is the range only if the range is the whole resource
+        if (statusCode == 200 && expectedStart == 0 && !chunked && contentLength == expectedEnd + 1) return;
+        if (statusCode != 206) throw new ProtocolException("unexpected status " + statusCode);
+        if (rangeStart != expectedStart) throw new ProtocolException("unexpected content range");
+        // Ranges exceeding the resource are truncated to its end
+        boolean truncated = completeLength > 0 && rangeEnd == completeLength - 1 && rangeEnd < expectedEnd;
+        if (rangeEnd != expectedEnd && !truncated) throw new ProtocolException("unexpected content range");
+        if (!chunked && contentLength != -1 && contentLength != rangeEnd - rangeStart + 1) {
+            throw new ProtocolException("content length does not match content range");
+        }
+    }
+
+    private long parseDecimal(int start, int end) throws ProtocolException {
+        if (start >= end) throw new ProtocolException("invalid number");
+        long value = 0;
+        for (int i = start; i < end; ++i) {
+            if (!isDigit(line[i]) || value > (Long.MAX_VALUE - 9) / 10) throw new ProtocolException("invalid number");
+            value = value * 10 + line[i] - '0';
+        }
+        return value;
+    }
+
+    private boolean nameMatches(int length, byte[] name) {
+        return length == name.length && regionMatches(0, length, name);
+    }
+
+    // Case insensitive, the given bytes should be lower case
+    private boolean regionMatches(int start, int end, byte[] bytes) {
+        if (end - start != bytes.length) return false;
+        for (int i = 0; i < bytes.length; ++i) {
+            if (toLowerCase(line[start + i]) != toLowerCase(bytes[i])) return false;
+        }
+        return true;
+    }
+
+    private boolean contains(int start, int end, byte[] bytes) {
+        for (int i = start; i + bytes.length <= end; ++i) {
+            if (regionMatches(i, i + bytes.length, bytes)) return true;
+        }
+        return false;
+    }
+
+    private int indexOf(byte b, int start, int end) {
+        for (int i = start; i < end; ++i) {
+            if (line[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private static byte toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
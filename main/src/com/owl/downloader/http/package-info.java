@@ -0,0 +1,4 @@
+/**
+ * Components related to the http protocol
+ */
+package com.owl.downloader.http;
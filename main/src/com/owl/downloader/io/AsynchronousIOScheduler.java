@@ -0,0 +1,188 @@
+package com.owl.downloader.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * IOScheduler backed by NIO.2 asynchronous channels
+ * <p>Asynchronous socket channels opened by this scheduler share one channel group,
+ * asynchronous file channels opened by this scheduler run on their own threads,
+ * so a slow disk never starves the socket io</p>
+ * Classic selectable channels are served by an event loop, classic file channels are served by the file threads as well,
+ * so the scheduler can be chosen by Session.setIOScheduler and serve every task, while the io of asynchronous channels is called back
+ * in the threads of the channel group without any selector.
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+public class AsynchronousIOScheduler implements IOScheduler {
+    private final int threadCount;
+    private final BufferPool bufferPool = new BufferPool();
+    private AsynchronousChannelGroup group = null;
+    private ExecutorService fileExecutor = null;
+    private EventLoop eventLoop = null;
+    private volatile boolean running = false;
+
+    /**
+     * Construct a scheduler whose channel group has one thread per available processor
+     */
+    public AsynchronousIOScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct a scheduler with the given count of threads, which is used by both the channel group and the file io
+     *
+     * @param threadCount the count of threads
+     * @throws IllegalArgumentException if the thread count is not positive
+     */
+    public AsynchronousIOScheduler(int threadCount) {
+        if (threadCount <= 0) throw new IllegalArgumentException("the count of threads should be positive");
+        this.threadCount = threadCount;
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        if (running) return;
+        group = AsynchronousChannelGroup.withFixedThreadPool(threadCount, daemonThreadFactory("owl-async-"));
+        fileExecutor = Executors.newFixedThreadPool(threadCount, daemonThreadFactory("owl-file-"));
+        eventLoop = new EventLoop("owl-event-loop", fileExecutor);
+        eventLoop.start();
+        running = true;
+    }
+
+    @Override
+    public synchronized void stop() throws IOException {
+        running = false;
+        if (eventLoop != null) eventLoop.stop();
+        eventLoop = null;
+        if (group != null) group.shutdownNow();
+        group = null;
+        if (fileExecutor != null) fileExecutor.shutdown();
+        fileExecutor = null;
+    }
+
+    @Override
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Open an asynchronous socket channel bound to the channel group of this scheduler
+     *
+     * @return the opened socket channel
+     * @throws IOException if the channel cannot be opened
+     */
+    public AsynchronousSocketChannel openSocketChannel() throws IOException {
+        if (!running) throw new IllegalStateException();
+        return AsynchronousSocketChannel.open(group);
+    }
+
+    /**
+     * Open the given file for positional writes, the io of the file runs on the file threads of this scheduler
+     * <p>The io of the returned channel never occupies the threads serving sockets</p>
+     *
+     * @param path the path of the file
+     * @return the opened file channel
+     * @throws IOException if the file cannot be opened
+     */
+    public AsynchronousFileChannel openFile(Path path) throws IOException {
+        if (!running) throw new IllegalStateException();
+        return AsynchronousFileChannel.open(path, EnumSet.of(StandardOpenOption.WRITE), fileExecutor);
+    }
+
+    /**
+     * Read data from the given asynchronous channel and put to the given buffer, call the callback once io finish (at least one byte read or io fail)
+     * <p>No thread is occupied while waiting, the callback is called in the thread of the channel group</p>
+     *
+     * @param channel  the source channel
+     * @param buffer   the destination data buffer
+     * @param callback io callback
+     */
+    public void read(AsynchronousByteChannel channel, ByteBuffer buffer, IOCallback callback) {
+        channel.read(buffer, callback, new CallbackCompletionHandler(channel, buffer));
+    }
+
+    /**
+     * Write data from the given buffer to the given asynchronous channel, call the callback once io finish (at least one byte write or io fail)
+     * <p>No thread is occupied while waiting, the callback is called in the thread of the channel group</p>
+     *
+     * @param channel  the destination channel
+     * @param buffer   the source data buffer
+     * @param callback io callback
+     */
+    public void write(AsynchronousByteChannel channel, ByteBuffer buffer, IOCallback callback) {
+        channel.write(buffer, callback, new CallbackCompletionHandler(channel, buffer));
+    }
+
+    /**
+     * Write data from the given buffer to the given file at the given position, call the callback once io finish (at least one byte write or io fail)
+     *
+     * @param channel  the destination file
+     * @param buffer   the source data buffer
+     * @param position the file position where the data is written
+     * @param callback io callback
+     */
+    public void write(AsynchronousFileChannel channel, ByteBuffer buffer, long position, IOCallback callback) {
+        channel.write(buffer, position, callback, new CallbackCompletionHandler(channel, buffer));
+    }
+
+    @Override
+    public Registration register(SelectableChannel channel) throws ClosedChannelException {
+        if (!running) throw new IllegalStateException();
+        return eventLoop.register(channel);
+    }
+
+    @Override
+    public void read(ReadableByteChannel channel, ByteBuffer buffer, IOCallback callback) {
+        if (!running) throw new IllegalStateException();
+        if (channel instanceof SelectableChannel) {
+            try {
+                register((SelectableChannel) channel).read(buffer, callback);
+            } catch (ClosedChannelException e) {
+                callback.callback(channel, buffer, 0, e);
+            }
+        } else fileExecutor.execute(() -> BlockingIO.read(channel, buffer, callback));
+    }
+
+    @Override
+    public void write(WritableByteChannel channel, ByteBuffer buffer, IOCallback callback) {
+        if (!running) throw new IllegalStateException();
+        if (channel instanceof SelectableChannel) {
+            try {
+                register((SelectableChannel) channel).write(buffer, callback);
+            } catch (ClosedChannelException e) {
+                callback.callback(channel, buffer, 0, e);
+            }
+        } else fileExecutor.execute(() -> BlockingIO.write(channel, buffer, callback));
+    }
+
+    @Override
+    public void transfer(ReadableByteChannel channel, FileChannel target, long position, long count, IOCallback callback) {
+        if (!running) throw new IllegalStateException();
+        if (channel instanceof SelectableChannel) {
+            try {
+                register((SelectableChannel) channel).transfer(target, position, count, callback);
+            } catch (ClosedChannelException e) {
+                callback.callback(channel, null, 0, e);
+            }
+        } else fileExecutor.execute(() -> BlockingIO.transfer(channel, target, position, count, callback));
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger(0);
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,99 @@
+package com.owl.downloader.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The io of channels that are not selectable, shared by the schedulers
+ * <p>Each operation blocks the calling thread until it finishes, then calls the callback in the same thread</p>
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+final class BlockingIO {
+    private BlockingIO() {
+    }
+
+    /**
+     * Read data from the given channel and put to the given buffer, call the callback once io finish
+     *
+     * @param channel  the source channel
+     * @param buffer   the destination data buffer
+     * @param callback io callback
+     */
+    static void read(ReadableByteChannel channel, ByteBuffer buffer, IOCallback callback) {
+        int size = 0;
+        Exception exception = null;
+        try {
+            size = channel.read(buffer);
+        } catch (IOException e) {
+            exception = e;
+        } finally {
+            callback.callback(channel, buffer, size, exception);
+        }
+    }
+
+    /**
+     * Write data from the given buffer to the given channel, call the callback once io finish
+     *
+     * @param channel  the destination channel
+     * @param buffer   the source data buffer
+     * @param callback io callback
+     */
+    static void write(WritableByteChannel channel, ByteBuffer buffer, IOCallback callback) {
+        int size = 0;
+        Exception exception = null;
+        try {
+            size = channel.write(buffer);
+        } catch (IOException e) {
+            exception = e;
+        } finally {
+            callback.callback(channel, buffer, size, exception);
+        }
+    }
+
+    /**
+     * Transfer data from the given channel to the given file directly, call the callback once io finish
+     * <p>The size passed to the callback is -1 once the end of stream is reached, which a byte read tells from a transfer returning nothing</p>
+     *
+     * @param channel  the source channel
+     * @param target   the destination file
+     * @param position the position of the file where the transfer starts
+     * @param count    the maximum count of bytes to be transferred
+     * @param callback io callback
+     */
+    static void transfer(ReadableByteChannel channel, FileChannel target, long position, long count, IOCallback callback) {
+        int size = 0;
+        Exception exception = null;
+        try {
+            long transferred = target.transferFrom(channel, position, Math.min(count, Integer.MAX_VALUE));
+            size = transferred == 0 && count > 0 ? transferByte(channel, target, position) : (int) transferred;
+        } catch (IOException e) {
+            exception = e;
+        } finally {
+            callback.callback(channel, null, size, exception);
+        }
+    }
+
+    /**
+     * Transfer a single byte from the given channel to the given file by a read and a write
+     * <p>A transfer returns nothing at the end of stream, but also if the position is beyond the size of the file, the read tells the two apart</p>
+     *
+     * @param channel  the source channel
+     * @param target   the destination file
+     * @param position the position of the file where the byte is written
+     * @return 1 if the byte is transferred, -1 if the end of stream is reached, 0 if a non-blocking channel has nothing to read
+     * @throws IOException if the read or the write fails
+     */
+    static int transferByte(ReadableByteChannel channel, FileChannel target, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        int size = channel.read(buffer);
+        if (size <= 0) return size;
+        buffer.flip();
+        while (buffer.hasRemaining()) target.write(buffer, position);
+        return size;
+    }
+}
@@ -0,0 +1,209 @@
+package com.owl.downloader.io;
+
+import com.owl.downloader.exception.BufferPoolExhaustedException;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct byte buffers, buffers are grouped by size classes which are powers of two
+ * <p>A buffer is leased from the pool and should be released back once it is no longer used,
+ * the memory of all the buffers allocated by the pool never exceeds the maximum memory</p>
+ * Leak detection records where each outstanding buffer is leased, which is useful in tests but costs, so it is disabled by default.
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+public final class BufferPool {
+    private static final int MINIMUM_SHIFT = 12; // 4KB
+    private static final int MAXIMUM_SHIFT = 20; // 1MB
+    private final List<Deque<ByteBuffer>> freeBuffers = new ArrayList<>(MAXIMUM_SHIFT - MINIMUM_SHIFT + 1);
+    private final AtomicLong allocatedMemory = new AtomicLong(0);
+    private final AtomicLong leasedMemory = new AtomicLong(0);
+    private final Map<ByteBuffer, Throwable> leases = new IdentityHashMap<>();
+    private volatile long maximumMemory;
+    private volatile boolean leakDetection = false;
+
+    /**
+     * Construct a buffer pool with the default maximum memory, which is 64MB
+     */
+    public BufferPool() {
+        this(64L << 20);
+    }
+
+    /**
+     * Construct a buffer pool with the given maximum memory
+     *
+     * @param maximumMemory the maximum memory of all the allocated buffers, in bytes
+     * @throws IllegalArgumentException if the maximum memory is not positive
+     */
+    public BufferPool(long maximumMemory) {
+        setMaximumMemory(maximumMemory);
+        for (int shift = MINIMUM_SHIFT; shift <= MAXIMUM_SHIFT; ++shift) freeBuffers.add(new ArrayDeque<>());
+    }
+
+    /**
+     * Lease a cleared direct buffer whose limit is the given size, the capacity may be larger
+     * <p>Buffers larger than the largest size class are allocated directly and not cached once released</p>
+     *
+     * @param size the size required, in bytes
+     * @return the leased buffer
+     * @throws IllegalArgumentException     if the size is not positive
+     * @throws BufferPoolExhaustedException if a new buffer is required but the maximum memory is reached
+     */
+    public ByteBuffer lease(int size) {
+        if (size <= 0) throw new IllegalArgumentException("the size of buffer should be positive");
+        int index = indexOf(size);
+        ByteBuffer buffer = null;
+        if (index < freeBuffers.size()) {
+            Deque<ByteBuffer> buffers = freeBuffers.get(index);
+            synchronized (buffers) {
+                buffer = buffers.pollFirst();
+            }
+        }
+        if (buffer == null) buffer = allocate(index < freeBuffers.size() ? 1 << (index + MINIMUM_SHIFT) : size);
+        buffer.clear().limit(size);
+        leasedMemory.addAndGet(buffer.capacity());
+        if (leakDetection) {
+            synchronized (leases) {
+                leases.put(buffer, new Throwable("buffer of " + size + " bytes leased here"));
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Release a leased buffer back to the pool, the buffer should not be used any more
+     *
+     * @param buffer the buffer to be released
+     * @throws NullPointerException     if the given buffer is null
+     * @throws IllegalArgumentException if leak detection is enabled and the buffer is not leased from this pool
+     */
+    public void release(ByteBuffer buffer) {
+        Objects.requireNonNull(buffer);
+        if (leakDetection) {
+            synchronized (leases) {
+                if (leases.remove(buffer) == null)
+                    throw new IllegalArgumentException("the buffer is not leased from this pool or released already");
+            }
+        }
+        int capacity = buffer.capacity();
+        leasedMemory.addAndGet(-capacity);
+        int index = indexOf(capacity);
+        if (index < freeBuffers.size() && capacity == 1 << (index + MINIMUM_SHIFT) && allocatedMemory.get() <= maximumMemory) {
+            Deque<ByteBuffer> buffers = freeBuffers.get(index);
+            synchronized (buffers) {
+                buffers.offerFirst(buffer);
+            }
+        } else allocatedMemory.addAndGet(-capacity);
+    }
+
+    /**
+     * Drop all the cached buffers, their memory is reclaimed by the garbage collector
+     */
+    public void trim() {
+        for (Deque<ByteBuffer> buffers : freeBuffers) {
+            synchronized (buffers) {
+                for (ByteBuffer buffer : buffers) allocatedMemory.addAndGet(-buffer.capacity());
+                buffers.clear();
+            }
+        }
+    }
+
+    /**
+     * Get the memory of all the buffers allocated by this pool, including cached ones, in bytes
+     *
+     * @return the allocated memory
+     */
+    public long allocatedMemory() {
+        return allocatedMemory.get();
+    }
+
+    /**
+     * Get the memory of the buffers which are leased and not released yet, in bytes
+     *
+     * @return the leased memory
+     */
+    public long leasedMemory() {
+        return leasedMemory.get();
+    }
+
+    /**
+     * Get the maximum memory of all the allocated buffers, in bytes
+     *
+     * @return the maximum memory
+     */
+    public long getMaximumMemory() {
+        return maximumMemory;
+    }
+
+    /**
+     * Set the maximum memory of all the allocated buffers, in bytes
+     * <p>Buffers already allocated are kept, cached buffers are dropped when released if the maximum memory is exceeded</p>
+     *
+     * @param maximumMemory the maximum memory
+     * @throws IllegalArgumentException if the maximum memory is not positive
+     */
+    public void setMaximumMemory(long maximumMemory) {
+        if (maximumMemory <= 0) throw new IllegalArgumentException("the maximum memory of buffer pool should be positive");
+        this.maximumMemory = maximumMemory;
+    }
+
+    /**
+     * Check whether leak detection is enabled
+     *
+     * @return true if leak detection is enabled
+     */
+    public boolean isLeakDetection() {
+        return leakDetection;
+    }
+
+    /**
+     * Enable or disable leak detection, buffers leased before enabling are not tracked
+     *
+     * @param leakDetection whether to enable leak detection
+     */
+    public void setLeakDetection(boolean leakDetection) {
+        this.leakDetection = leakDetection;
+        if (!leakDetection) {
+            synchronized (leases) {
+                leases.clear();
+            }
+        }
+    }
+
+    /**
+     * Get where the outstanding buffers are leased, only available if leak detection is enabled
+     *
+     * @return the stack traces of the outstanding leases
+     */
+    public List<Throwable> leaks() {
+        synchronized (leases) {
+            return new LinkedList<>(leases.values());
+        }
+    }
+
+    // Cached buffers of other size classes are dropped before giving up
+    private ByteBuffer allocate(int capacity) {
+        boolean trimmed = false;
+        long allocated;
+        do {
+            allocated = allocatedMemory.get();
+            if (allocated + capacity > maximumMemory) {
+                if (trimmed)
+                    throw new BufferPoolExhaustedException("cannot allocate " + capacity + " bytes, " + allocated + " of " + maximumMemory + " bytes allocated");
+                trim();
+                trimmed = true;
+                allocated = -1;
+            }
+        } while (allocated < 0 || !allocatedMemory.compareAndSet(allocated, allocated + capacity));
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    // Index of the smallest size class which fits the given size
+    private static int indexOf(int size) {
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return Math.max(shift, MINIMUM_SHIFT) - MINIMUM_SHIFT;
+    }
+}
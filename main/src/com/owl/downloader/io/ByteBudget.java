@@ -0,0 +1,194 @@
+package com.owl.downloader.io;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Budget of bytes in flight, which are read from the network but not persisted yet
+ * <p>A budget may have a parent, bytes are granted only if both the budget and all its ancestors have room,
+ * so a budget per task with the session budget as parent bounds both the memory of the task and the whole session</p>
+ * The bytes granted should be released once persisted, tasks waiting for room are notified then.
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+public class ByteBudget implements Serializable {
+    private static final long serialVersionUID = -3371874452318836240L;
+    private final ByteBudget parent;
+    private long limit = 0;
+    private transient long used = 0;
+    private transient List<Runnable> waiters = null;
+
+    /**
+     * Construct a budget without parent
+     *
+     * @param limit the maximum bytes in flight, 0 means unlimited
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    public ByteBudget(long limit) {
+        this(limit, null);
+    }
+
+    /**
+     * Construct a budget with the given parent
+     *
+     * @param limit  the maximum bytes in flight, 0 means unlimited
+     * @param parent the parent budget, null if there is no parent
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    public ByteBudget(long limit, ByteBudget parent) {
+        this.parent = parent;
+        setLimit(limit);
+    }
+
+    /**
+     * Get the parent budget
+     *
+     * @return the parent budget, null if there is no parent
+     */
+    public ByteBudget getParent() {
+        return parent;
+    }
+
+    /**
+     * Get the maximum bytes in flight
+     *
+     * @return the maximum bytes in flight, 0 means unlimited
+     */
+    public synchronized long getLimit() {
+        return limit;
+    }
+
+    /**
+     * Set the maximum bytes in flight, the change takes effect immediately
+     * <p>Bytes already granted are kept even if the new limit is exceeded</p>
+     *
+     * @param limit the maximum bytes in flight, 0 means unlimited
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    public void setLimit(long limit) {
+        if (limit < 0) throw new IllegalArgumentException("the limit should not be negative");
+        List<Runnable> waiters;
+        synchronized (this) {
+            this.limit = limit;
+            waiters = drainWaiters();
+        }
+        wakeUp(waiters);
+    }
+
+    /**
+     * Get the bytes in flight of this budget
+     *
+     * @return the bytes granted and not released yet
+     */
+    public synchronized long used() {
+        return used;
+    }
+
+    /**
+     * Check whether this budget and all its ancestors have room now
+     *
+     * @return true if some bytes can be granted
+     */
+    public boolean isAvailable() {
+        for (ByteBudget budget = this; budget != null; budget = budget.parent) {
+            synchronized (budget) {
+                if (!budget.hasRoom()) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Acquire at most the given count of bytes from this budget and all its ancestors
+     *
+     * @param requested the count of bytes requested
+     * @return the count of bytes granted, between 0 and the requested count
+     */
+    public synchronized long acquire(long requested) {
+        if (requested <= 0) return 0;
+        long available = limit == 0 ? requested : Math.min(requested, limit - used);
+        if (available <= 0) return 0;
+        long granted = parent == null ? available : parent.acquire(available);
+        used += granted;
+        return granted;
+    }
+
+    /**
+     * Release the bytes granted to this budget and all its ancestors, the waiting tasks are notified if there is room again
+     *
+     * @param bytes the count of bytes released
+     */
+    public void release(long bytes) {
+        if (bytes <= 0) return;
+        List<Runnable> waiters;
+        synchronized (this) {
+            used = Math.max(used - bytes, 0);
+            waiters = drainWaiters();
+        }
+        if (parent != null) parent.release(bytes);
+        wakeUp(waiters);
+    }
+
+    /**
+     * Run the given task once this budget and all its ancestors have room, the task is run immediately if there is room now
+     * <p>The task is run at most once, usually in the thread releasing the bytes, so it should be short</p>
+     *
+     * @param task the task to be run
+     */
+    public void whenAvailable(Runnable task) {
+        new Waiter(this, task).run();
+    }
+
+    // The waiter is kept only if there is no room, checked under the same lock as release, so no notification is lost
+    private synchronized boolean await(Runnable waiter) {
+        if (hasRoom()) return false;
+        if (waiters == null) waiters = new ArrayList<>();
+        waiters.add(waiter);
+        return true;
+    }
+
+    private boolean hasRoom() {
+        return limit == 0 || used < limit;
+    }
+
+    private List<Runnable> drainWaiters() {
+        if (waiters == null || waiters.isEmpty() || !hasRoom()) return null;
+        List<Runnable> drained = waiters;
+        waiters = null;
+        return drained;
+    }
+
+    private static void wakeUp(List<Runnable> waiters) {
+        if (waiters == null) return;
+        for (Runnable waiter : waiters) {
+            try {
+                waiter.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Waiter registered to one used up budget at a time, so that the task is run exactly once
+     */
+    private static final class Waiter implements Runnable {
+        private final ByteBudget budget;
+        private final Runnable task;
+
+        private Waiter(ByteBudget budget, Runnable task) {
+            this.budget = budget;
+            this.task = task;
+        }
+
+        // Wait for the first used up budget from the bottom, the task is run once all the budgets have room
+        @Override
+        public void run() {
+            for (ByteBudget budget = this.budget; budget != null; budget = budget.parent)
+                if (budget.await(this)) return;
+            task.run();
+        }
+    }
+}
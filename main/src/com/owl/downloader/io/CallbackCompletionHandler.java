@@ -0,0 +1,31 @@
+package com.owl.downloader.io;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.CompletionHandler;
+
+/**
+ * Adapt IOCallback to the CompletionHandler of asynchronous channels
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+final class CallbackCompletionHandler implements CompletionHandler<Integer, IOCallback> {
+    private final Channel channel;
+    private final ByteBuffer buffer;
+
+    CallbackCompletionHandler(Channel channel, ByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    @Override
+    public void completed(Integer size, IOCallback callback) {
+        callback.callback(channel, buffer, size, null);
+    }
+
+    @Override
+    public void failed(Throwable exception, IOCallback callback) {
+        callback.callback(channel, buffer, 0, exception instanceof Exception ? (Exception) exception : new Exception(exception));
+    }
+}
@@ -3,6 +3,7 @@ package com.owl.downloader.io;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.util.Iterator;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -17,22 +18,30 @@ public class DefaultIOScheduler implements IOScheduler, Runnable {
     private Thread daemon = null;
     private ExecutorService executor = null;
     private volatile boolean running = false;
+    private final BufferPool bufferPool = new BufferPool();
+    private TimerWheel timers = null;
 
     @Override
     public void run() {
         running = true;
         while (!Thread.currentThread().isInterrupted()) {
             try {
-                int count = selector.select();
+                long timeout = timers.nextTimeout();
+                int count = timeout < 0 ? selector.selectNow() : selector.select(timeout);
                 if (count > 0) {
-                    for (SelectionKey key : selector.selectedKeys()) {
-                        Attachment attachment = (Attachment) key.attachment();
-                        if (key.isReadable())
-                            executor.execute(() -> doRead((ReadableByteChannel) key.channel(), attachment.buffer, attachment.callback));
-                        if (key.isWritable())
-                            executor.execute(() -> doWrite((WritableByteChannel) key.channel(), attachment.buffer, attachment.callback));
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        SelectorRegistration registration = (SelectorRegistration) key.attachment();
+                        try {
+                            registration.ready(key.readyOps());
+                        } catch (CancelledKeyException e) {
+                            registration.fail(new ClosedChannelException());
+                        }
                     }
                 }
+                timers.runExpired();
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -40,16 +49,6 @@ public class DefaultIOScheduler implements IOScheduler, Runnable {
         running = false;
     }
 
-    private static class Attachment {
-        private final ByteBuffer buffer;
-        private final IOCallback callback;
-
-        public Attachment(ByteBuffer buffer, IOCallback callback) {
-            this.buffer = buffer;
-            this.callback = callback;
-        }
-    }
-
     public static DefaultIOScheduler getInstance() {
         if (scheduler == null) {
             synchronized (DefaultIOScheduler.class) {
@@ -62,7 +61,10 @@ public class DefaultIOScheduler implements IOScheduler, Runnable {
 
     @Override
     public synchronized void start() throws IOException {
-        if (selector == null) selector = Selector.open();
+        if (selector == null) {
+            selector = Selector.open();
+            timers = new TimerWheel(selector);
+        }
         if (executor == null) executor = Executors.newWorkStealingPool();
         if (daemon == null) daemon = new Thread(this);
         daemon.setDaemon(true);
@@ -79,6 +81,25 @@ public class DefaultIOScheduler implements IOScheduler, Runnable {
         selector = null;
     }
 
+    @Override
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Register the given selectable channel, the io of the registration is performed by the thread pool once the channel is ready,
+     * except that the io with an inline callback is performed in the selector thread
+     *
+     * @param channel the channel to be registered
+     * @return the registration of the channel
+     * @throws ClosedChannelException if the channel is closed
+     */
+    @Override
+    public Registration register(SelectableChannel channel) throws ClosedChannelException {
+        if (!running) throw new IllegalStateException();
+        return SelectorRegistration.of(channel, selector, daemon, executor, timers);
+    }
+
     /**
      * Read data from the given channel and put to the given buffer, call the callback once io finish (at least one byte read or io fail)
      * <p>Especially, if the given channel is a selectable channel, a selector is used to wait until the channel is ready</p>
@@ -93,7 +114,7 @@ public class DefaultIOScheduler implements IOScheduler, Runnable {
         if (!running) throw new IllegalStateException();
         if (channel instanceof SelectableChannel) {
             try {
-                ((SelectableChannel) channel).register(selector, SelectionKey.OP_READ, new Attachment(buffer, callback));
+                register((SelectableChannel) channel).read(buffer, callback);
             } catch (ClosedChannelException e) {
                 callback.callback(channel, buffer, 0, e);
             }
@@ -114,34 +135,41 @@ public class DefaultIOScheduler implements IOScheduler, Runnable {
         if (!running) throw new IllegalStateException();
         if (channel instanceof SelectableChannel) {
             try {
-                ((SelectableChannel) channel).register(selector, SelectionKey.OP_WRITE, new Attachment(buffer, callback));
+                register((SelectableChannel) channel).write(buffer, callback);
             } catch (ClosedChannelException e) {
                 callback.callback(channel, buffer, 0, e);
             }
         } else executor.execute(() -> doWrite(channel, buffer, callback));
     }
 
+    /**
+     * Transfer data from the given channel to the given file directly, call the callback once io finish (at least one byte transferred or io fail)
+     * <p>Especially, if the given channel is a selectable channel, a selector is used to wait until the channel is ready</p>
+     * If the given channel is a selectable channel, it should be previously configured to non-blocking by the specific Task.
+     *
+     * @param channel  the source channel
+     * @param target   the destination file
+     * @param position the position of the file where the transfer starts
+     * @param count    the maximum count of bytes to be transferred
+     * @param callback io callback
+     */
+    @Override
+    public void transfer(ReadableByteChannel channel, FileChannel target, long position, long count, IOCallback callback) {
+        if (!running) throw new IllegalStateException();
+        if (channel instanceof SelectableChannel) {
+            try {
+                register((SelectableChannel) channel).transfer(target, position, count, callback);
+            } catch (ClosedChannelException e) {
+                callback.callback(channel, null, 0, e);
+            }
+        } else executor.execute(() -> BlockingIO.transfer(channel, target, position, count, callback));
+    }
+
     private void doRead(ReadableByteChannel channel, ByteBuffer buffer, IOCallback callback) {
-        int size = 0;
-        Exception exception = null;
-        try {
-            size = channel.read(buffer);
-        } catch (IOException e) {
-            exception = e;
-        } finally {
-            callback.callback(channel, buffer, size, exception);
-        }
+        BlockingIO.read(channel, buffer, callback);
     }
 
     private void doWrite(WritableByteChannel channel, ByteBuffer buffer, IOCallback callback) {
-        int size = 0;
-        Exception exception = null;
-        try {
-            size = channel.write(buffer);
-        } catch (IOException e) {
-            exception = e;
-        } finally {
-            callback.callback(channel, buffer, size, exception);
-        }
+        BlockingIO.write(channel, buffer, callback);
     }
 }
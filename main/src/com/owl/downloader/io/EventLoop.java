@@ -0,0 +1,148 @@
+package com.owl.downloader.io;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Event loop owns a selector and a thread, channels served by an event loop are pinned to it for their whole life
+ * <p>Selection happens in the loop thread only, other threads may submit tasks which are executed by the loop thread</p>
+ * Inline callbacks and their io are completed in the loop thread, other callbacks and transfers to files may block,
+ * so they are handed to the executor of the loop, which never stalls the other channels of the loop.
+ * Delayed tasks are kept by a timer wheel, the selection never waits longer than the nearest timeout.
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+final class EventLoop implements Runnable {
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final TimerWheel timers;
+    private final Executor executor;
+
+    EventLoop(String name, Executor executor) throws IOException {
+        this.executor = executor;
+        this.selector = Selector.open();
+        this.timers = new TimerWheel(selector);
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    long timeout = timers.nextTimeout();
+                    if (timeout < 0) selector.selectNow();
+                    else selector.select(timeout);
+                    processSelectedKeys();
+                    runTasks();
+                    timers.runExpired();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Start the loop thread
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stop the loop thread, pending operations are failed with AsynchronousCloseException
+     */
+    void stop() {
+        thread.interrupt();
+        selector.wakeup();
+        if (inEventLoop()) return;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Check whether the current thread is the loop thread
+     *
+     * @return true if called in the loop thread
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Execute the given task in the loop thread, the task is executed immediately if called in the loop thread
+     *
+     * @param task the task to be executed
+     */
+    void execute(Runnable task) {
+        if (inEventLoop()) task.run();
+        else {
+            tasks.offer(task);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Get the registration of the given channel, the channel is registered to this event loop if not yet
+     * <p>The io with an inline callback is performed in the loop thread as well as the callback, the other io is performed by the executor</p>
+     *
+     * @param channel the channel to be registered, should be non-blocking
+     * @return the registration of the channel
+     * @throws ClosedChannelException if the channel is closed
+     */
+    Registration register(SelectableChannel channel) throws ClosedChannelException {
+        return SelectorRegistration.of(channel, selector, thread, executor, timers);
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            SelectorRegistration registration = (SelectorRegistration) key.attachment();
+            try {
+                registration.ready(key.readyOps());
+            } catch (CancelledKeyException e) {
+                registration.fail(new ClosedChannelException());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Fail all the pending operations and release the selector, called by the loop thread once it exits
+    private void close() {
+        try {
+            for (SelectionKey key : selector.keys())
+                ((SelectorRegistration) key.attachment()).fail(new AsynchronousCloseException());
+            selector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            e.printStackTrace();
+        }
+        runTasks();
+    }
+}
@@ -0,0 +1,128 @@
+package com.owl.downloader.io;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection which races the addresses of a host, as happy eyeballs (RFC 8305) describes
+ * <p>The first address is tried at once, the next one is tried once the attempt before fails or does not finish within the delay,
+ * so an address which does not respond costs the delay instead of the whole connect timeout.
+ * The first socket connected wins, the others are closed.</p>
+ * The connects are driven by the IOScheduler, the delays by the default delayed executor, no thread waits for the connects.
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+public final class HappyEyeballs {
+    private final IOScheduler scheduler;
+    private final List<? extends SocketAddress> addresses;
+    private final long delay;
+    private final long timeout;
+    private final TimeUnit unit;
+    private final IOCallback callback;
+    private final List<SocketChannel> attempts = new ArrayList<>();
+    private int next = 0;
+    private int pending = 0;
+    private boolean finished = false;
+
+    private HappyEyeballs(IOScheduler scheduler, List<? extends SocketAddress> addresses, long delay, long timeout, TimeUnit unit, IOCallback callback) {
+        this.scheduler = scheduler;
+        this.addresses = addresses;
+        this.delay = delay;
+        this.timeout = timeout;
+        this.unit = unit;
+        this.callback = callback;
+    }
+
+    /**
+     * Connect to one of the given addresses
+     * <p>The callback is called with the socket connected, which is non-blocking and registered to the scheduler,
+     * or with the exception of the last attempt if all the attempts fail</p>
+     *
+     * @param scheduler the scheduler which drives the connects
+     * @param addresses the addresses in the order to try, not empty
+     * @param delay     the delay before the next address is tried
+     * @param timeout   the timeout of each attempt, 0 means no timeout
+     * @param unit      the unit of the delay and the timeout
+     * @param callback  the callback called once connected or all failed
+     * @throws IllegalArgumentException if no address is given or the delay is negative
+     */
+    public static void connect(IOScheduler scheduler, List<? extends SocketAddress> addresses, long delay, long timeout, TimeUnit unit, IOCallback callback) {
+        Objects.requireNonNull(scheduler);
+        Objects.requireNonNull(unit);
+        Objects.requireNonNull(callback);
+        if (addresses.isEmpty()) throw new IllegalArgumentException("no address to connect");
+        if (delay < 0) throw new IllegalArgumentException("the delay should not be negative");
+        new HappyEyeballs(scheduler, List.copyOf(addresses), delay, timeout, unit, callback).attempt();
+    }
+
+    // Start the next attempt, and arm the delay of the one after
+    private void attempt() {
+        SocketChannel socketChannel;
+        SocketAddress address;
+        synchronized (this) {
+            if (finished || next == addresses.size()) return;
+            address = addresses.get(next++);
+            try {
+                socketChannel = SocketChannel.open();
+                socketChannel.configureBlocking(false);
+            } catch (IOException e) {
+                fail(null, e);
+                return;
+            }
+            attempts.add(socketChannel);
+            ++pending;
+            if (next < addresses.size()) CompletableFuture.delayedExecutor(delay, unit).execute(this::attempt);
+        }
+        scheduler.connect(socketChannel, address, timeout, unit, (channel, buffer, size, exception) -> {
+            if (exception == null) succeed(socketChannel);
+            else fail(socketChannel, exception);
+        });
+    }
+
+    private void succeed(SocketChannel socketChannel) {
+        List<SocketChannel> losers = new ArrayList<>();
+        synchronized (this) {
+            if (finished) {
+                losers.add(socketChannel);
+            } else {
+                finished = true;
+                for (SocketChannel attempt : attempts) if (attempt != socketChannel) losers.add(attempt);
+            }
+            attempts.clear();
+        }
+        losers.forEach(HappyEyeballs::close);
+        if (!losers.contains(socketChannel)) callback.callback(socketChannel, null, 0, null);
+    }
+
+    // A failed attempt starts the next one at once, the last failure is reported once nothing is left
+    private void fail(SocketChannel socketChannel, Exception exception) {
+        boolean last;
+        synchronized (this) {
+            if (socketChannel != null) {
+                attempts.remove(socketChannel);
+                --pending;
+            }
+            if (finished) return;
+            last = pending == 0 && next == addresses.size();
+            if (last) finished = true;
+        }
+        if (socketChannel != null) close(socketChannel);
+        if (last) callback.callback(socketChannel, null, 0, exception);
+        else attempt();
+    }
+
+    private static void close(SocketChannel socketChannel) {
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
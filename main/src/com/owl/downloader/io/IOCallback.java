@@ -2,6 +2,7 @@ package com.owl.downloader.io;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
+import java.util.Objects;
 
 /**
  * Callback used when io finish, usually called in io thread, block operations is not suggested
@@ -20,4 +21,39 @@ public interface IOCallback {
      * @param exception any exception during the io if exist
      */
     void callback(Channel channel, ByteBuffer buffer, int size, Exception exception);
+
+    /**
+     * Check whether the callback is short and never blocks, so that it can be called in the selector thread
+     * <p>A scheduler performing the io in a thread pool performs the io and calls an inline callback in the selector thread directly,
+     * which saves a thread hop for small reads and writes, transfers to file are never performed inline since the file io may block</p>
+     *
+     * @return true if the callback can be called inline, false by default
+     */
+    default boolean isInline() {
+        return false;
+    }
+
+    /**
+     * Wrap the given callback as an inline callback
+     *
+     * @param callback the callback which is short and never blocks
+     * @return the inline callback
+     * @throws NullPointerException if the given callback is null
+     * @see IOCallback#isInline()
+     */
+    static IOCallback inline(IOCallback callback) {
+        Objects.requireNonNull(callback);
+        if (callback.isInline()) return callback;
+        return new IOCallback() {
+            @Override
+            public void callback(Channel channel, ByteBuffer buffer, int size, Exception exception) {
+                callback.callback(channel, buffer, size, exception);
+            }
+
+            @Override
+            public boolean isInline() {
+                return true;
+            }
+        };
+    }
 }
@@ -2,9 +2,11 @@ package com.owl.downloader.io;
 
 import javax.net.ssl.SSLException;
 import java.io.IOException;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
+import java.nio.channels.*;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Singleton class, used to manage io
@@ -21,7 +23,19 @@ public interface IOScheduler {
      * @return the unique IOScheduler
      */
     static IOScheduler getInstance() {
-        return DefaultIOScheduler.getInstance();
+        return IOSchedulerHolder.get();
+    }
+
+    /**
+     * Replace the unique IOScheduler, the DefaultIOScheduler is used if not set
+     * <p>The replacement should be done before the scheduler is started, the previous scheduler is not stopped automatically</p>
+     *
+     * @param scheduler the IOScheduler to be used
+     * @throws NullPointerException if the given scheduler is null
+     */
+    static void setInstance(IOScheduler scheduler) {
+        Objects.requireNonNull(scheduler);
+        IOSchedulerHolder.set(scheduler);
     }
 
     /**
@@ -34,6 +48,62 @@ public interface IOScheduler {
      */
     void stop() throws IOException;
 
+    /**
+     * Get the pool of direct buffers owned by this scheduler, buffers used for io should be leased from it
+     *
+     * @return the buffer pool
+     */
+    BufferPool getBufferPool();
+
+    /**
+     * Register the given selectable channel, the channel is registered only once, later calls return the same registration
+     * <p>The returned registration is used to arm read/write operations without registering the channel again</p>
+     * The given channel should be previously configured to non-blocking by the specific Task.
+     *
+     * @param channel the channel to be registered
+     * @return the registration of the channel
+     * @throws ClosedChannelException if the channel is closed
+     * @throws IllegalStateException  if the scheduler is not started
+     */
+    Registration register(SelectableChannel channel) throws ClosedChannelException;
+
+    /**
+     * Connect the given socket channel to the given address, call the callback once connected or failed
+     * <p>The channel is registered and the connection is established through the connect readiness, so many connections can be
+     * established concurrently without any thread waiting for them</p>
+     * The given channel should be previously configured to non-blocking by the specific Task.
+     *
+     * @param channel  the socket channel not connected yet
+     * @param address  the remote address
+     * @param timeout  the connect timeout, not positive means no timeout
+     * @param unit     the unit of the timeout
+     * @param callback called once connected or failed, with SocketTimeoutException if not connected in time
+     * @throws IllegalStateException if the scheduler is not started
+     * @see Registration#connect(SocketAddress, long, TimeUnit, IOCallback)
+     */
+    default void connect(SocketChannel channel, SocketAddress address, long timeout, TimeUnit unit, IOCallback callback) {
+        Registration registration;
+        try {
+            registration = register(channel);
+        } catch (ClosedChannelException e) {
+            callback.callback(channel, null, 0, e);
+            return;
+        }
+        registration.connect(address, timeout, unit, callback);
+    }
+
+    /**
+     * Connect the given socket channel to the given address without timeout, call the callback once connected or failed
+     *
+     * @param channel  the socket channel not connected yet
+     * @param address  the remote address
+     * @param callback called once connected or failed
+     * @throws IllegalStateException if the scheduler is not started
+     */
+    default void connect(SocketChannel channel, SocketAddress address, IOCallback callback) {
+        connect(channel, address, 0, TimeUnit.MILLISECONDS, callback);
+    }
+
     /**
      * Read data from the given channel and put to the given buffer, call the callback once io finish (at least one byte read or io fail)
      * <p>Especially, if the given channel is a selectable channel, a selector is used to wait until the channel is ready</p>
@@ -55,8 +125,18 @@ public interface IOScheduler {
      * @param callback io callback
      */
     void write(WritableByteChannel channel, ByteBuffer buffer, IOCallback callback);
-}
-
-
-
 
+    /**
+     * Transfer data from the given channel to the given file directly, call the callback once io finish (at least one byte transferred or io fail)
+     * <p>The data is transferred by FileChannel.transferFrom, there is no user space buffer and no separate write operation,
+     * the buffer passed to the callback is null, the size passed to the callback is -1 once the end of stream is reached</p>
+     * If the given channel is a selectable channel, it should be previously configured to non-blocking by the specific Task.
+     *
+     * @param channel  the source channel
+     * @param target   the destination file
+     * @param position the position of the file where the transfer starts
+     * @param count    the maximum count of bytes to be transferred
+     * @param callback io callback
+     */
+    void transfer(ReadableByteChannel channel, FileChannel target, long position, long count, IOCallback callback);
+}
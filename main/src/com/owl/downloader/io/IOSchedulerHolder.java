@@ -0,0 +1,23 @@
+package com.owl.downloader.io;
+
+/**
+ * Hold the unique IOScheduler used by the whole application
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+final class IOSchedulerHolder {
+    private static volatile IOScheduler instance = null;
+
+    private IOSchedulerHolder() {
+    }
+
+    static IOScheduler get() {
+        IOScheduler scheduler = instance;
+        return scheduler == null ? DefaultIOScheduler.getInstance() : scheduler;
+    }
+
+    static void set(IOScheduler scheduler) {
+        instance = scheduler;
+    }
+}
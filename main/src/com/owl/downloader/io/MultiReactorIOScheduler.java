@@ -0,0 +1,130 @@
+package com.owl.downloader.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * IOScheduler with several event loops, each event loop owns a selector and a thread
+ * <p>Selectable channels are sharded across the event loops and pinned to one of them for their whole life,
+ * the io with an inline callback is executed in the event loop thread together with the callback, so there is no executor hop for it</p>
+ * Other callbacks may block (such as writing the data read to a file), so their io and callbacks are handed to a shared thread pool,
+ * as well as transfers to files and the io of non-selectable channels, a slow disk never stalls the sockets of an event loop.
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+public class MultiReactorIOScheduler implements IOScheduler {
+    private final int eventLoopCount;
+    private EventLoop[] eventLoops = null;
+    private ExecutorService executor = null;
+    private volatile boolean running = false;
+    private final BufferPool bufferPool = new BufferPool();
+
+    /**
+     * Construct a scheduler with one event loop per available processor
+     */
+    public MultiReactorIOScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct a scheduler with the given count of event loops
+     *
+     * @param eventLoopCount the count of event loops
+     * @throws IllegalArgumentException if the event loop count is not positive
+     */
+    public MultiReactorIOScheduler(int eventLoopCount) {
+        if (eventLoopCount <= 0) throw new IllegalArgumentException("the count of event loops should be positive");
+        this.eventLoopCount = eventLoopCount;
+    }
+
+    /**
+     * Get the count of event loops
+     *
+     * @return the count of event loops
+     */
+    public int getEventLoopCount() {
+        return eventLoopCount;
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        if (running) return;
+        ExecutorService executor = Executors.newWorkStealingPool();
+        EventLoop[] eventLoops = new EventLoop[eventLoopCount];
+        for (int i = 0; i < eventLoopCount; ++i) eventLoops[i] = new EventLoop("owl-event-loop-" + i, executor);
+        for (EventLoop eventLoop : eventLoops) eventLoop.start();
+        this.eventLoops = eventLoops;
+        this.executor = executor;
+        running = true;
+    }
+
+    @Override
+    public synchronized void stop() throws IOException {
+        running = false;
+        if (eventLoops != null) for (EventLoop eventLoop : eventLoops) eventLoop.stop();
+        eventLoops = null;
+        if (executor != null) executor.shutdown();
+        executor = null;
+    }
+
+    @Override
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    @Override
+    public Registration register(SelectableChannel channel) throws ClosedChannelException {
+        if (!running) throw new IllegalStateException();
+        return eventLoopOf(channel).register(channel);
+    }
+
+    @Override
+    public void read(ReadableByteChannel channel, ByteBuffer buffer, IOCallback callback) {
+        if (!running) throw new IllegalStateException();
+        if (channel instanceof SelectableChannel) {
+            try {
+                register((SelectableChannel) channel).read(buffer, callback);
+            } catch (ClosedChannelException e) {
+                callback.callback(channel, buffer, 0, e);
+            }
+        } else executor.execute(() -> BlockingIO.read(channel, buffer, callback));
+    }
+
+    @Override
+    public void write(WritableByteChannel channel, ByteBuffer buffer, IOCallback callback) {
+        if (!running) throw new IllegalStateException();
+        if (channel instanceof SelectableChannel) {
+            try {
+                register((SelectableChannel) channel).write(buffer, callback);
+            } catch (ClosedChannelException e) {
+                callback.callback(channel, buffer, 0, e);
+            }
+        } else executor.execute(() -> BlockingIO.write(channel, buffer, callback));
+    }
+
+    @Override
+    public void transfer(ReadableByteChannel channel, FileChannel target, long position, long count, IOCallback callback) {
+        if (!running) throw new IllegalStateException();
+        if (channel instanceof SelectableChannel) {
+            try {
+                register((SelectableChannel) channel).transfer(target, position, count, callback);
+            } catch (ClosedChannelException e) {
+                callback.callback(channel, null, 0, e);
+            }
+        } else executor.execute(() -> BlockingIO.transfer(channel, target, position, count, callback));
+    }
+
+    // The identity hash code never changes, so the channel is always served by the same event loop
+    private EventLoop eventLoopOf(SelectableChannel channel) {
+        EventLoop[] eventLoops = this.eventLoops;
+        return eventLoops[Math.floorMod(System.identityHashCode(channel), eventLoops.length)];
+    }
+}
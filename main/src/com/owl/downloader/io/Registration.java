@@ -0,0 +1,164 @@
+package com.owl.downloader.io;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectableChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle of a selectable channel registered to an IOScheduler
+ * <p>A channel is registered only once, each read/write then simply arms the interest of the operation,
+ * the interest is dropped as soon as the channel is ready, so every operation is called back exactly once</p>
+ * At most one read and one write can be pending at the same time.
+ * An operation may have a timeout, an operation not finished in time is called back with SocketTimeoutException,
+ * so a connect/first byte/idle timeout is simply the timeout of the related operation.
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ * @see IOScheduler#register(SelectableChannel)
+ */
+public interface Registration {
+    /**
+     * Get the registered channel
+     *
+     * @return the registered channel
+     */
+    SelectableChannel channel();
+
+    /**
+     * Read data from the channel once it is readable and put to the given buffer, call the callback once io finish (at least one byte read or io fail)
+     * <p>The callback is called with ReadPendingException if there is a pending read already</p>
+     *
+     * @param buffer   the destination data buffer
+     * @param callback io callback
+     */
+    default void read(ByteBuffer buffer, IOCallback callback) {
+        read(buffer, 0, TimeUnit.MILLISECONDS, callback);
+    }
+
+    /**
+     * Read data from the channel like read(buffer, callback), the read is called back with SocketTimeoutException if the channel is not readable in time
+     *
+     * @param buffer   the destination data buffer
+     * @param timeout  the timeout, not positive means no timeout
+     * @param unit     the unit of the timeout
+     * @param callback io callback
+     * @see Registration#read(ByteBuffer, IOCallback)
+     */
+    void read(ByteBuffer buffer, long timeout, TimeUnit unit, IOCallback callback);
+
+    /**
+     * Transfer data from the channel to the given file once the channel is readable, call the callback once io finish (at least one byte transferred or io fail)
+     * <p>The data is transferred by FileChannel.transferFrom without passing through user space buffers, the buffer passed to the callback is null,
+     * the size passed to the callback is -1 once the end of stream is reached</p>
+     * A transfer is a read operation, so it cannot be pending together with another read.
+     *
+     * @param target   the destination file
+     * @param position the position of the file where the transfer starts
+     * @param count    the maximum count of bytes to be transferred
+     * @param callback io callback
+     */
+    default void transfer(FileChannel target, long position, long count, IOCallback callback) {
+        transfer(target, position, count, 0, TimeUnit.MILLISECONDS, callback);
+    }
+
+    /**
+     * Transfer data from the channel like transfer(target, position, count, callback), the transfer is called back with SocketTimeoutException if the channel is not readable in time
+     *
+     * @param target   the destination file
+     * @param position the position of the file where the transfer starts
+     * @param count    the maximum count of bytes to be transferred
+     * @param timeout  the timeout, not positive means no timeout
+     * @param unit     the unit of the timeout
+     * @param callback io callback
+     * @see Registration#transfer(FileChannel, long, long, IOCallback)
+     */
+    void transfer(FileChannel target, long position, long count, long timeout, TimeUnit unit, IOCallback callback);
+
+    /**
+     * Write data from the given buffer to the channel once it is writable, call the callback once io finish (at least one byte write or io fail)
+     * <p>The callback is called with WritePendingException if there is a pending write already</p>
+     *
+     * @param buffer   the source data buffer
+     * @param callback io callback
+     */
+    default void write(ByteBuffer buffer, IOCallback callback) {
+        write(buffer, 0, TimeUnit.MILLISECONDS, callback);
+    }
+
+    /**
+     * Write data to the channel like write(buffer, callback), the write is called back with SocketTimeoutException if the channel is not writable in time
+     *
+     * @param buffer   the source data buffer
+     * @param timeout  the timeout, not positive means no timeout
+     * @param unit     the unit of the timeout
+     * @param callback io callback
+     * @see Registration#write(ByteBuffer, IOCallback)
+     */
+    void write(ByteBuffer buffer, long timeout, TimeUnit unit, IOCallback callback);
+
+    /**
+     * Connect the channel, which should be a socket channel not connected yet, to the given address once the connection is established
+     * <p>The connection is established through the connect readiness of the channel, no thread waits for it,
+     * the buffer passed to the callback is null</p>
+     * A connect cannot be pending together with another connect.
+     *
+     * @param address  the remote address
+     * @param callback called once connected or failed
+     */
+    default void connect(SocketAddress address, IOCallback callback) {
+        connect(address, 0, TimeUnit.MILLISECONDS, callback);
+    }
+
+    /**
+     * Connect the channel like connect(address, callback), the connect is called back with SocketTimeoutException if not established in time
+     * <p>The channel is not closed once timed out, the owner should close it</p>
+     *
+     * @param address  the remote address
+     * @param timeout  the timeout, not positive means no timeout
+     * @param unit     the unit of the timeout
+     * @param callback called once connected or failed
+     * @see Registration#connect(SocketAddress, IOCallback)
+     */
+    void connect(SocketAddress address, long timeout, TimeUnit unit, IOCallback callback);
+
+    /**
+     * Get the token bucket which limits the reads of the channel
+     *
+     * @return the token bucket, null if the reads are not limited
+     */
+    TokenBucket getRateLimiter();
+
+    /**
+     * Set the token bucket which limits the reads (and transfers) of the channel, the change takes effect from the next read
+     * <p>A read never takes more bytes than the tokens granted, the read interest is suspended until tokens are available again
+     * if the bucket is empty, no thread waits for the tokens</p>
+     *
+     * @param rateLimiter the token bucket, null if the reads are not limited
+     */
+    void setRateLimiter(TokenBucket rateLimiter);
+
+    /**
+     * Get the byte budget which bounds the bytes read from the channel but not persisted yet
+     *
+     * @return the byte budget, null if the reads are not bounded
+     */
+    ByteBudget getBudget();
+
+    /**
+     * Set the byte budget which bounds the bytes read from the channel but not persisted yet, the change takes effect from the next read
+     * <p>A read never takes more bytes than the budget granted, the bytes read should be released to the budget by the owner once persisted,
+     * the read interest is paused until some bytes are released if the budget is used up.
+     * Transfers persist the data by themselves, so they are not bounded by the budget</p>
+     *
+     * @param budget the byte budget, null if the reads are not bounded
+     */
+    void setBudget(ByteBudget budget);
+
+    /**
+     * Cancel the registration, pending operations are called back with AsynchronousCloseException
+     * <p>The channel itself is not closed, closing the channel cancels the registration as well</p>
+     */
+    void cancel();
+}
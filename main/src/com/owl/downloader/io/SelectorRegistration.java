@@ -0,0 +1,497 @@
+package com.owl.downloader.io;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registration based on a selector, the selection key is created once and attached with this registration
+ * <p>Arming an operation only toggles the interest of the key, the selector thread drops the interest and dispatches the operation once the channel is ready</p>
+ * If the reads are rate limited and no token is available, the read interest is armed again by a timer of the selector thread.
+ * Timeouts are timers of the selector thread as well, a read timeout only counts while the read interest is armed.
+ * A connect is finished by the selector thread once the channel is connectable, then its callback is completed like other operations.
+ * Inline callbacks are completed in the selector thread even if there is an executor.
+ * If the byte budget of the reads is used up, the read interest is armed again once some bytes are released.
+ * The pending operations are begun and taken under the lock of the registration, so concurrent arms never both pass.
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+final class SelectorRegistration implements Registration {
+    private final SelectableChannel channel;
+    private final Thread selectorThread;
+    private final Executor executor;
+    private final TimerWheel timers;
+    private SelectionKey key;
+    private volatile TokenBucket rateLimiter = null;
+    private volatile ByteBudget budget = null;
+    private ByteBuffer readBuffer = null;
+    private IOCallback readCallback = null;
+    private FileChannel transferTarget = null;
+    private long transferPosition = 0;
+    private long transferCount = 0;
+    private long readTimeoutNanos = 0;
+    private long readSequence = 0;
+    private volatile TimerWheel.Timeout readTimeout = null;
+    private volatile boolean reading = false;
+    private ByteBuffer writeBuffer = null;
+    private IOCallback writeCallback = null;
+    private long writeSequence = 0;
+    private volatile TimerWheel.Timeout writeTimeout = null;
+    private volatile boolean writing = false;
+    private IOCallback connectCallback = null;
+    private long connectSequence = 0;
+    private volatile TimerWheel.Timeout connectTimeout = null;
+    private volatile boolean connecting = false;
+
+    private SelectorRegistration(SelectableChannel channel, Thread selectorThread, Executor executor, TimerWheel timers) {
+        this.channel = channel;
+        this.selectorThread = selectorThread;
+        this.executor = executor;
+        this.timers = timers;
+    }
+
+    /**
+     * Get the registration of the given channel, the channel is registered if not yet
+     *
+     * @param channel        the channel to be registered, should be non-blocking
+     * @param selector       the selector
+     * @param selectorThread the thread which selects the selector
+     * @param executor       where to perform the io once ready, null means performing in the selector thread
+     * @param timers         the timers of the selector thread
+     * @return the registration of the channel
+     * @throws ClosedChannelException if the channel is closed
+     */
+    static SelectorRegistration of(SelectableChannel channel, Selector selector, Thread selectorThread, Executor executor, TimerWheel timers) throws ClosedChannelException {
+        synchronized (channel.blockingLock()) {
+            SelectionKey key = channel.keyFor(selector);
+            if (key != null && key.isValid()) return (SelectorRegistration) key.attachment();
+            SelectorRegistration registration = new SelectorRegistration(channel, selectorThread, executor, timers);
+            registration.key = channel.register(selector, 0, registration);
+            return registration;
+        }
+    }
+
+    @Override
+    public SelectableChannel channel() {
+        return channel;
+    }
+
+    @Override
+    public void read(ByteBuffer buffer, long timeout, TimeUnit unit, IOCallback callback) {
+        if (!beginRead(buffer, null, 0, 0, unit.toNanos(timeout), callback)) {
+            callback.callback(channel, buffer, 0, new ReadPendingException());
+            return;
+        }
+        armRead();
+    }
+
+    @Override
+    public void transfer(FileChannel target, long position, long count, long timeout, TimeUnit unit, IOCallback callback) {
+        if (!beginRead(null, target, position, count, unit.toNanos(timeout), callback)) {
+            callback.callback(channel, null, 0, new ReadPendingException());
+            return;
+        }
+        armRead();
+    }
+
+    @Override
+    public void write(ByteBuffer buffer, long timeout, TimeUnit unit, IOCallback callback) {
+        long sequence = beginWrite(buffer, callback);
+        if (sequence == 0) {
+            callback.callback(channel, buffer, 0, new WritePendingException());
+            return;
+        }
+        if (timeout > 0) writeTimeout = timers.schedule(() -> expireWrite(sequence), unit.toNanos(timeout));
+        arm(SelectionKey.OP_WRITE);
+    }
+
+    @Override
+    public void connect(SocketAddress address, long timeout, TimeUnit unit, IOCallback callback) {
+        if (connecting) {
+            callback.callback(channel, null, 0, new ConnectionPendingException());
+            return;
+        }
+        try {
+            // A loopback connection may be established at once
+            if (((SocketChannel) channel).connect(address)) {
+                complete(() -> callback.callback(channel, null, 0, null), callback.isInline());
+                return;
+            }
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            callback.callback(channel, null, 0, e);
+            return;
+        }
+        long sequence = beginConnect(callback);
+        if (sequence == 0) {
+            callback.callback(channel, null, 0, new ConnectionPendingException());
+            return;
+        }
+        if (timeout > 0) connectTimeout = timers.schedule(() -> expireConnect(sequence), unit.toNanos(timeout));
+        arm(SelectionKey.OP_CONNECT);
+    }
+
+    @Override
+    public TokenBucket getRateLimiter() {
+        return rateLimiter;
+    }
+
+    @Override
+    public void setRateLimiter(TokenBucket rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public ByteBudget getBudget() {
+        return budget;
+    }
+
+    @Override
+    public void setBudget(ByteBudget budget) {
+        this.budget = budget;
+    }
+
+    @Override
+    public void cancel() {
+        key.cancel();
+        fail(new AsynchronousCloseException());
+    }
+
+    // The read is begun only if no read is pending, the check and the begin are atomic
+    private synchronized boolean beginRead(ByteBuffer buffer, FileChannel target, long position, long count, long timeoutNanos, IOCallback callback) {
+        if (reading) return false;
+        readBuffer = buffer;
+        transferTarget = target;
+        transferPosition = position;
+        transferCount = count;
+        readCallback = callback;
+        readTimeoutNanos = timeoutNanos;
+        ++readSequence;
+        reading = true;
+        return true;
+    }
+
+    // The sequence of the write begun, 0 if a write is pending
+    private synchronized long beginWrite(ByteBuffer buffer, IOCallback callback) {
+        if (writing) return 0;
+        writeBuffer = buffer;
+        writeCallback = callback;
+        writing = true;
+        return ++writeSequence;
+    }
+
+    private synchronized long beginConnect(IOCallback callback) {
+        if (connecting) return 0;
+        connectCallback = callback;
+        connecting = true;
+        return ++connectSequence;
+    }
+
+    private void arm(int interest) {
+        try {
+            key.interestOpsOr(interest);
+        } catch (CancelledKeyException e) {
+            fail(new ClosedChannelException());
+            return;
+        }
+        if (Thread.currentThread() != selectorThread) key.selector().wakeup();
+    }
+
+    // The read interest is not armed until the budget and the tokens are available, so a paused read never wakes up the selector
+    private void armRead() {
+        if (!reading) return;
+        ByteBudget budget = this.budget;
+        if (budget != null && transferTarget == null && !budget.isAvailable()) {
+            // The timeout restarts once the interest is armed again, waiting for the disk is not a stall
+            cancelTimeout(readTimeout);
+            readTimeout = null;
+            budget.whenAvailable(this::armRead);
+            return;
+        }
+        TokenBucket rateLimiter = this.rateLimiter;
+        long delay = rateLimiter == null ? 0 : rateLimiter.delay();
+        if (delay > 0) {
+            // Waiting for tokens is not a stall either
+            cancelTimeout(readTimeout);
+            readTimeout = null;
+            timers.schedule(this::armRead, delay);
+            return;
+        }
+        if (readTimeoutNanos > 0 && readTimeout == null) {
+            long sequence = readSequence;
+            readTimeout = timers.schedule(() -> expireRead(sequence), readTimeoutNanos);
+        }
+        arm(SelectionKey.OP_READ);
+    }
+
+    // Called by the selector thread, the read is still pending only if the sequence is not changed
+    private void expireRead(long sequence) {
+        ByteBuffer buffer;
+        IOCallback callback;
+        synchronized (this) {
+            if (!reading || readSequence != sequence) return;
+            dropInterest(SelectionKey.OP_READ);
+            buffer = readBuffer;
+            callback = readCallback;
+            readBuffer = null;
+            readCallback = null;
+            transferTarget = null;
+            readTimeout = null;
+            reading = false;
+        }
+        complete(() -> callback.callback(channel, buffer, 0, new SocketTimeoutException("read timed out")), callback.isInline());
+    }
+
+    private void expireWrite(long sequence) {
+        ByteBuffer buffer;
+        IOCallback callback;
+        synchronized (this) {
+            if (!writing || writeSequence != sequence) return;
+            dropInterest(SelectionKey.OP_WRITE);
+            buffer = writeBuffer;
+            callback = writeCallback;
+            writeBuffer = null;
+            writeCallback = null;
+            writeTimeout = null;
+            writing = false;
+        }
+        complete(() -> callback.callback(channel, buffer, 0, new SocketTimeoutException("write timed out")), callback.isInline());
+    }
+
+    private void expireConnect(long sequence) {
+        IOCallback callback;
+        synchronized (this) {
+            if (!connecting || connectSequence != sequence) return;
+            dropInterest(SelectionKey.OP_CONNECT);
+            callback = connectCallback;
+            connectCallback = null;
+            connectTimeout = null;
+            connecting = false;
+        }
+        complete(() -> callback.callback(channel, null, 0, new SocketTimeoutException("connect timed out")), callback.isInline());
+    }
+
+    // The interest is dropped before the operation is taken, so an operation begun afterwards arms it again
+    private void dropInterest(int interest) {
+        try {
+            key.interestOpsAnd(~interest);
+        } catch (CancelledKeyException e) {
+            // The operation is failed here anyway
+        }
+    }
+
+    private void complete(Runnable completion, boolean inline) {
+        if (executor == null || inline) completion.run();
+        else executor.execute(completion);
+    }
+
+    private static void cancelTimeout(TimerWheel.Timeout timeout) {
+        if (timeout != null) timeout.cancel();
+    }
+
+    /**
+     * Called by the selector thread when the channel is ready, the interest of ready operations is dropped before dispatch
+     *
+     * @param readyOps the ready operations
+     */
+    void ready(int readyOps) {
+        try {
+            key.interestOpsAnd(~readyOps);
+        } catch (CancelledKeyException e) {
+            fail(new ClosedChannelException());
+            return;
+        }
+        if ((readyOps & SelectionKey.OP_CONNECT) != 0 && connecting) dispatchConnect();
+        if ((readyOps & SelectionKey.OP_READ) != 0 && reading) dispatchRead();
+        if ((readyOps & SelectionKey.OP_WRITE) != 0 && writing) dispatchWrite();
+    }
+
+    // Finishing the connect never blocks, so it is done in the selector thread, the interest is armed again if not finished yet
+    private void dispatchConnect() {
+        Exception exception = null;
+        try {
+            if (!((SocketChannel) channel).finishConnect()) {
+                arm(SelectionKey.OP_CONNECT);
+                return;
+            }
+        } catch (IOException e) {
+            exception = e;
+        }
+        IOCallback callback;
+        synchronized (this) {
+            if (!connecting) return;
+            callback = connectCallback;
+            cancelTimeout(connectTimeout);
+            connectCallback = null;
+            connectTimeout = null;
+            connecting = false;
+        }
+        Exception result = exception;
+        complete(() -> callback.callback(channel, null, 0, result), callback.isInline());
+    }
+
+    // The budget and the tokens are acquired before dispatch, the read takes no more bytes than granted
+    // Transfers persist the data before the callback, so they are not counted by the budget
+    private void dispatchRead() {
+        Runnable completion;
+        boolean inline;
+        synchronized (this) {
+            if (!reading) return;
+            TokenBucket rateLimiter = this.rateLimiter;
+            FileChannel target = transferTarget;
+            ByteBudget budget = target == null ? this.budget : null;
+            long requested = target != null ? transferCount : readBuffer.remaining();
+            long granted = requested;
+            if (budget != null && requested > 0) {
+                granted = budget.acquire(requested);
+                if (granted <= 0) {
+                    armRead();
+                    return;
+                }
+            }
+            if (rateLimiter != null && granted > 0) {
+                long tokens = rateLimiter.acquire(granted);
+                if (budget != null) budget.release(granted - tokens);
+                granted = tokens;
+                if (granted <= 0) {
+                    armRead();
+                    return;
+                }
+            }
+            ByteBuffer buffer = readBuffer;
+            IOCallback callback = readCallback;
+            long position = transferPosition;
+            long count = transferCount;
+            long timeoutNanos = readTimeoutNanos;
+            long limit = granted;
+            cancelTimeout(readTimeout);
+            readBuffer = null;
+            readCallback = null;
+            transferTarget = null;
+            readTimeout = null;
+            reading = false;
+            if (target != null) {
+                completion = () -> doTransfer(target, position, count, limit, timeoutNanos, callback, rateLimiter);
+                inline = false;
+            } else {
+                completion = () -> doRead(buffer, limit, callback, rateLimiter, budget);
+                inline = callback.isInline();
+            }
+        }
+        complete(completion, inline);
+    }
+
+    private void dispatchWrite() {
+        ByteBuffer buffer;
+        IOCallback callback;
+        synchronized (this) {
+            if (!writing) return;
+            buffer = writeBuffer;
+            callback = writeCallback;
+            cancelTimeout(writeTimeout);
+            writeBuffer = null;
+            writeCallback = null;
+            writeTimeout = null;
+            writing = false;
+        }
+        complete(() -> doWrite(buffer, callback), callback.isInline());
+    }
+
+    /**
+     * Fail all the pending operations with the given exception
+     *
+     * @param exception the exception passed to the callbacks
+     */
+    void fail(Exception exception) {
+        IOCallback connectCallback = null;
+        IOCallback readCallback = null;
+        IOCallback writeCallback = null;
+        ByteBuffer readBuffer = null;
+        ByteBuffer writeBuffer = null;
+        synchronized (this) {
+            if (connecting) {
+                connectCallback = this.connectCallback;
+                cancelTimeout(connectTimeout);
+                this.connectCallback = null;
+                connectTimeout = null;
+                connecting = false;
+            }
+            if (reading) {
+                readBuffer = this.readBuffer;
+                readCallback = this.readCallback;
+                cancelTimeout(readTimeout);
+                this.readBuffer = null;
+                this.readCallback = null;
+                transferTarget = null;
+                readTimeout = null;
+                reading = false;
+            }
+            if (writing) {
+                writeBuffer = this.writeBuffer;
+                writeCallback = this.writeCallback;
+                cancelTimeout(writeTimeout);
+                this.writeBuffer = null;
+                this.writeCallback = null;
+                writeTimeout = null;
+                writing = false;
+            }
+        }
+        if (connectCallback != null) connectCallback.callback(channel, null, 0, exception);
+        if (readCallback != null) readCallback.callback(channel, readBuffer, 0, exception);
+        if (writeCallback != null) writeCallback.callback(channel, writeBuffer, 0, exception);
+    }
+
+    // The tokens and the budget granted but not used are given back before the callback, the bytes read are released by the owner once persisted
+    private void doRead(ByteBuffer buffer, long granted, IOCallback callback, TokenBucket rateLimiter, ByteBudget budget) {
+        int size = 0;
+        Exception exception = null;
+        int limit = buffer.limit();
+        try {
+            if (granted < buffer.remaining()) buffer.limit(buffer.position() + (int) granted);
+            size = ((ReadableByteChannel) channel).read(buffer);
+        } catch (IOException e) {
+            exception = e;
+        } finally {
+            buffer.limit(limit);
+            if (rateLimiter != null) rateLimiter.refund(granted - Math.max(size, 0));
+            if (budget != null) budget.release(granted - Math.max(size, 0));
+            callback.callback(channel, buffer, size, exception);
+        }
+    }
+
+    // Nothing transferred is either the end of stream or a readiness with no data, a byte read tells them apart and the transfer is armed again for the latter
+    // The tokens are granted for the count clamped by the budget and the bucket, all not transferred are given back
+    private void doTransfer(FileChannel target, long position, long count, long granted, long timeoutNanos, IOCallback callback, TokenBucket rateLimiter) {
+        int size = 0;
+        Exception exception = null;
+        try {
+            long transferred = target.transferFrom((ReadableByteChannel) channel, position, Math.min(granted, Integer.MAX_VALUE));
+            size = transferred == 0 && granted > 0 ? BlockingIO.transferByte((ReadableByteChannel) channel, target, position) : (int) transferred;
+        } catch (IOException e) {
+            exception = e;
+        } finally {
+            if (rateLimiter != null) rateLimiter.refund(granted - Math.max(size, 0));
+        }
+        if (exception == null && size == 0 && granted > 0) {
+            transfer(target, position, count, timeoutNanos, TimeUnit.NANOSECONDS, callback);
+            return;
+        }
+        callback.callback(channel, null, size, exception);
+    }
+
+    private void doWrite(ByteBuffer buffer, IOCallback callback) {
+        int size = 0;
+        Exception exception = null;
+        try {
+            size = ((WritableByteChannel) channel).write(buffer);
+        } catch (IOException e) {
+            exception = e;
+        } finally {
+            callback.callback(channel, buffer, size, exception);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.owl.downloader.io;
+
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timer wheel driven by a selector thread, scheduling and cancelling a timeout are both O(1)
+ * <p>The wheel has 512 buckets of 1 millisecond, a timeout is put into the bucket of its deadline with the count of remaining rounds,
+ * the selector thread never waits longer than the nearest non-empty bucket and expires the buckets passed once it wakes up</p>
+ * Timeouts can be scheduled and cancelled from any thread, the selector is waken up only if the new deadline is earlier than the planned wakeup.
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+final class TimerWheel {
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int WHEEL_SIZE = 512;
+    private static final int MASK = WHEEL_SIZE - 1;
+    private final Selector selector;
+    private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final long origin = System.nanoTime();
+    private long tick = 0;
+    private int count = 0;
+    private volatile long wakeupTick = Long.MAX_VALUE;
+    private volatile Thread thread = null;
+
+    /**
+     * Construct a wheel driven by the thread which selects the given selector
+     *
+     * @param selector the selector to be waken up once an earlier timeout is scheduled
+     */
+    TimerWheel(Selector selector) {
+        this.selector = selector;
+    }
+
+    /**
+     * Schedule the given task
+     *
+     * @param task       the task to be run in the selector thread
+     * @param delayNanos the delay, in nanoseconds
+     * @return the timeout, which can be cancelled before expired
+     */
+    Timeout schedule(Runnable task, long delayNanos) {
+        long deadline = (System.nanoTime() - origin + Math.max(delayNanos, 0) + TICK - 1) / TICK;
+        Timeout timeout = new Timeout(this, task, deadline);
+        pending.offer(timeout);
+        if (Thread.currentThread() != thread && deadline < wakeupTick) selector.wakeup();
+        return timeout;
+    }
+
+    /**
+     * Get the timeout for the next selection, called by the selector thread before selection
+     *
+     * @return the timeout in milliseconds, 0 if there is no timeout, -1 if some timeouts are already expired
+     */
+    long nextTimeout() {
+        thread = Thread.currentThread();
+        long next;
+        // A timeout scheduled after the wakeup tick is published either sees the new wakeup tick or is seen here
+        do {
+            transfer();
+            next = nextTick();
+            wakeupTick = next;
+        } while (!pending.isEmpty());
+        if (next == Long.MAX_VALUE) return 0;
+        long remaining = next * TICK - (System.nanoTime() - origin);
+        if (remaining <= 0) return -1;
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+    }
+
+    /**
+     * Run the tasks of all the expired timeouts, called by the selector thread after selection
+     */
+    void runExpired() {
+        thread = Thread.currentThread();
+        transfer();
+        long now = (System.nanoTime() - origin) / TICK;
+        while (tick <= now) {
+            if (count == 0) {
+                tick = now + 1;
+                break;
+            }
+            Timeout timeout = wheel[(int) (tick & MASK)];
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.rounds <= 0) {
+                    unlink(timeout);
+                    if (timeout.state.compareAndSet(Timeout.WAITING, Timeout.EXPIRED)) {
+                        try {
+                            timeout.task.run();
+                        } catch (RuntimeException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                } else --timeout.rounds;
+                timeout = next;
+            }
+            ++tick;
+        }
+    }
+
+    // Move the scheduled timeouts into the wheel and drop the cancelled ones, in the selector thread only
+    private void transfer() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) if (timeout.bucket >= 0) unlink(timeout);
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.state.get() != Timeout.WAITING) continue;
+            long target = Math.max(timeout.deadline, tick);
+            timeout.rounds = (target - tick) / WHEEL_SIZE;
+            timeout.bucket = (int) (target & MASK);
+            timeout.next = wheel[timeout.bucket];
+            if (timeout.next != null) timeout.next.previous = timeout;
+            wheel[timeout.bucket] = timeout;
+            ++count;
+        }
+    }
+
+    // The nearest tick whose bucket is not empty, a bucket of later rounds only costs an early wakeup
+    private long nextTick() {
+        if (count == 0) return Long.MAX_VALUE;
+        for (int i = 0; i < WHEEL_SIZE; ++i) if (wheel[(int) ((tick + i) & MASK)] != null) return tick + i;
+        return Long.MAX_VALUE;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.previous != null) timeout.previous.next = timeout.next;
+        else wheel[timeout.bucket] = timeout.next;
+        if (timeout.next != null) timeout.next.previous = timeout.previous;
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        --count;
+    }
+
+    /**
+     * Handle of a scheduled task
+     */
+    static final class Timeout {
+        private static final int WAITING = 0;
+        private static final int EXPIRED = 1;
+        private static final int CANCELLED = 2;
+        private final TimerWheel wheel;
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private long rounds = 0;
+        private int bucket = -1;
+        private Timeout previous = null;
+        private Timeout next = null;
+
+        private Timeout(TimerWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the timeout, the task will not be run
+         *
+         * @return true if cancelled, false if expired or cancelled already
+         */
+        boolean cancel() {
+            if (!state.compareAndSet(WAITING, CANCELLED)) return false;
+            wheel.cancelled.offer(this);
+            return true;
+        }
+
+        /**
+         * Check whether the task is run
+         *
+         * @return true if expired
+         */
+        boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+    }
+}
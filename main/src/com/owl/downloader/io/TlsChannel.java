@@ -0,0 +1,480 @@
+package com.owl.downloader.io;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadPendingException;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritePendingException;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Channel which secures a non-blocking socket with a SSLEngine
+ * <p>The handshake, reads and writes are driven by the readiness events of a Registration of the socket, no thread ever waits for the socket,
+ * the delegated tasks of the engine run on a bounded executor and the handshake goes on once they finish.
+ * The records read are decrypted into the destination buffer directly if it can hold a whole record, otherwise into a buffer of the channel.</p>
+ * The blocking read and write of ByteChannel are non-blocking, they return 0 if the socket is not ready.
+ * At most one read and one write can be pending at the same time, like the registration.
+ * Callbacks of the asynchronous operations are called in the io thread, and in the selector thread if they are inline.
+ * The network buffers are leased from the given buffer pool and released once closed.
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+public final class TlsChannel implements ByteChannel {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private final SocketChannel socketChannel;
+    private final SSLEngine engine;
+    private final BufferPool bufferPool;
+    private final Executor delegatedTaskExecutor;
+    private final Object readLock = new Object();
+    private final Object writeLock = new Object();
+    private final int applicationBufferSize;
+    private final ByteBuffer netIn;  // write mode, records read but not decrypted yet
+    private final ByteBuffer netOut; // read mode, records encrypted but not written yet
+    private final ByteBuffer appIn;  // write mode, data decrypted but not taken yet
+    private boolean reading = false;
+    private boolean writing = false;
+    private boolean closed = false;
+
+    /**
+     * Construct a channel whose delegated tasks run on the shared executor
+     *
+     * @param socketChannel the socket, in non-blocking mode
+     * @param engine        the engine in client mode, whose handshake is not started yet
+     * @param bufferPool    the pool which the network buffers are leased from
+     */
+    public TlsChannel(SocketChannel socketChannel, SSLEngine engine, BufferPool bufferPool) {
+        this(socketChannel, engine, bufferPool, DelegatedTaskExecutorHolder.EXECUTOR);
+    }
+
+    /**
+     * Construct a channel whose delegated tasks run on the given executor
+     *
+     * @param socketChannel         the socket, in non-blocking mode
+     * @param engine                the engine in client mode, whose handshake is not started yet
+     * @param bufferPool            the pool which the network buffers are leased from
+     * @param delegatedTaskExecutor the executor of the delegated tasks
+     */
+    public TlsChannel(SocketChannel socketChannel, SSLEngine engine, BufferPool bufferPool, Executor delegatedTaskExecutor) {
+        this.socketChannel = Objects.requireNonNull(socketChannel);
+        this.engine = Objects.requireNonNull(engine);
+        this.bufferPool = Objects.requireNonNull(bufferPool);
+        this.delegatedTaskExecutor = Objects.requireNonNull(delegatedTaskExecutor);
+        int packetBufferSize = engine.getSession().getPacketBufferSize();
+        this.applicationBufferSize = engine.getSession().getApplicationBufferSize();
+        this.netIn = bufferPool.lease(packetBufferSize);
+        this.netOut = bufferPool.lease(packetBufferSize).flip();
+        this.appIn = bufferPool.lease(applicationBufferSize);
+    }
+
+    /**
+     * Get the secured socket
+     *
+     * @return the socket channel
+     */
+    public SocketChannel socketChannel() {
+        return socketChannel;
+    }
+
+    /**
+     * Get the engine of the channel
+     *
+     * @return the ssl engine
+     */
+    public SSLEngine engine() {
+        return engine;
+    }
+
+    /**
+     * Perform the handshake through the registration of the socket, the callback is called with the exception if failed
+     *
+     * @param registration the registration of the socket
+     * @param timeout      the timeout of each read and write, 0 means no timeout
+     * @param unit         the unit of the timeout
+     * @param callback     called once the handshake finished or failed
+     */
+    public void handshake(Registration registration, long timeout, TimeUnit unit, IOCallback callback) {
+        try {
+            engine.beginHandshake();
+        } catch (SSLException e) {
+            callback.callback(this, null, 0, e);
+            return;
+        }
+        handshakeStep(registration, timeout, unit, callback);
+    }
+
+    /**
+     * Read and decrypt data into the given buffer through the registration of the socket, call the callback once some data decrypted
+     * <p>Records already buffered are decrypted without reading the socket. The records read are released to the byte budget of
+     * the registration at once, the decrypted data is expected to be persisted by the callback</p>
+     *
+     * @param registration the registration of the socket
+     * @param buffer       the destination data buffer
+     * @param timeout      the timeout of each read of the socket, 0 means no timeout
+     * @param unit         the unit of the timeout
+     * @param callback     called with the size of data decrypted, -1 if the peer closed
+     */
+    public void read(Registration registration, ByteBuffer buffer, long timeout, TimeUnit unit, IOCallback callback) {
+        int size;
+        try {
+            synchronized (readLock) {
+                ensureOpen();
+                if (reading) throw new ReadPendingException();
+                size = unwrap(buffer);
+            }
+        } catch (IOException | ReadPendingException e) {
+            callback.callback(this, buffer, 0, e);
+            return;
+        }
+        if (size != 0) {
+            callback.callback(this, buffer, size, null);
+            return;
+        }
+        fill(registration, timeout, unit, callback.isInline(), (channel, netBuffer, read, exception) -> {
+            if (exception != null || read == -1) {
+                callback.callback(this, buffer, read, exception);
+                return;
+            }
+            ByteBudget budget = registration.getBudget();
+            if (budget != null) budget.release(read);
+            read(registration, buffer, timeout, unit, callback);
+        });
+    }
+
+    /**
+     * Encrypt and write all the data of the given buffer through the registration of the socket, call the callback once all written
+     *
+     * @param registration the registration of the socket
+     * @param buffer       the source data buffer
+     * @param timeout      the timeout of each write of the socket, 0 means no timeout
+     * @param unit         the unit of the timeout
+     * @param callback     called with the size of data written
+     */
+    public void write(Registration registration, ByteBuffer buffer, long timeout, TimeUnit unit, IOCallback callback) {
+        write(registration, buffer, 0, timeout, unit, callback);
+    }
+
+    /**
+     * Decrypt the records available without waiting
+     *
+     * @param dst the destination data buffer
+     * @return the size of data decrypted, 0 if more records required, -1 if the peer closed
+     * @throws IOException if the channel is closed or the records are invalid
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        synchronized (readLock) {
+            ensureOpen();
+            if (reading) throw new ReadPendingException();
+            int size = unwrap(dst);
+            if (size != 0) return size;
+            int read = socketChannel.read(netIn);
+            if (read == -1) return -1;
+            return read == 0 ? 0 : unwrap(dst);
+        }
+    }
+
+    /**
+     * Encrypt and write the data without waiting, the records not written are kept until the next write or flush
+     *
+     * @param src the source data buffer
+     * @return the size of data encrypted, 0 if the records before are not written yet
+     * @throws IOException if the channel is closed or the socket fails
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        synchronized (writeLock) {
+            ensureOpen();
+            if (writing) throw new WritePendingException();
+            if (!flush()) return 0;
+            int size = wrap(src);
+            flush();
+            return size;
+        }
+    }
+
+    /**
+     * Write the records kept without waiting
+     *
+     * @return true if all the records are written
+     * @throws IOException if the socket fails
+     */
+    public boolean flush() throws IOException {
+        synchronized (writeLock) {
+            while (netOut.hasRemaining()) {
+                if (socketChannel.write(netOut) == 0) return false;
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        synchronized (readLock) {
+            return !closed;
+        }
+    }
+
+    /**
+     * Send close_notify if possible and close the socket, the buffers of pending operations are released once they are called back
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (readLock) {
+            synchronized (writeLock) {
+                if (closed) return;
+                closed = true;
+                try {
+                    engine.closeOutbound();
+                    if (!writing && !netOut.hasRemaining()) {
+                        netOut.clear();
+                        engine.wrap(EMPTY, netOut);
+                        netOut.flip();
+                        socketChannel.write(netOut);
+                    }
+                } catch (IOException e) {
+                    // The peer may be gone already
+                } finally {
+                    socketChannel.close();
+                    if (!reading) releaseInbound();
+                    if (!writing) bufferPool.release(netOut);
+                }
+            }
+        }
+    }
+
+    // Go on with the handshake until it finishes or waits for the socket or the delegated tasks
+    private void handshakeStep(Registration registration, long timeout, TimeUnit unit, IOCallback callback) {
+        try {
+            while (true) {
+                switch (engine.getHandshakeStatus()) {
+                    case NEED_WRAP:
+                        synchronized (writeLock) {
+                            ensureOpen();
+                            if (!netOut.hasRemaining()) wrap(EMPTY);
+                        }
+                        if (netOut.hasRemaining()) {
+                            flush(registration, timeout, unit, callback.isInline(), (channel, buffer, size, exception) -> {
+                                if (exception != null) callback.callback(this, null, 0, exception);
+                                else handshakeStep(registration, timeout, unit, callback);
+                            });
+                            return;
+                        }
+                        break;
+                    case NEED_UNWRAP:
+                    case NEED_UNWRAP_AGAIN:
+                        SSLEngineResult result;
+                        synchronized (readLock) {
+                            ensureOpen();
+                            netIn.flip();
+                            try {
+                                result = engine.unwrap(netIn, appIn);
+                            } finally {
+                                netIn.compact();
+                            }
+                        }
+                        if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                            if (!netIn.hasRemaining()) throw new SSLException("record exceeds the buffer");
+                            fill(registration, timeout, unit, callback.isInline(), (channel, buffer, size, exception) -> {
+                                if (exception == null && size == -1) exception = new SSLException("connection closed during handshake");
+                                if (exception != null) callback.callback(this, null, 0, exception);
+                                else handshakeStep(registration, timeout, unit, callback);
+                            });
+                            return;
+                        }
+                        if (result.getStatus() != SSLEngineResult.Status.OK) throw new SSLException("unexpected status " + result.getStatus() + " during handshake");
+                        break;
+                    case NEED_TASK:
+                        delegatedTaskExecutor.execute(() -> {
+                            runDelegatedTasks();
+                            handshakeStep(registration, timeout, unit, callback);
+                        });
+                        return;
+                    default:
+                        callback.callback(this, null, 0, null);
+                        return;
+                }
+            }
+        } catch (IOException | RejectedExecutionException e) {
+            callback.callback(this, null, 0, e);
+        }
+    }
+
+    // Encrypt the rest of the buffer record by record, each record is written before the next one is encrypted
+    private void write(Registration registration, ByteBuffer buffer, int written, long timeout, TimeUnit unit, IOCallback callback) {
+        int size;
+        try {
+            synchronized (writeLock) {
+                ensureOpen();
+                if (writing) throw new WritePendingException();
+                size = netOut.hasRemaining() || !buffer.hasRemaining() ? 0 : wrap(buffer);
+            }
+        } catch (IOException | WritePendingException e) {
+            callback.callback(this, buffer, written, e);
+            return;
+        }
+        if (!netOut.hasRemaining()) {
+            callback.callback(this, buffer, written + size, null);
+            return;
+        }
+        flush(registration, timeout, unit, callback.isInline(), (channel, netBuffer, flushed, exception) -> {
+            if (exception != null) callback.callback(this, buffer, written + size, exception);
+            else write(registration, buffer, written + size, timeout, unit, callback);
+        });
+    }
+
+    // Read more records into the network buffer, the callback is called with AsynchronousCloseException if closed meanwhile
+    private void fill(Registration registration, long timeout, TimeUnit unit, boolean inline, IOCallback callback) {
+        synchronized (readLock) {
+            if (closed || reading) {
+                callback.callback(this, netIn, 0, closed ? new ClosedChannelException() : new ReadPendingException());
+                return;
+            }
+            reading = true;
+        }
+        IOCallback fillCallback = (channel, buffer, size, exception) -> {
+            boolean closedMeanwhile;
+            synchronized (readLock) {
+                reading = false;
+                closedMeanwhile = closed;
+                if (closed) releaseInbound();
+            }
+            if (closedMeanwhile) callback.callback(this, buffer, 0, new AsynchronousCloseException());
+            else callback.callback(this, buffer, size, exception);
+        };
+        registration.read(netIn, timeout, unit, inline ? IOCallback.inline(fillCallback) : fillCallback);
+    }
+
+    // Write the records kept until none left, the callback is called with AsynchronousCloseException if closed meanwhile
+    private void flush(Registration registration, long timeout, TimeUnit unit, boolean inline, IOCallback callback) {
+        synchronized (writeLock) {
+            if (closed || writing) {
+                callback.callback(this, netOut, 0, closed ? new ClosedChannelException() : new WritePendingException());
+                return;
+            }
+            writing = true;
+        }
+        IOCallback flushCallback = (channel, buffer, size, exception) -> {
+            boolean closedMeanwhile;
+            synchronized (writeLock) {
+                writing = false;
+                closedMeanwhile = closed;
+                if (closed) bufferPool.release(netOut);
+            }
+            if (closedMeanwhile) callback.callback(this, buffer, 0, new AsynchronousCloseException());
+            else if (exception == null && netOut.hasRemaining()) flush(registration, timeout, unit, inline, callback);
+            else callback.callback(this, buffer, size, exception);
+        };
+        registration.write(netOut, timeout, unit, inline ? IOCallback.inline(flushCallback) : flushCallback);
+    }
+
+    // Decrypt the buffered records, called with the read lock held, returns 0 if more records required, -1 if the peer closed
+    private int unwrap(ByteBuffer dst) throws IOException {
+        if (appIn.position() > 0) return drain(dst);
+        while (true) {
+            // A destination large enough for a whole record saves a copy
+            ByteBuffer target = dst.remaining() >= applicationBufferSize ? dst : appIn;
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, target);
+            } finally {
+                netIn.compact();
+            }
+            switch (result.getStatus()) {
+                case OK:
+                    respond(result.getHandshakeStatus());
+                    if (result.bytesProduced() > 0) return target == dst ? result.bytesProduced() : drain(dst);
+                    if (result.bytesConsumed() == 0) return 0;
+                    // Post-handshake messages carry no data
+                    break;
+                case BUFFER_UNDERFLOW:
+                    if (!netIn.hasRemaining()) throw new SSLException("record exceeds the buffer");
+                    return 0;
+                case CLOSED:
+                    return -1;
+                default:
+                    throw new SSLException("unexpected status " + result.getStatus());
+            }
+        }
+    }
+
+    // Answer the post-handshake messages, such as key update, the answer is written at once if no write is pending
+    private void respond(SSLEngineResult.HandshakeStatus status) throws IOException {
+        if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            runDelegatedTasks();
+            status = engine.getHandshakeStatus();
+        }
+        if (status != SSLEngineResult.HandshakeStatus.NEED_WRAP) return;
+        synchronized (writeLock) {
+            if (writing || netOut.hasRemaining()) return;
+            wrap(EMPTY);
+            flush();
+        }
+    }
+
+    // Encrypt one record into the empty network buffer, called with the write lock held
+    private int wrap(ByteBuffer src) throws IOException {
+        netOut.clear();
+        SSLEngineResult result;
+        try {
+            result = engine.wrap(src, netOut);
+        } finally {
+            netOut.flip();
+        }
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) throw new ClosedChannelException();
+        if (result.getStatus() != SSLEngineResult.Status.OK) throw new SSLException("unexpected status " + result.getStatus());
+        return result.bytesConsumed();
+    }
+
+    // Move the decrypted data to the destination
+    private int drain(ByteBuffer dst) {
+        appIn.flip();
+        int size = Math.min(appIn.remaining(), dst.remaining());
+        int limit = appIn.limit();
+        appIn.limit(appIn.position() + size);
+        dst.put(appIn);
+        appIn.limit(limit);
+        appIn.compact();
+        return size;
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) task.run();
+    }
+
+    private void releaseInbound() {
+        bufferPool.release(netIn);
+        bufferPool.release(appIn);
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (closed) throw new ClosedChannelException();
+    }
+
+    // The delegated tasks are cpu bound, so at most one thread per core runs them
+    private static final class DelegatedTaskExecutorHolder {
+        private static final Executor EXECUTOR;
+
+        static {
+            int threads = Runtime.getRuntime().availableProcessors();
+            AtomicInteger count = new AtomicInteger(0);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(1024), runnable -> {
+                Thread thread = new Thread(runnable, "tls-delegated-task-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTOR = executor;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.owl.downloader.io;
+
+import java.io.Serializable;
+
+/**
+ * Token bucket used to limit the io rate, one token stands for one byte
+ * <p>A bucket may have a parent, tokens are granted only if both the bucket and all its ancestors have enough tokens,
+ * so a bucket per task with the session bucket as parent limits both the task and the whole session</p>
+ * The bucket never blocks, the io should be suspended for the given delay if no token is granted.
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+public class TokenBucket implements Serializable {
+    private static final long serialVersionUID = 4619223064812275790L;
+    private static final long QUANTUM = 4096;
+    private static final long MINIMUM_CAPACITY = 16 * 1024;
+    private final TokenBucket parent;
+    private long rate = 0;
+    private double capacity = MINIMUM_CAPACITY;
+    private double tokens = MINIMUM_CAPACITY;
+    private transient long lastRefill = System.nanoTime();
+
+    /**
+     * Construct a bucket without parent
+     *
+     * @param rate the rate, in bytes/second, 0 means unlimited
+     * @throws IllegalArgumentException if the rate is negative
+     */
+    public TokenBucket(long rate) {
+        this(rate, null);
+    }
+
+    /**
+     * Construct a bucket with the given parent
+     *
+     * @param rate   the rate, in bytes/second, 0 means unlimited
+     * @param parent the parent bucket, null if there is no parent
+     * @throws IllegalArgumentException if the rate is negative
+     */
+    public TokenBucket(long rate, TokenBucket parent) {
+        this.parent = parent;
+        setRate(rate);
+    }
+
+    /**
+     * Get the parent bucket
+     *
+     * @return the parent bucket, null if there is no parent
+     */
+    public TokenBucket getParent() {
+        return parent;
+    }
+
+    /**
+     * Get the rate
+     *
+     * @return the rate, in bytes/second, 0 means unlimited
+     */
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    /**
+     * Set the rate, the change takes effect immediately
+     * <p>The bucket holds at most 50 milliseconds of tokens (16KB at least), which is the largest burst allowed</p>
+     *
+     * @param rate the rate, in bytes/second, 0 means unlimited
+     * @throws IllegalArgumentException if the rate is negative
+     */
+    public synchronized void setRate(long rate) {
+        if (rate < 0) throw new IllegalArgumentException("the rate should not be negative");
+        refill();
+        if (this.rate == 0) tokens = Double.MAX_VALUE;
+        this.rate = rate;
+        this.capacity = Math.max(rate / 20.0, MINIMUM_CAPACITY);
+        this.tokens = Math.min(tokens, capacity);
+    }
+
+    /**
+     * Acquire at most the given count of tokens from this bucket and all its ancestors
+     *
+     * @param requested the count of tokens requested
+     * @return the count of tokens granted, between 0 and the requested count
+     */
+    public synchronized long acquire(long requested) {
+        if (requested <= 0) return 0;
+        refill();
+        long available = rate == 0 ? requested : Math.min(requested, (long) tokens);
+        if (available <= 0) return 0;
+        long granted = parent == null ? available : parent.acquire(available);
+        if (rate != 0) tokens -= granted;
+        return granted;
+    }
+
+    /**
+     * Give back the tokens granted but not used, to this bucket and all its ancestors
+     *
+     * @param unused the count of unused tokens
+     */
+    public synchronized void refund(long unused) {
+        if (unused <= 0) return;
+        if (rate != 0) tokens = Math.min(tokens + unused, capacity);
+        if (parent != null) parent.refund(unused);
+    }
+
+    /**
+     * Get how long to wait until a reasonable amount of tokens is available in this bucket and all its ancestors
+     *
+     * @return the delay, in nanoseconds, 0 if tokens are available now
+     */
+    public long delay() {
+        long delay;
+        synchronized (this) {
+            refill();
+            double required = Math.min(QUANTUM, capacity) - tokens;
+            delay = rate == 0 || required <= 0 ? 0 : (long) Math.ceil(required * 1e9 / rate);
+        }
+        return parent == null ? delay : Math.max(delay, parent.delay());
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (rate != 0) tokens = Math.min(capacity, tokens + Math.max(now - lastRefill, 0) * (rate / 1e9));
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,452 @@
+package com.owl.downloader.io;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * IOScheduler which performs each io operation as plain blocking io on its own virtual thread
+ * <p>There is no selector, selectable channels are switched to blocking mode before the io,
+ * so the channels should not be registered to any other selector</p>
+ * Virtual threads are only available since Java 21, a pool of daemon platform threads is used on earlier runtimes,
+ * the pool grows with the reads and the writes of the connections, since each of them holds a thread while blocked, a few idle threads are kept for reuse.
+ * Blocking io can only be aborted by closing the channel, so cancelling a registration of this scheduler closes the channel.
+ * Rate limited or budgeted reads park their own thread until the tokens or the budget are available, which is cheap for virtual threads.
+ * An operation timed out is interrupted as well, which closes the channel, the timeout of a read starts once its tokens and budget are granted.
+ *
+ * @author Ricardo Evans
+ * @version 1.0
+ */
+public class VirtualThreadIOScheduler implements IOScheduler {
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY = virtualThreadFactory();
+    private static final Logger LOGGER = Logger.getLogger(VirtualThreadIOScheduler.class.getName());
+    private final int platformThreadCount;
+    private final BufferPool bufferPool = new BufferPool();
+    private final Map<SelectableChannel, WeakReference<BlockingRegistration>> registrations = new WeakHashMap<>();
+    private ExecutorService executor = null;
+    private ScheduledExecutorService timer = null;
+    private volatile boolean running = false;
+
+    /**
+     * Construct a scheduler whose platform thread pool, used only if virtual threads are not supported, keeps 16 idle threads
+     */
+    public VirtualThreadIOScheduler() {
+        this(16);
+    }
+
+    /**
+     * Construct a scheduler with the given count of idle platform threads kept, platform threads are used only if virtual threads are not supported
+     * <p>The pool is not bounded by the count, a blocked operation never waits for a thread of another one</p>
+     *
+     * @param platformThreadCount the count of idle platform threads kept
+     * @throws IllegalArgumentException if the platform thread count is not positive
+     */
+    public VirtualThreadIOScheduler(int platformThreadCount) {
+        if (platformThreadCount <= 0) throw new IllegalArgumentException("the count of platform threads should be positive");
+        this.platformThreadCount = platformThreadCount;
+    }
+
+    /**
+     * Get the count of idle platform threads kept if virtual threads are not supported
+     *
+     * @return the count of idle platform threads kept
+     */
+    public int getPlatformThreadCount() {
+        return platformThreadCount;
+    }
+
+    /**
+     * Check whether the io threads are virtual threads
+     *
+     * @return true if virtual threads are supported by the runtime
+     */
+    public boolean isVirtual() {
+        return VIRTUAL_THREAD_FACTORY != null;
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        if (running) return;
+        if (isVirtual()) {
+            executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.SECONDS, new SynchronousQueue<>(), VIRTUAL_THREAD_FACTORY);
+            LOGGER.info("io runs on virtual threads");
+        } else {
+            // A queued operation could wait behind reads blocked for good, so each operation gets a thread at once
+            executor = new ThreadPoolExecutor(platformThreadCount, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "owl-io");
+                thread.setDaemon(true);
+                return thread;
+            });
+            LOGGER.info("virtual threads are not supported, io runs on platform threads");
+        }
+        timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "owl-io-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+    }
+
+    @Override
+    public synchronized void stop() throws IOException {
+        running = false;
+        if (executor != null) executor.shutdownNow();
+        executor = null;
+        if (timer != null) timer.shutdownNow();
+        timer = null;
+    }
+
+    @Override
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    @Override
+    public Registration register(SelectableChannel channel) throws ClosedChannelException {
+        if (!running) throw new IllegalStateException();
+        if (!channel.isOpen()) throw new ClosedChannelException();
+        synchronized (registrations) {
+            WeakReference<BlockingRegistration> reference = registrations.get(channel);
+            BlockingRegistration registration = reference == null ? null : reference.get();
+            if (registration == null) {
+                registration = new BlockingRegistration(channel);
+                registrations.put(channel, new WeakReference<>(registration));
+            }
+            return registration;
+        }
+    }
+
+    @Override
+    public void read(ReadableByteChannel channel, ByteBuffer buffer, IOCallback callback) {
+        if (!running) throw new IllegalStateException();
+        if (channel instanceof SelectableChannel) {
+            try {
+                register((SelectableChannel) channel).read(buffer, callback);
+            } catch (ClosedChannelException e) {
+                callback.callback(channel, buffer, 0, e);
+            }
+        } else executor.execute(() -> BlockingIO.read(channel, buffer, callback));
+    }
+
+    @Override
+    public void write(WritableByteChannel channel, ByteBuffer buffer, IOCallback callback) {
+        if (!running) throw new IllegalStateException();
+        if (channel instanceof SelectableChannel) {
+            try {
+                register((SelectableChannel) channel).write(buffer, callback);
+            } catch (ClosedChannelException e) {
+                callback.callback(channel, buffer, 0, e);
+            }
+        } else executor.execute(() -> BlockingIO.write(channel, buffer, callback));
+    }
+
+    @Override
+    public void transfer(ReadableByteChannel channel, FileChannel target, long position, long count, IOCallback callback) {
+        if (!running) throw new IllegalStateException();
+        if (channel instanceof SelectableChannel) {
+            try {
+                register((SelectableChannel) channel).transfer(target, position, count, callback);
+            } catch (ClosedChannelException e) {
+                callback.callback(channel, null, 0, e);
+            }
+        } else executor.execute(() -> BlockingIO.transfer(channel, target, position, count, callback));
+    }
+
+    // Thread.ofVirtual() is only available since Java 21, so it is looked up reflectively
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Registration which tracks the threads of the pending operations, so that they can be interrupted once cancelled
+     */
+    private class BlockingRegistration implements Registration {
+        private final SelectableChannel channel;
+        private boolean reading = false;
+        private boolean writing = false;
+        private Thread reader = null;
+        private Thread writer = null;
+        private volatile TokenBucket rateLimiter = null;
+        private volatile ByteBudget budget = null;
+
+        private BlockingRegistration(SelectableChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public SelectableChannel channel() {
+            return channel;
+        }
+
+        @Override
+        public void read(ByteBuffer buffer, long timeout, TimeUnit unit, IOCallback callback) {
+            if (!beginRead()) {
+                callback.callback(channel, buffer, 0, new ReadPendingException());
+                return;
+            }
+            executor.execute(() -> {
+                int size = 0;
+                Exception exception = null;
+                TokenBucket rateLimiter = this.rateLimiter;
+                ByteBudget budget = this.budget;
+                long reserved = 0;
+                long granted = 0;
+                int limit = buffer.limit();
+                Deadline deadline = null;
+                try {
+                    enterRead();
+                    reserved = reserve(budget, buffer.remaining());
+                    granted = acquire(rateLimiter, reserved);
+                    if (budget != null) budget.release(reserved - granted);
+                    reserved = granted;
+                    // Waiting for the budget or the tokens is not a stall
+                    deadline = Deadline.of(timer, timeout, unit);
+                    if (granted < buffer.remaining()) buffer.limit(buffer.position() + (int) granted);
+                    size = ((ReadableByteChannel) channel).read(buffer);
+                } catch (IOException e) {
+                    exception = e;
+                } finally {
+                    buffer.limit(limit);
+                    if (rateLimiter != null) rateLimiter.refund(granted - Math.max(size, 0));
+                    if (budget != null) budget.release(reserved - Math.max(size, 0));
+                    if (deadline != null && deadline.finish() && exception != null) exception = new SocketTimeoutException("read timed out");
+                    exitRead();
+                }
+                callback.callback(channel, buffer, size, exception);
+            });
+        }
+
+        @Override
+        public void transfer(FileChannel target, long position, long count, long timeout, TimeUnit unit, IOCallback callback) {
+            if (!beginRead()) {
+                callback.callback(channel, null, 0, new ReadPendingException());
+                return;
+            }
+            executor.execute(() -> {
+                int size = 0;
+                Exception exception = null;
+                TokenBucket rateLimiter = this.rateLimiter;
+                long granted = 0;
+                Deadline deadline = null;
+                try {
+                    enterRead();
+                    granted = acquire(rateLimiter, Math.min(count, Integer.MAX_VALUE));
+                    deadline = Deadline.of(timer, timeout, unit);
+                    long transferred = target.transferFrom((ReadableByteChannel) channel, position, granted);
+                    size = transferred == 0 && granted > 0 ? BlockingIO.transferByte((ReadableByteChannel) channel, target, position) : (int) transferred;
+                } catch (IOException e) {
+                    exception = e;
+                } finally {
+                    if (rateLimiter != null) rateLimiter.refund(granted - Math.max(size, 0));
+                    if (deadline != null && deadline.finish() && exception != null) exception = new SocketTimeoutException("read timed out");
+                    exitRead();
+                }
+                callback.callback(channel, null, size, exception);
+            });
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, long timeout, TimeUnit unit, IOCallback callback) {
+            if (!beginWrite()) {
+                callback.callback(channel, buffer, 0, new WritePendingException());
+                return;
+            }
+            executor.execute(() -> {
+                int size = 0;
+                Exception exception = null;
+                Deadline deadline = null;
+                try {
+                    enterWrite();
+                    deadline = Deadline.of(timer, timeout, unit);
+                    size = ((WritableByteChannel) channel).write(buffer);
+                } catch (IOException e) {
+                    exception = e;
+                } finally {
+                    if (deadline != null && deadline.finish() && exception != null) exception = new SocketTimeoutException("write timed out");
+                    exitWrite();
+                }
+                callback.callback(channel, buffer, size, exception);
+            });
+        }
+
+        // A blocking connect occupies the write slot, since nothing can be written before connected
+        @Override
+        public void connect(SocketAddress address, long timeout, TimeUnit unit, IOCallback callback) {
+            if (!beginWrite()) {
+                callback.callback(channel, null, 0, new ConnectionPendingException());
+                return;
+            }
+            executor.execute(() -> {
+                Exception exception = null;
+                Deadline deadline = null;
+                try {
+                    enterWrite();
+                    deadline = Deadline.of(timer, timeout, unit);
+                    ((SocketChannel) channel).connect(address);
+                } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+                    exception = e;
+                } finally {
+                    if (deadline != null && deadline.finish() && exception != null) exception = new SocketTimeoutException("connect timed out");
+                    exitWrite();
+                }
+                callback.callback(channel, null, 0, exception);
+            });
+        }
+
+        @Override
+        public TokenBucket getRateLimiter() {
+            return rateLimiter;
+        }
+
+        @Override
+        public void setRateLimiter(TokenBucket rateLimiter) {
+            this.rateLimiter = rateLimiter;
+        }
+
+        @Override
+        public ByteBudget getBudget() {
+            return budget;
+        }
+
+        @Override
+        public void setBudget(ByteBudget budget) {
+            this.budget = budget;
+        }
+
+        // Interrupting a thread blocked in an interruptible channel closes the channel
+        @Override
+        public synchronized void cancel() {
+            if (reader != null) reader.interrupt();
+            if (writer != null) writer.interrupt();
+        }
+
+        private synchronized boolean beginRead() {
+            if (reading) return false;
+            reading = true;
+            return true;
+        }
+
+        private synchronized boolean beginWrite() {
+            if (writing) return false;
+            writing = true;
+            return true;
+        }
+
+        private void enterRead() throws IOException {
+            configureBlocking();
+            synchronized (this) {
+                reader = Thread.currentThread();
+            }
+        }
+
+        private void enterWrite() throws IOException {
+            configureBlocking();
+            synchronized (this) {
+                writer = Thread.currentThread();
+            }
+        }
+
+        // The interrupt status is cleared, since the thread may be reused once the operation is finished
+        private synchronized void exitRead() {
+            reader = null;
+            reading = false;
+            Thread.interrupted();
+        }
+
+        private synchronized void exitWrite() {
+            writer = null;
+            writing = false;
+            Thread.interrupted();
+        }
+
+        // A thread parked for tokens is not blocked in the channel, so the channel is closed here once interrupted
+        private long acquire(TokenBucket rateLimiter, long requested) throws IOException {
+            if (rateLimiter == null || requested <= 0) return requested;
+            long granted;
+            while ((granted = rateLimiter.acquire(requested)) <= 0) {
+                LockSupport.parkNanos(rateLimiter.delay());
+                if (Thread.interrupted()) {
+                    channel.close();
+                    throw new ClosedByInterruptException();
+                }
+            }
+            return granted;
+        }
+
+        // The thread is unparked by the thread releasing the bytes
+        private long reserve(ByteBudget budget, long requested) throws IOException {
+            if (budget == null || requested <= 0) return requested;
+            long granted;
+            while ((granted = budget.acquire(requested)) <= 0) {
+                Thread thread = Thread.currentThread();
+                budget.whenAvailable(() -> LockSupport.unpark(thread));
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    channel.close();
+                    throw new ClosedByInterruptException();
+                }
+            }
+            return granted;
+        }
+
+        private void configureBlocking() throws IOException {
+            synchronized (channel.blockingLock()) {
+                if (!channel.isBlocking()) channel.configureBlocking(true);
+            }
+        }
+    }
+
+    /**
+     * Deadline of a blocking operation, the thread performing the operation is interrupted once expired
+     */
+    private static class Deadline implements Runnable {
+        private final Thread thread = Thread.currentThread();
+        private ScheduledFuture<?> future = null;
+        private boolean finished = false;
+        private boolean expired = false;
+
+        // The current thread is interrupted if the operation is not finished in time
+        private static Deadline of(ScheduledExecutorService timer, long timeout, TimeUnit unit) {
+            if (timeout <= 0) return null;
+            Deadline deadline = new Deadline();
+            synchronized (deadline) {
+                deadline.future = timer.schedule(deadline, timeout, unit);
+            }
+            return deadline;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (finished) return;
+            expired = true;
+            thread.interrupt();
+        }
+
+        // Called before the interrupt status is cleared, so the thread is never interrupted once finished
+        private synchronized boolean finish() {
+            finished = true;
+            future.cancel(false);
+            return expired;
+        }
+    }
+}
@@ -217,6 +217,28 @@ class BaseTaskTest {
         assertEquals(1<<14,baseTask1.getBlockSize());
     }
 
+    @Test
+    void setDownloadLimit() {
+        assertThrows(IllegalArgumentException.class,()->baseTask1.setDownloadLimit(-1));
+        baseTask1.setDownloadLimit(1<<20);
+        assertEquals(1<<20,baseTask1.getDownloadLimit());
+        assertEquals(1<<20,baseTask1.downloadLimiter().getRate());
+        assertSame(Session.getInstance().getDownloadLimiter(),baseTask1.downloadLimiter().getParent());
+        baseTask1.setDownloadLimit(0);
+        assertEquals(0,baseTask1.downloadLimiter().getRate());
+    }
+
+    @Test
+    void setInFlightLimit() {
+        assertThrows(IllegalArgumentException.class,()->baseTask1.setInFlightLimit(-1));
+        baseTask1.setInFlightLimit(1<<20);
+        assertEquals(1<<20,baseTask1.getInFlightLimit());
+        assertEquals(1<<20,baseTask1.inFlightBudget().getLimit());
+        assertSame(Session.getInstance().getInFlightBudget(),baseTask1.inFlightBudget().getParent());
+        baseTask1.setInFlightLimit(0);
+        assertEquals(0,baseTask1.inFlightBudget().getLimit());
+    }
+
     @Test
     void getProxySelector() throws IllegalAccessException {
         assertSame(proxySelectorField.get(baseTask1),baseTask1.getProxySelector());
@@ -0,0 +1,243 @@
+package com.owl.downloader.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockLeaseManagerTest {
+
+    // Ten blocks of 100 bytes
+    private static List<FileData.Block> blocks() throws IOException {
+        File file = File.createTempFile("blocks", ".bin");
+        file.deleteOnExit();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(1000);
+        }
+        return new FileData(file, 100).getBlocks();
+    }
+
+    @Test
+    void leaseTest() throws IOException {
+        List<FileData.Block> blocks = blocks();
+        BlockLeaseManager leases = new BlockLeaseManager(blocks);
+        FileData.Block first = leases.lease(FileData.BlockSelector.getDefault());
+        assertSame(blocks.get(0), first);
+        assertFalse(first.available);
+        assertEquals(BlockLeaseManager.State.LEASED, leases.state(first));
+        assertEquals(1, leases.leasedCount());
+        // The selector sees the free blocks only
+        FileData.Block last = leases.lease(freeBlocks -> {
+            assertEquals(9, freeBlocks.size());
+            assertThrows(UnsupportedOperationException.class, freeBlocks::clear);
+            return freeBlocks.get(freeBlocks.size() - 1);
+        });
+        assertSame(blocks.get(9), last);
+        assertThrows(IllegalStateException.class, () -> leases.lease(freeBlocks -> first));
+        assertNull(leases.lease(freeBlocks -> null));
+        // Given back in the order of the file
+        leases.release(first);
+        assertTrue(first.available);
+        assertEquals(BlockLeaseManager.State.FREE, leases.state(first));
+        assertSame(first, leases.lease(freeBlocks -> freeBlocks.get(0)));
+        assertThrows(IllegalStateException.class, () -> leases.release(blocks.get(1)));
+        assertThrows(IllegalArgumentException.class, () -> leases.state(blocks().get(0)));
+    }
+
+    @Test
+    void completeTest() throws IOException {
+        List<FileData.Block> blocks = blocks();
+        BlockLeaseManager leases = new BlockLeaseManager(blocks);
+        List<FileData.Block> leased = new ArrayList<>();
+        FileData.Block block;
+        while ((block = leases.lease(FileData.BlockSelector.getDefault())) != null) leased.add(block);
+        assertEquals(10, leased.size());
+        assertFalse(leases.hasFree());
+        for (int i = 0; i < 9; ++i) assertFalse(leases.written(leased.get(i)));
+        assertThrows(IllegalStateException.class, () -> leases.written(leased.get(0)));
+        assertFalse(leases.isComplete());
+        assertEquals(9, leases.verify());
+        // Written is not complete until verified
+        assertTrue(leases.written(leased.get(9)));
+        assertTrue(leases.isWritten());
+        assertFalse(leases.isComplete());
+        assertEquals(1, leases.verify());
+        assertTrue(leases.isComplete());
+        assertEquals(BlockLeaseManager.State.VERIFIED, leases.state(leased.get(9)));
+        // Blocks not available are verified already
+        assertTrue(new BlockLeaseManager(blocks).isComplete());
+        assertTrue(new BlockLeaseManager(Collections.emptyList()).isComplete());
+    }
+
+    @Test
+    void spanTest() throws IOException {
+        List<FileData.Block> blocks = blocks();
+        BlockLeaseManager leases = new BlockLeaseManager(blocks);
+        // The free blocks are shared by the connections without a span
+        BlockLeaseManager.Span first = leases.leaseSpan(FileData.BlockSelector.getDefault(), 4);
+        assertEquals(0, first.start());
+        assertEquals(300, first.end());
+        BlockLeaseManager.Span second = leases.leaseSpan(FileData.BlockSelector.getDefault(), 4);
+        assertEquals(300, second.start());
+        assertEquals(600, second.end());
+        assertEquals(6, leases.leasedCount());
+        // Only the blocks wholly written are written
+        assertFalse(leases.advance(first, 150));
+        assertEquals(BlockLeaseManager.State.WRITTEN, leases.state(blocks.get(0)));
+        assertEquals(BlockLeaseManager.State.LEASED, leases.state(blocks.get(1)));
+        assertFalse(first.isFinished());
+        leases.advance(first, 300);
+        assertTrue(first.isFinished());
+        // The blocks not written are given back
+        leases.advance(second, 400);
+        leases.release(second);
+        assertTrue(second.isFinished());
+        assertEquals(BlockLeaseManager.State.WRITTEN, leases.state(blocks.get(3)));
+        assertEquals(BlockLeaseManager.State.FREE, leases.state(blocks.get(4)));
+        BlockLeaseManager.Span rest = leases.leaseSpan(FileData.BlockSelector.getDefault(), 1);
+        assertEquals(400, rest.start());
+        assertEquals(1000, rest.end());
+    }
+
+    @Test
+    void stealTest() throws IOException {
+        List<FileData.Block> blocks = blocks();
+        BlockLeaseManager leases = new BlockLeaseManager(blocks);
+        BlockLeaseManager.Span victim = leases.leaseSpan(FileData.BlockSelector.getDefault(), 1);
+        assertEquals(1000, victim.end());
+        assertEquals(999, victim.request() - 1);
+        assertFalse(leases.hasFree());
+        assertTrue(leases.isLeasable());
+        leases.advance(victim, 150);
+        // The block being written is never stolen, the back half of the rest is stolen
+        BlockLeaseManager.Span thief = leases.steal();
+        assertEquals(600, thief.start());
+        assertEquals(1000, thief.end());
+        assertEquals(600, victim.end());
+        assertEquals(1000, victim.requestedEnd());
+        // The victim stops at its new end, the bytes beyond are left to the thief
+        assertFalse(leases.advance(victim, 1000));
+        assertTrue(victim.isFinished());
+        assertEquals(BlockLeaseManager.State.LEASED, leases.state(blocks.get(6)));
+        leases.advance(thief, 800);
+        assertFalse(leases.isLeasable());
+        assertNull(leases.steal());
+        assertTrue(leases.advance(thief, 1000));
+        assertTrue(leases.isWritten());
+    }
+
+    @Test
+    void hedgeTest() throws IOException {
+        List<FileData.Block> blocks = blocks();
+        BlockLeaseManager leases = new BlockLeaseManager(blocks);
+        BlockLeaseManager.Span first = leases.leaseSpan(FileData.BlockSelector.getDefault(), 2);
+        BlockLeaseManager.Span second = leases.leaseSpan(FileData.BlockSelector.getDefault(), 2);
+        leases.advance(first, 400);
+        leases.advance(second, 850);
+        // Not in the endgame while too many blocks are leased
+        assertNull(leases.hedge(2, 0));
+        assertFalse(leases.isHedgeable(2, 0));
+        assertNull(leases.hedge(0, 0));
+        // The span with the most blocks left is hedged from its block being written
+        BlockLeaseManager.Span twin = leases.hedge(3, 0);
+        assertEquals(800, twin.start());
+        assertEquals(1000, twin.end());
+        assertEquals(3, leases.leasedCount());
+        // Hedged spans are neither stolen from nor hedged again
+        assertNull(leases.steal());
+        BlockLeaseManager.Span other = leases.hedge(3, 0);
+        assertEquals(400, other.start());
+        assertNull(leases.hedge(3, 0));
+        assertFalse(leases.isHedgeable(3, 0));
+        // The first twin reaching the end wins, the bytes the loser downloaded are wasted
+        leases.advance(other, 450);
+        assertFalse(other.isFinished());
+        leases.advance(first, 500);
+        assertTrue(first.isFinished());
+        assertTrue(other.isFinished());
+        assertEquals(400, other.end());
+        assertEquals(50, leases.wastedBytes());
+        // The blocks written by the twin already are skipped as wasted
+        leases.advance(twin, 900);
+        assertEquals(BlockLeaseManager.State.WRITTEN, leases.state(blocks.get(8)));
+        assertFalse(leases.advance(second, 950));
+        assertEquals(150, leases.wastedBytes());
+        assertTrue(leases.advance(second, 1000));
+        assertTrue(twin.isFinished());
+        assertEquals(150, leases.wastedBytes());
+        assertTrue(leases.isWritten());
+    }
+
+    @Test
+    void hedgeReleaseTest() throws IOException {
+        List<FileData.Block> blocks = blocks();
+        BlockLeaseManager leases = new BlockLeaseManager(blocks);
+        BlockLeaseManager.Span span = leases.leaseSpan(FileData.BlockSelector.getDefault(), 1);
+        leases.advance(span, 800);
+        BlockLeaseManager.Span twin = leases.hedge(2, 0);
+        // The blocks of a failed twin are left to the other one, which can be hedged again
+        leases.release(twin);
+        assertEquals(BlockLeaseManager.State.LEASED, leases.state(blocks.get(8)));
+        assertTrue(leases.isHedgeable(2, 0));
+        twin = leases.hedge(2, 0);
+        leases.advance(twin, 900);
+        leases.release(twin);
+        // The block written by the former twin is not given back
+        leases.release(span);
+        assertEquals(BlockLeaseManager.State.WRITTEN, leases.state(blocks.get(8)));
+        assertEquals(BlockLeaseManager.State.FREE, leases.state(blocks.get(9)));
+        assertEquals(0, leases.leasedCount());
+    }
+
+    @Test
+    void hedgeCancelTest() throws IOException {
+        BlockLeaseManager leases = new BlockLeaseManager(blocks());
+        BlockLeaseManager.Span span = leases.leaseSpan(FileData.BlockSelector.getDefault(), 1);
+        leases.advance(span, 850);
+        // Spans with less bytes left than the minimum are not hedged
+        assertFalse(leases.isHedgeable(2, 200));
+        assertNull(leases.hedge(2, 200));
+        assertEquals(0, leases.skipTo(span));
+        BlockLeaseManager.Span twin = leases.hedge(2, 150);
+        AtomicInteger cancelled = new AtomicInteger();
+        span.setCanceller(cancelled::incrementAndGet);
+        // Each twin writes from the position the other one has written up to
+        assertEquals(850, leases.skipTo(twin));
+        leases.advance(twin, 950);
+        assertEquals(950, leases.skipTo(span));
+        assertEquals(0, cancelled.get());
+        // The request of the loser is cancelled once
+        assertTrue(leases.advance(twin, 1000));
+        assertEquals(1, cancelled.get());
+        assertTrue(span.isFinished());
+        assertEquals(0, leases.skipTo(span));
+    }
+
+    @Test
+    void concurrentTest() throws IOException, InterruptedException {
+        BlockLeaseManager leases = new BlockLeaseManager(blocks());
+        Set<FileData.Block> leased = ConcurrentHashMap.newKeySet();
+        CountDownLatch latch = new CountDownLatch(4);
+        for (int i = 0; i < 4; ++i) {
+            new Thread(() -> {
+                FileData.Block block;
+                while ((block = leases.lease(FileData.BlockSelector.getDefault())) != null) {
+                    // Each block is leased once only
+                    assertTrue(leased.add(block));
+                    leases.written(block);
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        assertEquals(10, leased.size());
+        assertTrue(leases.isWritten());
+    }
+}
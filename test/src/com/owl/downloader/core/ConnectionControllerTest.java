@@ -0,0 +1,105 @@
+package com.owl.downloader.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionControllerTest {
+
+    // Download at the given speed for a window, then one more byte to finish it
+    private static boolean window(ConnectionController controller, AtomicLong clock, long bytesPerWindow, int maximum) {
+        controller.record(bytesPerWindow, maximum);
+        clock.addAndGet(ConnectionController.WINDOW);
+        return controller.record(0, maximum);
+    }
+
+    @Test
+    void constructorTest() {
+        assertThrows(IllegalArgumentException.class, () -> new ConnectionController(0));
+        // Half of the maximum, so that the connections added are measured
+        assertEquals(4, ConnectionController.initialTarget(8));
+        assertEquals(3, ConnectionController.initialTarget(5));
+        assertEquals(1, ConnectionController.initialTarget(1));
+        AtomicLong clock = new AtomicLong(0);
+        ConnectionController controller = new ConnectionController(ConnectionController.initialTarget(8), clock::get);
+        assertEquals(4, controller.target(8));
+        assertEquals(2, controller.target(2));
+        // At the maximum, the target is held
+        controller = new ConnectionController(8, clock::get);
+        assertFalse(window(controller, clock, 1000, 8));
+        assertEquals(8, controller.target(8));
+    }
+
+    @Test
+    void increaseTest() {
+        AtomicLong clock = new AtomicLong(0);
+        ConnectionController controller = new ConnectionController(2, clock::get);
+        assertEquals(2, controller.target(4));
+        // Grows by 1 while the throughput keeps rising, the window after a change is skipped
+        assertTrue(window(controller, clock, 1000, 4));
+        assertEquals(3, controller.target(4));
+        assertFalse(window(controller, clock, 1500, 4));
+        assertTrue(window(controller, clock, 2000, 4));
+        // Never exceeds the maximum
+        assertEquals(4, controller.target(4));
+        assertEquals(3, controller.target(3));
+        assertFalse(window(controller, clock, 3000, 4));
+        assertFalse(window(controller, clock, 4000, 4));
+        assertEquals(4, controller.target(4));
+    }
+
+    @Test
+    void flatTest() {
+        AtomicLong clock = new AtomicLong(0);
+        ConnectionController controller = new ConnectionController(1, clock::get);
+        assertTrue(window(controller, clock, 1000, 8));
+        assertFalse(window(controller, clock, 1000, 8));
+        // The connections added do not pay, so they are taken back and held
+        assertFalse(window(controller, clock, 1050, 8));
+        assertEquals(1, controller.target(8));
+        for (int i = 0; i <= ConnectionController.HOLD_WINDOWS; ++i) assertFalse(window(controller, clock, 1000, 8));
+        // Probes again by 1 at a time
+        assertTrue(window(controller, clock, 1000, 8));
+        assertEquals(2, controller.target(8));
+    }
+
+    @Test
+    void dropTest() {
+        AtomicLong clock = new AtomicLong(0);
+        ConnectionController controller = new ConnectionController(4, clock::get);
+        assertTrue(window(controller, clock, 1000, 8));
+        assertEquals(5, controller.target(8));
+        assertFalse(window(controller, clock, 1000, 8));
+        // The connection added slows the others down, so the target is halved
+        assertFalse(window(controller, clock, 800, 8));
+        assertEquals(2, controller.target(8));
+    }
+
+    @Test
+    void backOffTest() {
+        AtomicLong clock = new AtomicLong(0);
+        ConnectionController controller = new ConnectionController(8, clock::get);
+        window(controller, clock, 1000, 8);
+        assertEquals(8, controller.target(8));
+        // Failures within a window are taken as one
+        controller.backOff();
+        controller.backOff();
+        assertEquals(4, controller.target(8));
+        clock.addAndGet(ConnectionController.WINDOW);
+        controller.backOff();
+        controller.backOff();
+        assertEquals(2, controller.target(8));
+        clock.addAndGet(ConnectionController.WINDOW);
+        controller.backOff();
+        assertEquals(1, controller.target(8));
+        clock.addAndGet(ConnectionController.WINDOW);
+        controller.backOff();
+        assertEquals(1, controller.target(8));
+        // Grows back once the hold is over
+        for (int i = 0; i <= ConnectionController.HOLD_WINDOWS; ++i) assertFalse(window(controller, clock, 1000, 8));
+        assertTrue(window(controller, clock, 1000, 8));
+        assertEquals(2, controller.target(8));
+    }
+}
@@ -1,10 +1,177 @@
 package com.owl.downloader.core;
 
+import com.owl.downloader.io.IOScheduler;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class HttpTaskTest {
+    private static final int BLOCK_SIZE = 16384;
+    private static final byte[] CONTENT = new byte[64 * BLOCK_SIZE];
+    private static final List<long[]> requests = Collections.synchronizedList(new ArrayList<>());  // start, end and port of each range
+    private static final Map<Integer, AtomicInteger> requestCounts = new ConcurrentHashMap<>();  // the requests of each connection, by port
+    private static volatile IntPredicate throttled = start -> false;
+    private static volatile IntPredicate unavailable = count -> false;
+    private static volatile IntPredicate stalled = end -> false;
+    private static volatile long stalledStart = -1;
+    private static final CountDownLatch released = new CountDownLatch(1);
+    private static HttpServer server;
+
+    // A server of ranges, which throttles the ranges from the given start and stalls the ranges to the given end halfway through their first block,
+    // the requests of a connection at the given count are answered 503
+    @BeforeAll
+    static void startTest() throws IOException {
+        new Random(1).nextBytes(CONTENT);
+        IOScheduler.getInstance().start();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/file.bin", HttpTaskTest::serve);
+        server.start();
+    }
+
+    @AfterAll
+    static void stopTest() throws IOException {
+        released.countDown();
+        server.stop(0);
+        IOScheduler.getInstance().stop();
+    }
+
+    private static void serve(HttpExchange exchange) throws IOException {
+        int count = requestCounts.computeIfAbsent(exchange.getRemoteAddress().getPort(), port -> new AtomicInteger()).incrementAndGet();
+        if (unavailable.test(count)) {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(CONTENT.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        String[] range = exchange.getRequestHeaders().getFirst("Range").substring(6).split("-");
+        int start = Integer.parseInt(range[0]);
+        int end = Math.min(Integer.parseInt(range[1]), CONTENT.length - 1);
+        requests.add(new long[]{start, end, exchange.getRemoteAddress().getPort()});
+        exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + CONTENT.length);
+        exchange.sendResponseHeaders(206, end - start + 1);
+        try (OutputStream body = exchange.getResponseBody()) {
+            if (stalled.test(end)) {
+                stalledStart = start;
+                body.write(CONTENT, start, BLOCK_SIZE / 2);
+                body.flush();
+                released.await(10, TimeUnit.SECONDS);
+                return;
+            }
+            int chunk = throttled.test(start) ? 1024 : end - start + 1;
+            for (int i = start; i <= end; i += chunk) {
+                body.write(CONTENT, i, Math.min(chunk, end - i + 1));
+                body.flush();
+                if (chunk < end - start + 1) Thread.sleep(10);
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // The client closes the connection of a span finished by another one
+        }
+    }
+
+    private static HttpTask download(int endgameBlocks) throws IOException, InterruptedException {
+        int defaultEndgameBlocks = Session.getInstance().getEndgameBlocks();
+        Session.getInstance().setEndgameBlocks(endgameBlocks);
+        requests.clear();
+        requestCounts.clear();
+        String directory = Files.createTempDirectory("download").toString() + File.separator;
+        HttpTask task = (HttpTask) Session.fromUri(URI.create("http://localhost:" + server.getAddress().getPort() + "/file.bin"));
+        try {
+            task.setDirectory(directory);
+            task.setBlockSize(BLOCK_SIZE);
+            task.setMaximumConnections(4);
+            task.prepare();
+            task.run();
+            long deadline = System.currentTimeMillis() + 20000;
+            while (task.status() == Task.Status.ACTIVE && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        } finally {
+            Session.getInstance().setEndgameBlocks(defaultEndgameBlocks);
+        }
+        assertEquals(Task.Status.COMPLETED, task.status());
+        File file = new File(directory + task.name());
+        assertArrayEquals(CONTENT, Files.readAllBytes(Paths.get(directory + task.name())));
+        assertTrue(file.delete());
+        return task;
+    }
+
+    @Test
+    void downloadTest() throws IOException, InterruptedException {
+        download(0);
+        // The blocks are shared by several connections
+        assertTrue(requests.stream().mapToLong(request -> request[2]).distinct().count() > 1);
+    }
+
+    @Test
+    void stealTest() throws IOException, InterruptedException {
+        // The span of the first range is held back, never hedged, so the other connections steal from it
+        throttled = start -> start == 0;
+        try {
+            download(0);
+        } finally {
+            throttled = start -> false;
+        }
+        assertTrue(requests.stream().anyMatch(stolen -> requests.stream().anyMatch(victim -> victim[0] < stolen[0] && stolen[0] <= victim[1])));
+    }
+
+    @Test
+    void hedgeTest() throws IOException, InterruptedException {
+        // The first range to the end stalls halfway through its first block, which is fetched again by a twin in the endgame
+        AtomicBoolean first = new AtomicBoolean(true);
+        stalled = end -> end == CONTENT.length - 1 && first.getAndSet(false);
+        HttpTask task;
+        try {
+            task = download(16);
+        } finally {
+            stalled = end -> false;
+        }
+        // Stolen spans start behind the block being written, only a twin starts at the block of the stalled range
+        assertTrue(requests.stream().filter(request -> request[0] == stalledStart).count() > 1);
+        // The bytes of the stalled block are wasted at most, how many depends on when the stalled request is cancelled
+        assertTrue(task.wastedLength() <= BLOCK_SIZE);
+    }
+
+    @Test
+    void pipelineTest() throws IOException, InterruptedException {
+        // The third request of a connection is pipelined behind the second one, the 503 it gets does not break pipelining
+        int defaultPipeliningDepth = Session.getInstance().getPipeliningDepth();
+        Session.getInstance().setPipeliningDepth(4);
+        AtomicInteger refused = new AtomicInteger();
+        unavailable = count -> count == 3 && refused.incrementAndGet() > 0;  // every connection refuses its third request
+        try {
+            download(0);
+        } finally {
+            unavailable = count -> false;
+            Session.getInstance().setPipeliningDepth(defaultPipeliningDepth);
+        }
+        assertTrue(refused.get() > 0);
+        assertTrue(Session.getInstance().getConnectionPool().isPipeliningEnabled("http://localhost:" + server.getAddress().getPort()));
+    }
 
     @Test
     void status() {
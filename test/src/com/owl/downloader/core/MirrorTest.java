@@ -0,0 +1,59 @@
+package com.owl.downloader.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ProtocolException;
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MirrorTest {
+
+    @Test
+    void uriTest() throws ProtocolException {
+        Mirror mirror = new Mirror(URI.create("http://example.com/files/a.bin?token=1"));
+        assertEquals("example.com", mirror.host());
+        assertEquals(80, mirror.port());
+        assertEquals("http://example.com:80", mirror.origin());
+        assertEquals("/files/a.bin?token=1", mirror.target());
+        assertEquals("/", new Mirror(URI.create("https://example.com")).target());
+        // Redirects are resolved against the uri
+        mirror.redirect("https://mirror.example.com:8443/b.bin");
+        assertEquals("https://mirror.example.com:8443", mirror.origin());
+        mirror.redirect("c.bin");
+        assertEquals("/c.bin", mirror.target());
+        assertThrows(ProtocolException.class, () -> mirror.redirect("ftp://example.com/a.bin"));
+        assertEquals("https", mirror.protocol());
+        assertEquals(Mirror.State.PENDING, mirror.state());
+    }
+
+    @Test
+    void speedTest() {
+        Mirror mirror = new Mirror(URI.create("http://example.com/a.bin"));
+        mirror.connect(1000);
+        mirror.connect(1000);
+        assertEquals(2, mirror.connections());
+        // Two connections held for half a window each, which is a window of connection time
+        mirror.record(1000, 1250);
+        assertEquals(0, mirror.speed());
+        mirror.record(1000, 1500);
+        assertEquals(2000, mirror.speed(), 0.001);
+        mirror.disconnect(1500);
+        mirror.record(4000, 2500);
+        assertEquals(2000 * (1 - Mirror.SMOOTHING) + 4000 * Mirror.SMOOTHING, mirror.speed(), 0.001);
+        assertEquals(1, mirror.connections());
+    }
+
+    @Test
+    void demoteTest() {
+        Mirror mirror = new Mirror(URI.create("http://example.com/a.bin"));
+        for (int i = 1; i < Mirror.MAXIMUM_FAILURES; ++i) mirror.fail(0);
+        mirror.succeed();
+        mirror.fail(0);
+        assertFalse(mirror.isDemoted(0));
+        for (int i = 1; i < Mirror.MAXIMUM_FAILURES; ++i) mirror.fail(0);
+        assertTrue(mirror.isDemoted(0));
+        assertTrue(mirror.isDemoted(Mirror.DEMOTION_TIME - 1));
+        assertFalse(mirror.isDemoted(Mirror.DEMOTION_TIME));
+    }
+}
@@ -4,7 +4,11 @@ import com.owl.downloader.event.Dispatcher;
 import com.owl.downloader.event.Event;
 import com.owl.downloader.event.EventHandler;
 import com.owl.downloader.exception.UnsupportedProtocolException;
+import com.owl.downloader.http.Http2Transport;
 import org.junit.jupiter.api.*;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
@@ -12,6 +16,10 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.ProxySelector;
 import java.net.URI;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ForkJoinPool;
@@ -236,6 +244,130 @@ class SessionTest {
         assertEquals(100,session1.getKeepaliveTime());
     }
 
+    @Test
+    void setTimeoutTest() {
+        assertThrows(IllegalArgumentException.class,()->session1.setConnectTimeout(-1));
+        assertThrows(IllegalArgumentException.class,()->session1.setFirstByteTimeout(-1));
+        assertThrows(IllegalArgumentException.class,()->session1.setIdleTimeout(-1));
+        int connectTimeout=session1.getConnectTimeout();
+        session1.setConnectTimeout(0);
+        assertEquals(0,session1.getConnectTimeout());
+        session1.setConnectTimeout(connectTimeout);
+        int idleTimeout=session1.getIdleTimeout();
+        session1.setIdleTimeout(1000);
+        assertEquals(1000,session1.getIdleTimeout());
+        session1.setIdleTimeout(idleTimeout);
+    }
+
+    @Test
+    void setInFlightLimitTest() {
+        assertThrows(IllegalArgumentException.class,()->session1.setInFlightLimit(-1));
+        long inFlightLimit=session1.getInFlightLimit();
+        session1.setInFlightLimit(1<<20);
+        assertEquals(1<<20,session1.getInFlightLimit());
+        session1.setInFlightLimit(inFlightLimit);
+    }
+
+    @Test
+    void setConnectionPoolTest() {
+        assertThrows(IllegalArgumentException.class,()->session1.setMaximumConnectionsPerHost(0));
+        assertThrows(IllegalArgumentException.class,()->session1.setConnectionKeepaliveTime(-1));
+        int maximumConnectionsPerHost=session1.getMaximumConnectionsPerHost();
+        int connectionKeepaliveTime=session1.getConnectionKeepaliveTime();
+        session1.setMaximumConnectionsPerHost(2);
+        session1.setConnectionKeepaliveTime(5);
+        assertEquals(2,session1.getMaximumConnectionsPerHost());
+        assertEquals(5,session1.getConnectionKeepaliveTime());
+        assertEquals(2,session1.getConnectionPool().getMaximumConnectionsPerHost());
+        session1.setMaximumConnectionsPerHost(maximumConnectionsPerHost);
+        session1.setConnectionKeepaliveTime(connectionKeepaliveTime);
+    }
+
+    @Test
+    void setPipeliningDepthTest() {
+        assertThrows(IllegalArgumentException.class,()->session1.setPipeliningDepth(0));
+        int pipeliningDepth=session1.getPipeliningDepth();
+        session1.setPipeliningDepth(4);
+        assertEquals(4,session1.getPipeliningDepth());
+        session1.setPipeliningDepth(pipeliningDepth);
+    }
+
+    @Test
+    void setEndgameBlocksTest() {
+        assertThrows(IllegalArgumentException.class,()->session1.setEndgameBlocks(-1));
+        int endgameBlocks=session1.getEndgameBlocks();
+        session1.setEndgameBlocks(0);
+        assertEquals(0,session1.getEndgameBlocks());
+        session1.setEndgameBlocks(endgameBlocks);
+    }
+
+    @Test
+    void setHttp2Test() {
+        assertThrows(IllegalArgumentException.class,()->session1.setMaximumStreams(0));
+        int maximumStreams=session1.getMaximumStreams();
+        session1.setMaximumStreams(16);
+        assertEquals(16,session1.getMaximumStreams());
+        session1.setMaximumStreams(maximumStreams);
+        session1.setHttp2Enabled(true);
+        assertTrue(session1.isHttp2Enabled());
+        session1.setHttp2Enabled(false);
+        assertFalse(session1.isHttp2Enabled());
+        assertSame(session1.getHttp2Transport(),session1.getHttp2Transport());
+    }
+
+    @Test
+    void setSSLContextTest() throws NoSuchAlgorithmException, KeyManagementException {
+        assertSame(session1.getSSLContext(),session1.getSSLContext());
+        assertThrows(IllegalArgumentException.class,()->session1.setTlsSessionCacheSize(-1));
+        assertThrows(IllegalArgumentException.class,()->session1.setTlsSessionTimeout(-1));
+        session1.setTlsSessionCacheSize(16);
+        session1.setTlsSessionTimeout(3600);
+        assertEquals(16,session1.getSSLContext().getClientSessionContext().getSessionCacheSize());
+        assertEquals(3600,session1.getSSLContext().getClientSessionContext().getSessionTimeout());
+        SSLContext context=SSLContext.getInstance("TLS");
+        context.init(null,null,null);
+        Http2Transport transport=session1.getHttp2Transport();
+        session1.setSSLContext(context);
+        assertSame(context,session1.getSSLContext());
+        assertEquals(16,context.getClientSessionContext().getSessionCacheSize());
+        assertNotSame(transport,session1.getHttp2Transport());
+        SSLEngine engine=session1.createSSLEngine("localhost",443);
+        assertTrue(engine.getUseClientMode());
+        assertEquals("localhost",engine.getPeerHost());
+        assertEquals(443,engine.getPeerPort());
+        assertEquals("HTTPS",engine.getSSLParameters().getEndpointIdentificationAlgorithm());
+        session1.setSSLContext(null);
+        assertNotSame(context,session1.getSSLContext());
+        session1.setTlsSessionCacheSize(256);
+        session1.setTlsSessionTimeout(86400);
+    }
+
+    @Test
+    void setDnsCacheTtlTest() {
+        assertThrows(IllegalArgumentException.class,()->session1.setDnsCacheTtl(-1));
+        assertThrows(IllegalArgumentException.class,()->session1.setDnsNegativeCacheTtl(-1));
+        assertThrows(IllegalArgumentException.class,()->session1.setConnectionAttemptDelay(-1));
+        assertSame(session1.getHostResolver(),session1.getHostResolver());
+        session1.setDnsCacheTtl(30);
+        session1.setDnsNegativeCacheTtl(5);
+        session1.setConnectionAttemptDelay(100);
+        assertEquals(30,session1.getHostResolver().getTtl());
+        assertEquals(5,session1.getHostResolver().getNegativeTtl());
+        assertEquals(100,session1.getConnectionAttemptDelay());
+        session1.setDnsCacheTtl(60);
+        session1.setDnsNegativeCacheTtl(10);
+        session1.setConnectionAttemptDelay(250);
+    }
+
+    @Test
+    void setDownloadLimitTest() {
+        assertThrows(IllegalArgumentException.class,()->session1.setDownloadLimit(-1));
+        session1.setDownloadLimit(1<<20);
+        assertEquals(1<<20,session1.getDownloadLimit());
+        session1.setDownloadLimit(0);
+        assertEquals(0,session1.getDownloadLimit());
+    }
+
     @Test
     void getProxySelectorTest() throws IllegalAccessException {
         assertSame(proxySelectorField.get(session1),session1.getProxySelector());
@@ -309,6 +441,21 @@ class SessionTest {
         assertTrue(()->Session.fromUri(uri2) instanceof HttpTask);
     }
 
+    @Test
+    void fromUris() {
+        assertThrows(NullPointerException.class,()->Session.fromUris(null));
+        assertThrows(IllegalArgumentException.class,()->Session.fromUris(Collections.emptyList()));
+        URI uri1 = URI.create("ftp://www.runoob.com/java/java-exceptions.html");
+        URI uri2 = URI.create("https://www.runoob.com/java/java-exceptions.html");
+        URI uri3 = URI.create("http://mirror.runoob.com/java/java-exceptions.html");
+        assertThrows(UnsupportedProtocolException.class,()->Session.fromUris(Arrays.asList(uri2,uri1)));
+        assertThrows(NullPointerException.class,()->Session.fromUris(Arrays.asList(uri2,null)));
+        Task task=Session.fromUris(Arrays.asList(uri2,uri3));
+        assertTrue(task instanceof HttpTask);
+        assertEquals("java-exceptions.html",task.name());
+        assertTrue(Session.fromUris(Collections.singletonList(uri2)) instanceof HttpTask);
+    }
+
     // TODO: Test of supported protocol should wait for bt protocol to be written.
     @Disabled
     void fromFile() {
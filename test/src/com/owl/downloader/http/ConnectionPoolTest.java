@@ -0,0 +1,182 @@
+package com.owl.downloader.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPoolTest {
+    private static final String ORIGIN = "http://localhost:80";
+
+    // Open the connection with a socket connected to the server, whose response is finished
+    private static SocketChannel open(HttpConnection connection, ServerSocketChannel server, String response) throws IOException {
+        SocketChannel socketChannel = SocketChannel.open(server.getLocalAddress());
+        socketChannel.configureBlocking(false);
+        connection.open(socketChannel, null);
+        connection.request().parse(ByteBuffer.wrap(response.getBytes(StandardCharsets.US_ASCII)));
+        return server.accept();
+    }
+
+    @Test
+    void constructorTest() {
+        assertThrows(IllegalArgumentException.class, () -> new ConnectionPool(0, 60));
+        assertThrows(IllegalArgumentException.class, () -> new ConnectionPool(1, -1));
+        ConnectionPool pool = new ConnectionPool();
+        assertEquals(8, pool.getMaximumConnectionsPerHost());
+        assertEquals(60, pool.getKeepaliveTime());
+    }
+
+    @Test
+    void maximumConnectionsTest() {
+        ConnectionPool pool = new ConnectionPool(2, 60);
+        HttpConnection first = pool.acquire(ORIGIN);
+        HttpConnection second = pool.acquire(ORIGIN);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertFalse(first.isConnected());
+        assertNull(pool.acquire(ORIGIN));
+        assertNotNull(pool.acquire("http://localhost:8080"));
+        assertEquals(2, pool.connectionCount(ORIGIN));
+        // Connections never connected cannot be reused, their slots are given back
+        first.release();
+        assertFalse(first.isOpen());
+        assertEquals(1, pool.connectionCount(ORIGIN));
+        assertNotNull(pool.acquire(ORIGIN));
+        second.close();
+        second.close();
+        assertEquals(1, pool.connectionCount(ORIGIN));
+    }
+
+    @Test
+    void reuseTest() throws IOException {
+        ConnectionPool pool = new ConnectionPool(1, 60);
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0))) {
+            HttpConnection connection = pool.acquire(ORIGIN);
+            SocketChannel peer = open(connection, server, "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n");
+            connection.release();
+            assertTrue(connection.isOpen());
+            assertEquals(1, pool.idleCount(ORIGIN));
+            assertSame(connection, pool.acquire(ORIGIN));
+            assertEquals(0, pool.idleCount(ORIGIN));
+            assertEquals(1, connection.requestCount());
+            assertFalse(connection.isReused());
+            connection.startRequests();
+            // The response requires the connection to be closed
+            connection.request().parse(ByteBuffer.wrap("HTTP/1.1 204 No Content\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+            assertTrue(connection.isReused());
+            assertFalse(connection.isPipelined());
+            connection.request();
+            assertFalse(connection.isReused());
+            assertTrue(connection.isPipelined());
+            connection.release();
+            assertFalse(connection.isOpen());
+            assertEquals(0, pool.connectionCount(ORIGIN));
+            peer.close();
+        }
+    }
+
+    @Test
+    void preconnectTest() throws IOException {
+        ConnectionPool pool = new ConnectionPool(1, 60);
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0))) {
+            // Established in advance without any request
+            HttpConnection connection = pool.acquire(ORIGIN);
+            SocketChannel socketChannel = SocketChannel.open(server.getLocalAddress());
+            socketChannel.configureBlocking(false);
+            connection.open(socketChannel, null);
+            SocketChannel peer = server.accept();
+            connection.release();
+            assertTrue(connection.isOpen());
+            assertSame(connection, pool.acquire(ORIGIN));
+            assertEquals(0, connection.requestCount());
+            connection.close();
+            peer.close();
+        }
+    }
+
+    @Test
+    void staleTest() throws IOException {
+        ConnectionPool pool = new ConnectionPool(1, 60);
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0))) {
+            HttpConnection connection = pool.acquire(ORIGIN);
+            SocketChannel peer = open(connection, server, "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n");
+            connection.release();
+            // Closed by the peer while idle
+            peer.close();
+            HttpConnection next = null;
+            for (int i = 0; i < 100 && (next == null || next == connection); ++i) {
+                if (next != null) next.release();
+                next = pool.acquire(ORIGIN);
+            }
+            assertNotSame(connection, next);
+            assertFalse(connection.isOpen());
+            assertFalse(next.isConnected());
+        }
+    }
+
+    @Test
+    void blockingStaleTest() throws IOException, InterruptedException {
+        ConnectionPool pool = new ConnectionPool(1, 60);
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0))) {
+            HttpConnection connection = pool.acquire(ORIGIN);
+            SocketChannel peer = open(connection, server, "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n");
+            // Left in blocking mode by a blocking scheduler, the check gives the mode back
+            connection.socketChannel().configureBlocking(true);
+            assertFalse(connection.isStale());
+            assertTrue(connection.socketChannel().isBlocking());
+            peer.close();
+            for (int i = 0; i < 100 && !connection.isStale(); ++i) Thread.sleep(10);
+            assertTrue(connection.isStale());
+            assertTrue(connection.socketChannel().isBlocking());
+            connection.close();
+        }
+    }
+
+    @Test
+    void keepaliveTest() throws IOException {
+        ConnectionPool pool = new ConnectionPool(1, 0);
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0))) {
+            HttpConnection connection = pool.acquire(ORIGIN);
+            SocketChannel peer = open(connection, server, "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n");
+            connection.release();
+            assertFalse(connection.isOpen());
+            pool.setKeepaliveTime(60);
+            connection = pool.acquire(ORIGIN);
+            SocketChannel secondPeer = open(connection, server, "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n");
+            connection.release();
+            pool.clear();
+            assertFalse(connection.isOpen());
+            assertEquals(0, pool.connectionCount(ORIGIN));
+            peer.close();
+            secondPeer.close();
+        }
+    }
+
+    @Test
+    void pipeliningTest() {
+        ConnectionPool pool = new ConnectionPool();
+        assertTrue(pool.isPipeliningEnabled(ORIGIN));
+        pool.disablePipelining(ORIGIN);
+        assertFalse(pool.isPipeliningEnabled(ORIGIN));
+        assertTrue(pool.isPipeliningEnabled("http://localhost:8080"));
+    }
+
+    @Test
+    void unfinishedTest() throws IOException {
+        ConnectionPool pool = new ConnectionPool(1, 60);
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0))) {
+            HttpConnection connection = pool.acquire(ORIGIN);
+            SocketChannel peer = open(connection, server, "HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nowl");
+            connection.release();
+            assertFalse(connection.isOpen());
+            assertThrows(IllegalStateException.class, () -> connection.open(SocketChannel.open(), null));
+            peer.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.owl.downloader.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HostResolverTest {
+    private static final InetAddress[] ADDRESSES = addresses("10.0.0.1", "10.0.0.2", "::1", "10.0.0.3");
+
+    private static InetAddress[] addresses(String... literals) {
+        InetAddress[] addresses = new InetAddress[literals.length];
+        try {
+            for (int i = 0; i < literals.length; ++i) addresses[i] = InetAddress.getByName(literals[i]);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+        return addresses;
+    }
+
+    @Test
+    void constructorTest() {
+        assertThrows(IllegalArgumentException.class, () -> new HostResolver(-1, 10));
+        assertThrows(IllegalArgumentException.class, () -> new HostResolver(60, -1));
+        HostResolver resolver = new HostResolver();
+        assertEquals(60, resolver.getTtl());
+        assertEquals(10, resolver.getNegativeTtl());
+    }
+
+    @Test
+    void cacheTest() throws ExecutionException, InterruptedException {
+        AtomicInteger lookups = new AtomicInteger(0);
+        HostResolver resolver = new HostResolver(60, 10, host -> {
+            lookups.incrementAndGet();
+            return ADDRESSES;
+        }, Runnable::run);
+        List<InetAddress> first = resolver.resolve("owl").get();
+        // Interleaved by family, then rotated for each resolve
+        assertEquals(Arrays.asList(addresses("10.0.0.1", "::1", "10.0.0.2", "10.0.0.3")), first);
+        assertEquals(Arrays.asList(addresses("::1", "10.0.0.2", "10.0.0.3", "10.0.0.1")), resolver.resolve("owl").get());
+        assertEquals(1, lookups.get());
+        resolver.resolve("another").get();
+        assertEquals(2, lookups.get());
+        resolver.clear();
+        resolver.resolve("owl").get();
+        assertEquals(3, lookups.get());
+        // Not cached at all
+        resolver.setTtl(0);
+        resolver.clear();
+        resolver.resolve("owl").get();
+        resolver.resolve("owl").get();
+        assertEquals(5, lookups.get());
+    }
+
+    @Test
+    void negativeCacheTest() {
+        AtomicInteger lookups = new AtomicInteger(0);
+        HostResolver resolver = new HostResolver(60, 10, host -> {
+            lookups.incrementAndGet();
+            throw new UnknownHostException(host);
+        }, Runnable::run);
+        for (int i = 0; i < 2; ++i) {
+            ExecutionException exception = assertThrows(ExecutionException.class, () -> resolver.resolve("owl").get());
+            assertTrue(exception.getCause() instanceof UnknownHostException);
+        }
+        assertEquals(1, lookups.get());
+        resolver.setNegativeTtl(0);
+        resolver.clear();
+        assertThrows(ExecutionException.class, () -> resolver.resolve("owl").get());
+        assertThrows(ExecutionException.class, () -> resolver.resolve("owl").get());
+        assertEquals(3, lookups.get());
+    }
+
+    @Test
+    void pendingTest() throws ExecutionException, InterruptedException {
+        // Concurrent resolves share the pending lookup
+        List<Runnable> lookups = new ArrayList<>();
+        HostResolver resolver = new HostResolver(60, 10, host -> ADDRESSES, lookups::add);
+        CompletableFuture<List<InetAddress>> first = resolver.resolve("owl");
+        CompletableFuture<List<InetAddress>> second = resolver.resolve("owl");
+        assertFalse(first.isDone());
+        assertEquals(1, lookups.size());
+        lookups.get(0).run();
+        assertEquals(4, first.get().size());
+        assertNotEquals(first.get().get(0), second.get().get(0));
+    }
+
+    @Test
+    void interleaveTest() {
+        assertEquals(Arrays.asList(addresses("::2", "10.0.0.1", "::3", "10.0.0.2", "10.0.0.3")), Arrays.asList(HostResolver.interleave(addresses("::2", "::3", "10.0.0.1", "10.0.0.2", "10.0.0.3"))));
+        assertEquals(Arrays.asList(addresses("10.0.0.1")), Arrays.asList(HostResolver.interleave(addresses("10.0.0.1"))));
+    }
+}
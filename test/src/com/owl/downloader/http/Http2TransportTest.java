@@ -0,0 +1,206 @@
+package com.owl.downloader.http;
+
+import com.owl.downloader.io.ByteBudget;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Http2TransportTest {
+    private static final byte[] CONTENT = "owl downloader".getBytes(StandardCharsets.US_ASCII);
+    private static HttpServer server;
+    private static Http2Transport transport = new Http2Transport(5000, 5000);
+
+    // A http/1.1 stand-in, the client falls back to http/1.1 once the upgrade is ignored
+    @BeforeAll
+    static void startTest() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/range", exchange -> {
+            String[] range = exchange.getRequestHeaders().getFirst("Range").substring(6).split("-");
+            int start = Integer.parseInt(range[0]);
+            int end = Math.min(Integer.parseInt(range[1]), CONTENT.length - 1);
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + CONTENT.length);
+            exchange.sendResponseHeaders(206, end - start + 1);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(CONTENT, start, end - start + 1);
+            }
+        });
+        server.createContext("/whole", exchange -> {
+            exchange.sendResponseHeaders(200, CONTENT.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(CONTENT);
+            }
+        });
+        server.start();
+    }
+
+    @AfterAll
+    static void stopTest() {
+        server.stop(0);
+    }
+
+    private static URI uri(String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    void constructorTest() {
+        assertThrows(IllegalArgumentException.class, () -> new Http2Transport(-1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new Http2Transport(0, -1));
+    }
+
+    @Test
+    void fetchTest() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        File file = File.createTempFile("fetch", ".txt");
+        Files.write(file.toPath(), new byte[CONTENT.length]);
+        AtomicLong progress = new AtomicLong();
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            CompletableFuture<Long> first = transport.fetch(uri("/range"), 0, 3, fileChannel, null, null, progress::addAndGet);
+            // Truncated to the end of the resource
+            CompletableFuture<Long> second = transport.fetch(uri("/range"), 4, 99, fileChannel, null, null, progress::addAndGet);
+            assertEquals(4, (long) first.get(5, TimeUnit.SECONDS));
+            assertEquals(10, (long) second.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(14, progress.get());
+        assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+        // The upgrade is ignored by the stand-in
+        assertFalse(transport.isMultiplexed(uri("/range")));
+        assertThrows(IllegalArgumentException.class, () -> transport.fetch(uri("/range"), 4, 3, null, null, null, size -> {
+        }));
+        assertTrue(file.delete());
+    }
+
+    @Test
+    void budgetTest() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        File file = File.createTempFile("fetch", ".txt");
+        Files.write(file.toPath(), new byte[CONTENT.length]);
+        ByteBudget budget = new ByteBudget(1);
+        // Used up by another reader, the stream demands nothing until released
+        assertEquals(1, budget.acquire(1));
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            CompletableFuture<Long> future = transport.fetch(uri("/range"), 0, 13, fileChannel, null, budget, size -> {
+            });
+            assertThrows(TimeoutException.class, () -> future.get(500, TimeUnit.MILLISECONDS));
+            budget.release(1);
+            assertEquals(14, (long) future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, budget.used());
+        assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+        assertTrue(file.delete());
+    }
+
+    @Test
+    void unexpectedResponseTest() throws IOException, InterruptedException {
+        File file = File.createTempFile("fetch", ".txt");
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            CompletableFuture<Long> future = transport.fetch(uri("/whole"), 4, 13, fileChannel, null, null, size -> {
+            });
+            ExecutionException exception = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertTrue(exception.getCause() instanceof ProtocolException);
+        }
+        assertEquals(0, file.length());
+        assertTrue(file.delete());
+    }
+
+    @Test
+    void h2cTest() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        Http2Transport h2cTransport = new Http2Transport(5000, 5000);
+        File file = File.createTempFile("fetch", ".txt");
+        Files.write(file.toPath(), new byte[CONTENT.length]);
+        try (ServerSocket serverSocket = new ServerSocket(0, 0, InetAddress.getByName("localhost"));
+             FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            Thread thread = new Thread(() -> serveH2c(serverSocket));
+            thread.setDaemon(true);
+            thread.start();
+            URI uri = URI.create("http://localhost:" + serverSocket.getLocalPort() + "/range");
+            assertFalse(h2cTransport.isMultiplexed(uri));
+            assertEquals(10, (long) h2cTransport.fetch(uri, 4, 13, fileChannel, null, null, size -> {
+            }).get(5, TimeUnit.SECONDS));
+            assertTrue(h2cTransport.isMultiplexed(uri));
+        }
+        assertArrayEquals(Arrays.copyOfRange(CONTENT, 4, 14), Arrays.copyOfRange(Files.readAllBytes(file.toPath()), 4, 14));
+        assertTrue(file.delete());
+    }
+
+    // A h2c server of one connection, the upgraded request is answered as stream 1 and the settings of the client are acknowledged
+    private static void serveH2c(ServerSocket serverSocket) {
+        try (Socket socket = serverSocket.accept()) {
+            DataInputStream input = new DataInputStream(socket.getInputStream());
+            OutputStream output = socket.getOutputStream();
+            int start = 0;
+            int end = 0;
+            String line;
+            while (!(line = readLine(input)).isEmpty()) {
+                if (!line.toLowerCase().startsWith("range:")) continue;
+                String[] range = line.substring(line.indexOf('=') + 1).trim().split("-");
+                start = Integer.parseInt(range[0]);
+                end = Math.min(Integer.parseInt(range[1]), CONTENT.length - 1);
+            }
+            output.write("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            writeFrame(output, 4, 0, 0, new byte[0]);
+            ByteArrayOutputStream headers = new ByteArrayOutputStream();
+            // The indexed :status 206, then literals without indexing
+            headers.write(0x8a);
+            writeHeader(headers, "content-range", "bytes " + start + "-" + end + "/" + CONTENT.length);
+            writeHeader(headers, "content-length", String.valueOf(end - start + 1));
+            writeFrame(output, 1, 4, 1, headers.toByteArray());
+            writeFrame(output, 0, 1, 1, Arrays.copyOfRange(CONTENT, start, end + 1));
+            // The preface of the client is followed by its frames
+            input.readNBytes(24);
+            while (true) {
+                int length = input.readUnsignedByte() << 16 | input.readUnsignedShort();
+                int type = input.readUnsignedByte();
+                int flags = input.readUnsignedByte();
+                input.readInt();
+                input.readNBytes(length);
+                if (type == 4 && (flags & 1) == 0) writeFrame(output, 4, 1, 0, new byte[0]);
+            }
+        } catch (IOException ignored) {
+            // The connection is closed once the test ends
+        }
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = input.read()) != '\n') {
+            if (c < 0) throw new EOFException();
+            if (c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    private static void writeHeader(ByteArrayOutputStream headers, String name, String value) {
+        headers.write(0);
+        headers.write(name.length());
+        headers.writeBytes(name.getBytes(StandardCharsets.US_ASCII));
+        headers.write(value.length());
+        headers.writeBytes(value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void writeFrame(OutputStream output, int type, int flags, int stream, byte[] payload) throws IOException {
+        DataOutputStream frame = new DataOutputStream(output);
+        frame.writeByte(payload.length >>> 16);
+        frame.writeShort(payload.length);
+        frame.writeByte(type);
+        frame.writeByte(flags);
+        frame.writeInt(stream);
+        frame.write(payload);
+        frame.flush();
+    }
+}
@@ -0,0 +1,186 @@
+package com.owl.downloader.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpResponseParserTest {
+
+    // Feed the response in slices of the given size, and gather the body
+    private static String parse(HttpResponseParser parser, String response, int sliceSize) throws ProtocolException {
+        byte[] bytes = response.getBytes(StandardCharsets.US_ASCII);
+        StringBuilder body = new StringBuilder();
+        ByteBuffer buffer = ByteBuffer.allocate(sliceSize);
+        int offset = 0;
+        int size = 0;
+        while (size != -1 && offset < bytes.length) {
+            buffer.clear();
+            buffer.put(bytes, offset, Math.min(sliceSize, bytes.length - offset)).flip();
+            offset += buffer.limit();
+            while ((size = parser.parse(buffer)) > 0) {
+                body.append(new String(bytes, offset - buffer.remaining(), size, StandardCharsets.US_ASCII));
+                buffer.position(buffer.position() + size);
+            }
+        }
+        return body.toString();
+    }
+
+    @Test
+    void contentLengthTest() throws ProtocolException {
+        String response = "HTTP/1.1 200 OK\r\nContent-Length: 14\r\nContent-Type: text/plain\r\n\r\nowl downloader";
+        for (int sliceSize = 1; sliceSize <= response.length(); ++sliceSize) {
+            HttpResponseParser parser = new HttpResponseParser();
+            assertEquals("owl downloader", parse(parser, response, sliceSize));
+            assertTrue(parser.isComplete());
+            assertEquals(200, parser.statusCode());
+            assertEquals(14, parser.contentLength());
+            assertTrue(parser.isKeepAlive());
+            assertFalse(parser.isChunked());
+        }
+    }
+
+    @Test
+    void chunkedTest() throws ProtocolException {
+        String response = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nowl\r\nb;name=value\r\n downloader\r\n0\r\nTrailer: ignored\r\n\r\n";
+        for (int sliceSize = 1; sliceSize <= response.length(); ++sliceSize) {
+            HttpResponseParser parser = new HttpResponseParser();
+            assertEquals("owl downloader", parse(parser, response, sliceSize));
+            assertTrue(parser.isComplete());
+            assertTrue(parser.isChunked());
+        }
+    }
+
+    @Test
+    void rangeTest() throws ProtocolException {
+        HttpResponseParser parser = new HttpResponseParser();
+        parser.expectRange(4, 13);
+        assertEquals("downloader", parse(parser, "HTTP/1.1 206 Partial Content\r\ncontent-range: bytes 4-13/14\r\nContent-Length: 10\r\n\r\ndownloader", 7));
+        assertEquals(4, parser.rangeStart());
+        assertEquals(13, parser.rangeEnd());
+        assertEquals(14, parser.completeLength());
+        // Truncated to the end of the resource
+        parser.reset();
+        parser.expectRange(4, 99);
+        assertEquals("downloader", parse(parser, "HTTP/1.1 206 Partial Content\r\nContent-Range: bytes 4-13/14\r\nContent-Length: 10\r\n\r\ndownloader", 64));
+        parser.reset();
+        parser.expectRange(0, 9);
+        assertThrows(ProtocolException.class, () -> parse(parser, "HTTP/1.1 200 OK\r\nContent-Length: 14\r\n\r\nowl downloader", 64));
+        parser.reset();
+        parser.expectRange(0, 9);
+        assertThrows(ProtocolException.class, () -> parse(parser, "HTTP/1.1 206 Partial Content\r\nContent-Range: bytes 1-10/14\r\n\r\n", 64));
+        parser.reset();
+        parser.expectRange(0, 9);
+        assertThrows(ProtocolException.class, () -> parse(parser, "HTTP/1.1 206 Partial Content\r\nContent-Range: bytes 0-9/14\r\nContent-Length: 14\r\n\r\n", 64));
+        // The whole resource is accepted for the range of the whole resource
+        parser.reset();
+        parser.expectRange(0, 13);
+        assertEquals("owl downloader", parse(parser, "HTTP/1.1 200 OK\r\nContent-Length: 14\r\n\r\nowl downloader", 64));
+        assertThrows(IllegalArgumentException.class, () -> parser.expectRange(5, 4));
+    }
+
+    @Test
+    void headTest() throws ProtocolException {
+        HttpResponseParser parser = new HttpResponseParser();
+        parser.expectHead();
+        assertEquals("", parse(parser, "HTTP/1.1 200 OK\r\nContent-Length: 14\r\n\r\n", 5));
+        assertTrue(parser.isComplete());
+        assertTrue(parser.isKeepAlive());
+        assertEquals(14, parser.contentLength());
+        parser.reset();
+        assertEquals(-1, parser.remaining());
+        parse(parser, "HTTP/1.1 200 OK\r\nContent-Length: 14\r\n\r\n", 64);
+        assertEquals(14, parser.remaining());
+    }
+
+    @Test
+    void metadataTest() throws ProtocolException {
+        String response = "HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 302 Found\r\nLocation: /owl?x=1\r\nETag: \"v1\"\r\nLast-Modified: Sat, 17 Oct 2026 00:00:00 GMT\r\n"
+                + "accept-ranges:  bytes \r\nContent-Type: text/plain\r\nContent-Length: 0\r\n\r\n";
+        HttpResponseParser parser = new HttpResponseParser();
+        parse(parser, response, 64);
+        assertNull(parser.location());
+        assertNull(parser.etag());
+        parser.reset();
+        parser.recordMetadata();
+        parse(parser, response, 3);
+        assertEquals(302, parser.statusCode());
+        assertEquals("/owl?x=1", parser.location());
+        assertEquals("\"v1\"", parser.etag());
+        assertEquals("Sat, 17 Oct 2026 00:00:00 GMT", parser.lastModified());
+        assertEquals("bytes", parser.acceptRanges());
+        assertEquals("text/plain", parser.contentType());
+        parser.reset();
+        assertNull(parser.location());
+    }
+
+    @Test
+    void interimResponseTest() throws ProtocolException {
+        HttpResponseParser parser = new HttpResponseParser();
+        parser.expectRange(0, 2);
+        assertEquals("owl", parse(parser, "HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 206 Partial Content\r\nContent-Range: bytes 0-2/14\r\nContent-Length: 3\r\n\r\nowl", 5));
+        assertEquals(206, parser.statusCode());
+    }
+
+    @Test
+    void connectionTest() throws ProtocolException {
+        HttpResponseParser parser = new HttpResponseParser();
+        assertEquals("owl", parse(parser, "HTTP/1.0 200 OK\r\n\r\nowl", 64));
+        assertFalse(parser.isComplete());
+        assertFalse(parser.isKeepAlive());
+        parser.endOfStream();
+        assertTrue(parser.isComplete());
+        parser.reset();
+        parse(parser, "HTTP/1.1 204 No Content\r\nConnection: close\r\n\r\n", 64);
+        assertTrue(parser.isComplete());
+        assertFalse(parser.isKeepAlive());
+        parser.reset();
+        parse(parser, "HTTP/1.0 200 OK\r\nConnection: Keep-Alive\r\nContent-Length: 0\r\n\r\n", 64);
+        assertTrue(parser.isComplete());
+        assertTrue(parser.isKeepAlive());
+        parser.reset();
+        parse(parser, "HTTP/1.1 200 OK\r\nContent-Length: 14\r\n\r\nowl", 64);
+        assertThrows(ProtocolException.class, parser::endOfStream);
+    }
+
+    @Test
+    void startedTest() throws ProtocolException {
+        HttpResponseParser parser = new HttpResponseParser();
+        assertEquals(0, parser.parse(ByteBuffer.allocate(0)));
+        assertFalse(parser.isStarted());
+        assertThrows(ProtocolException.class, parser::endOfStream);
+        parse(parser, "HTTP/1.1 2", 64);
+        assertTrue(parser.isStarted());
+        assertFalse(parser.isHeaderComplete());
+        parser.reset();
+        assertFalse(parser.isStarted());
+    }
+
+    @Test
+    void skipTest() throws ProtocolException {
+        HttpResponseParser parser = new HttpResponseParser();
+        ByteBuffer buffer = ByteBuffer.wrap("HTTP/1.1 200 OK\r\nContent-Length: 14\r\n\r\nowl".getBytes(StandardCharsets.US_ASCII));
+        assertThrows(IllegalStateException.class, () -> parser.skip(1));
+        assertEquals(3, parser.parse(buffer));
+        assertTrue(parser.isHeaderComplete());
+        assertEquals(11, parser.remaining());
+        assertThrows(IllegalArgumentException.class, () -> parser.skip(12));
+        parser.skip(11);
+        assertEquals(0, parser.remaining());
+        assertTrue(parser.isComplete());
+    }
+
+    @Test
+    void malformedTest() {
+        assertThrows(ProtocolException.class, () -> parse(new HttpResponseParser(), "HTTP/2 200 OK\r\n\r\n", 64));
+        assertThrows(ProtocolException.class, () -> parse(new HttpResponseParser(), "HTTP/1.1 2x0 OK\r\n\r\n", 64));
+        assertThrows(ProtocolException.class, () -> parse(new HttpResponseParser(), "HTTP/1.1 200 OK\r\nContent-Length: -1\r\n\r\n", 64));
+        assertThrows(ProtocolException.class, () -> parse(new HttpResponseParser(), "HTTP/1.1 200 OK\r\nno colon\r\n\r\n", 64));
+        assertThrows(ProtocolException.class, () -> parse(new HttpResponseParser(), "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nxyz\r\n", 64));
+        assertThrows(ProtocolException.class, () -> parse(new HttpResponseParser(), "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nowlx\r\n", 64));
+        assertThrows(ProtocolException.class, () -> parse(new HttpResponseParser(), "HTTP/1.1 200 OK\r\nX: " + "x".repeat(9000) + "\r\n\r\n", 1024));
+    }
+}
@@ -0,0 +1,125 @@
+package com.owl.downloader.io;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsynchronousIOSchedulerTest {
+    private static AsynchronousIOScheduler scheduler = new AsynchronousIOScheduler(2);
+
+    @BeforeAll
+    static void startTest() throws IOException {
+        scheduler.start();
+    }
+
+    @AfterAll
+    static void stopTest() throws IOException {
+        scheduler.stop();
+        assertThrows(IllegalStateException.class, () -> scheduler.openSocketChannel());
+    }
+
+    @Test
+    void constructorTest() {
+        assertThrows(IllegalArgumentException.class, () -> new AsynchronousIOScheduler(0));
+    }
+
+    @Test
+    void socketTest() throws IOException, InterruptedException, ExecutionException {
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+             AsynchronousSocketChannel client = scheduler.openSocketChannel()) {
+            client.connect(server.getLocalAddress()).get();
+            try (SocketChannel peer = server.accept()) {
+                peer.write(ByteBuffer.wrap("owl".getBytes()));
+                CountDownLatch latch = new CountDownLatch(1);
+                AtomicInteger result = new AtomicInteger();
+                AtomicReference<String> threadName = new AtomicReference<>();
+                scheduler.read(client, ByteBuffer.allocate(16), (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+                    assertNull(exception);
+                    result.set(size);
+                    threadName.set(Thread.currentThread().getName());
+                    latch.countDown();
+                });
+                assertTrue(latch.await(5, TimeUnit.SECONDS));
+                assertEquals(3, result.get());
+                assertTrue(threadName.get().startsWith("owl-async-"));
+            }
+        }
+    }
+
+    @Test
+    void registrationTest() throws IOException, InterruptedException {
+        // Classic sockets, such as the connections of tasks, are served by the event loop
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+             SocketChannel client = SocketChannel.open()) {
+            client.configureBlocking(false);
+            CountDownLatch connected = new CountDownLatch(1);
+            scheduler.connect(client, server.getLocalAddress(), 5, TimeUnit.SECONDS, (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+                assertNull(exception);
+                connected.countDown();
+            });
+            assertTrue(connected.await(5, TimeUnit.SECONDS));
+            try (SocketChannel peer = server.accept()) {
+                peer.write(ByteBuffer.wrap("owl".getBytes()));
+                CountDownLatch latch = new CountDownLatch(1);
+                AtomicInteger result = new AtomicInteger();
+                scheduler.register(client).read(ByteBuffer.allocate(16), 5, TimeUnit.SECONDS, (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+                    assertNull(exception);
+                    result.set(size);
+                    latch.countDown();
+                });
+                assertTrue(latch.await(5, TimeUnit.SECONDS));
+                assertEquals(3, result.get());
+            }
+        }
+    }
+
+    @Test
+    void fileTest() throws IOException, InterruptedException {
+        File file = File.createTempFile("asynchronous", ".txt");
+        AsynchronousFileChannel fileChannel = scheduler.openFile(file.toPath());
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger result = new AtomicInteger();
+        scheduler.write(fileChannel, ByteBuffer.wrap("owl".getBytes()), 2, (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            assertNull(exception);
+            result.set(size);
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(3, result.get());
+        fileChannel.close();
+        assertEquals("owl", new String(Files.readAllBytes(file.toPath())).substring(2));
+        assertTrue(file.delete());
+    }
+
+    @Test
+    void classicFileTest() throws IOException, InterruptedException {
+        File file = File.createTempFile("classic", ".txt");
+        FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<String> threadName = new AtomicReference<>();
+        scheduler.write(fileChannel, ByteBuffer.wrap("owl".getBytes()), (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            threadName.set(Thread.currentThread().getName());
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(threadName.get().startsWith("owl-file-"));
+        fileChannel.close();
+        assertTrue(file.delete());
+    }
+}
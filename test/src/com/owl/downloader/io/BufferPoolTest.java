@@ -0,0 +1,78 @@
+package com.owl.downloader.io;
+
+import com.owl.downloader.exception.BufferPoolExhaustedException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+
+    @Test
+    void constructorTest() {
+        assertThrows(IllegalArgumentException.class, () -> new BufferPool(0));
+        assertThrows(IllegalArgumentException.class, () -> new BufferPool(-1));
+        assertEquals(64L << 20, new BufferPool().getMaximumMemory());
+    }
+
+    @Test
+    void leaseTest() {
+        BufferPool pool = new BufferPool();
+        assertThrows(IllegalArgumentException.class, () -> pool.lease(0));
+        ByteBuffer buffer = pool.lease(5000);
+        assertTrue(buffer.isDirect());
+        assertEquals(0, buffer.position());
+        assertEquals(5000, buffer.limit());
+        assertEquals(8192, buffer.capacity());
+        assertEquals(8192, pool.leasedMemory());
+        pool.release(buffer);
+        assertEquals(0, pool.leasedMemory());
+        assertEquals(8192, pool.allocatedMemory());
+        // the released buffer is reused by the same size class
+        assertSame(buffer, pool.lease(8000));
+        assertEquals(8000, buffer.limit());
+        pool.release(buffer);
+        pool.trim();
+        assertEquals(0, pool.allocatedMemory());
+    }
+
+    @Test
+    void largeBufferTest() {
+        BufferPool pool = new BufferPool();
+        ByteBuffer buffer = pool.lease((1 << 20) + 1);
+        assertEquals((1 << 20) + 1, buffer.capacity());
+        pool.release(buffer);
+        assertEquals(0, pool.allocatedMemory());
+    }
+
+    @Test
+    void maximumMemoryTest() {
+        BufferPool pool = new BufferPool(16 * 1024);
+        ByteBuffer buffer1 = pool.lease(8192);
+        ByteBuffer buffer2 = pool.lease(4096);
+        assertThrows(BufferPoolExhaustedException.class, () -> pool.lease(8192));
+        pool.release(buffer2);
+        // the cached 4KB buffer is dropped to make room
+        ByteBuffer buffer3 = pool.lease(8192);
+        assertEquals(16 * 1024, pool.allocatedMemory());
+        pool.release(buffer1);
+        pool.release(buffer3);
+        assertEquals(0, pool.leasedMemory());
+    }
+
+    @Test
+    void leakDetectionTest() {
+        BufferPool pool = new BufferPool();
+        pool.setLeakDetection(true);
+        assertTrue(pool.isLeakDetection());
+        ByteBuffer buffer = pool.lease(100);
+        assertEquals(1, pool.leaks().size());
+        pool.release(buffer);
+        assertTrue(pool.leaks().isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> pool.release(buffer));
+        assertThrows(IllegalArgumentException.class, () -> pool.release(ByteBuffer.allocateDirect(4096)));
+        pool.setLeakDetection(false);
+        assertFalse(pool.isLeakDetection());
+    }
+}
@@ -0,0 +1,72 @@
+package com.owl.downloader.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteBudgetTest {
+    @Test
+    void limitTest() {
+        assertThrows(IllegalArgumentException.class, () -> new ByteBudget(-1));
+        ByteBudget budget = new ByteBudget(0);
+        assertEquals(0, budget.getLimit());
+        assertNull(budget.getParent());
+        budget.setLimit(1024);
+        assertEquals(1024, budget.getLimit());
+        assertThrows(IllegalArgumentException.class, () -> budget.setLimit(-1));
+    }
+
+    @Test
+    void acquireTest() {
+        ByteBudget budget = new ByteBudget(1024);
+        assertEquals(0, budget.acquire(0));
+        assertEquals(1000, budget.acquire(1000));
+        assertEquals(24, budget.acquire(1000));
+        assertEquals(1024, budget.used());
+        assertFalse(budget.isAvailable());
+        assertEquals(0, budget.acquire(1));
+        budget.release(512);
+        assertTrue(budget.isAvailable());
+        assertEquals(512, budget.acquire(1024));
+        budget.release(1024);
+        assertEquals(0, budget.used());
+    }
+
+    @Test
+    void parentTest() {
+        ByteBudget parent = new ByteBudget(1024);
+        ByteBudget child = new ByteBudget(0, parent);
+        ByteBudget sibling = new ByteBudget(0, parent);
+        assertSame(parent, child.getParent());
+        assertEquals(1024, child.acquire(4096));
+        assertFalse(sibling.isAvailable());
+        assertEquals(0, sibling.acquire(1));
+        child.release(1024);
+        assertEquals(0, parent.used());
+        assertEquals(1024, sibling.acquire(4096));
+    }
+
+    @Test
+    void whenAvailableTest() {
+        ByteBudget parent = new ByteBudget(1024);
+        ByteBudget child = new ByteBudget(512, parent);
+        AtomicInteger count = new AtomicInteger();
+        child.whenAvailable(count::incrementAndGet);
+        assertEquals(1, count.get());
+        assertEquals(512, child.acquire(4096));
+        assertEquals(512, parent.acquire(4096));
+        child.whenAvailable(count::incrementAndGet);
+        assertEquals(1, count.get());
+        parent.release(512);
+        // The child is still used up
+        assertEquals(1, count.get());
+        child.release(512);
+        assertEquals(2, count.get());
+        child.acquire(512);
+        child.whenAvailable(count::incrementAndGet);
+        child.setLimit(1024);
+        assertEquals(3, count.get());
+    }
+}
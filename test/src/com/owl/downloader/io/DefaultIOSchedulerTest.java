@@ -10,7 +10,11 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -129,6 +133,56 @@ class DefaultIOSchedulerTest {
         assertTrue(new File(filePath1).delete());
     }
 
+    @Test
+    void oneShotReadTest() throws IOException, InterruptedException {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        pipe.sink().write(ByteBuffer.wrap("owl".getBytes()));
+        AtomicInteger count = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        scheduler1.read(pipe.source(), ByteBuffer.allocate(1), (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            assertEquals(1, size);
+            count.incrementAndGet();
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, count.get());
+        assertSame(scheduler1.register(pipe.source()), scheduler1.register(pipe.source()));
+        pipe.source().close();
+        pipe.sink().close();
+    }
+
+    @Test
+    void inlineReadTest() throws IOException, InterruptedException, IllegalAccessException {
+        Thread daemon = (Thread) daemonField.get(scheduler1);
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        pipe.sink().write(ByteBuffer.wrap("owl".getBytes()));
+        AtomicReference<Thread> inlineThread = new AtomicReference<>();
+        CountDownLatch inlineLatch = new CountDownLatch(1);
+        IOCallback callback = IOCallback.inline((Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            assertEquals(1, size);
+            inlineThread.set(Thread.currentThread());
+            inlineLatch.countDown();
+        });
+        assertTrue(callback.isInline());
+        assertSame(callback, IOCallback.inline(callback));
+        scheduler1.read(pipe.source(), ByteBuffer.allocate(1), callback);
+        assertTrue(inlineLatch.await(5, TimeUnit.SECONDS));
+        assertSame(daemon, inlineThread.get());
+        AtomicReference<Thread> offloadedThread = new AtomicReference<>();
+        CountDownLatch offloadedLatch = new CountDownLatch(1);
+        scheduler1.read(pipe.source(), ByteBuffer.allocate(1), (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            offloadedThread.set(Thread.currentThread());
+            offloadedLatch.countDown();
+        });
+        assertTrue(offloadedLatch.await(5, TimeUnit.SECONDS));
+        assertNotSame(daemon, offloadedThread.get());
+        pipe.source().close();
+        pipe.sink().close();
+    }
+
     @Disabled
     void ReadRunTest() throws IllegalAccessException, IOException {
         assertTrue((Boolean) runningField.get(scheduler1));
@@ -0,0 +1,76 @@
+package com.owl.downloader.io;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HappyEyeballsTest {
+    private static MultiReactorIOScheduler scheduler = new MultiReactorIOScheduler(2);
+
+    @BeforeAll
+    static void startTest() throws IOException {
+        scheduler.start();
+    }
+
+    @AfterAll
+    static void stopTest() throws IOException {
+        scheduler.stop();
+    }
+
+    // Nothing listens on the port once the server is closed
+    private static InetSocketAddress refusedAddress() throws IOException {
+        try (ServerSocketChannel closed = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0))) {
+            return (InetSocketAddress) closed.getLocalAddress();
+        }
+    }
+
+    @Test
+    void connectTest() throws IOException, InterruptedException {
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0))) {
+            // The refused address fails at once, so the next one is tried before the delay
+            List<InetSocketAddress> addresses = List.of(refusedAddress(), (InetSocketAddress) server.getLocalAddress());
+            CountDownLatch latch = new CountDownLatch(1);
+            AtomicReference<Channel> result = new AtomicReference<>();
+            long start = System.nanoTime();
+            HappyEyeballs.connect(scheduler, addresses, 10, 5, TimeUnit.SECONDS, (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+                if (exception == null) result.set(channel);
+                latch.countDown();
+            });
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            SocketChannel socketChannel = (SocketChannel) result.get();
+            assertNotNull(socketChannel);
+            assertTrue(socketChannel.isConnected());
+            assertEquals(server.getLocalAddress(), socketChannel.getRemoteAddress());
+            socketChannel.close();
+        }
+    }
+
+    @Test
+    void failureTest() throws IOException, InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<Exception> result = new AtomicReference<>();
+        HappyEyeballs.connect(scheduler, List.of(refusedAddress(), refusedAddress()), 0, 5, TimeUnit.SECONDS, (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            result.set(exception);
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(result.get() instanceof IOException);
+        assertThrows(IllegalArgumentException.class, () -> HappyEyeballs.connect(scheduler, Collections.emptyList(), 0, 0, TimeUnit.SECONDS, (channel, buffer, size, exception) -> {
+        }));
+    }
+}
@@ -0,0 +1,386 @@
+package com.owl.downloader.io;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadPendingException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultiReactorIOSchedulerTest {
+    private static MultiReactorIOScheduler scheduler = new MultiReactorIOScheduler(4);
+
+    @BeforeAll
+    static void startTest() throws IOException {
+        scheduler.start();
+    }
+
+    @AfterAll
+    static void stopTest() throws IOException {
+        scheduler.stop();
+        assertThrows(IllegalStateException.class, () -> scheduler.read(Pipe.open().source(), ByteBuffer.allocate(1), null));
+    }
+
+    @Test
+    void constructorTest() {
+        assertThrows(IllegalArgumentException.class, () -> new MultiReactorIOScheduler(0));
+        assertThrows(IllegalArgumentException.class, () -> new MultiReactorIOScheduler(-1));
+        assertEquals(4, scheduler.getEventLoopCount());
+    }
+
+    @Test
+    void readTest() throws IOException, InterruptedException {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        pipe.sink().write(ByteBuffer.wrap("owl".getBytes()));
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger result = new AtomicInteger();
+        AtomicReference<String> threadName = new AtomicReference<>();
+        scheduler.read(pipe.source(), ByteBuffer.allocate(16), (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            assertNull(exception);
+            result.set(size);
+            threadName.set(Thread.currentThread().getName());
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(3, result.get());
+        // A callback which may block never runs in the event loop
+        assertFalse(threadName.get().startsWith("owl-event-loop-"));
+        pipe.sink().write(ByteBuffer.wrap("owl".getBytes()));
+        CountDownLatch inlineLatch = new CountDownLatch(1);
+        scheduler.read(pipe.source(), ByteBuffer.allocate(16), IOCallback.inline((Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            threadName.set(Thread.currentThread().getName());
+            inlineLatch.countDown();
+        }));
+        assertTrue(inlineLatch.await(5, TimeUnit.SECONDS));
+        assertTrue(threadName.get().startsWith("owl-event-loop-"));
+        pipe.source().close();
+        pipe.sink().close();
+    }
+
+    @Test
+    void rateLimitTest() throws IOException, InterruptedException {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        int total = 96 * 1024;
+        Thread writer = new Thread(() -> {
+            try {
+                ByteBuffer data = ByteBuffer.allocate(total);
+                while (data.hasRemaining()) pipe.sink().write(data);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        writer.start();
+        Registration registration = scheduler.register(pipe.source());
+        TokenBucket bucket = new TokenBucket(128 * 1024);
+        registration.setRateLimiter(bucket);
+        assertSame(bucket, registration.getRateLimiter());
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger received = new AtomicInteger();
+        long start = System.nanoTime();
+        registration.read(ByteBuffer.allocate(8192), new IOCallback() {
+            @Override
+            public void callback(Channel channel, ByteBuffer buffer, int size, Exception exception) {
+                assertNull(exception);
+                if (received.addAndGet(size) >= total) latch.countDown();
+                else registration.read(buffer.clear(), this);
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // 16KB burst at most, the rest is limited to 128KB/s
+        assertTrue(elapsed >= 500, "elapsed " + elapsed + "ms");
+        writer.join();
+        pipe.source().close();
+        pipe.sink().close();
+    }
+
+    @Test
+    void budgetTest() throws IOException, InterruptedException {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        pipe.sink().write(ByteBuffer.allocate(64));
+        Registration registration = scheduler.register(pipe.source());
+        ByteBudget budget = new ByteBudget(16);
+        registration.setBudget(budget);
+        assertSame(budget, registration.getBudget());
+        CountDownLatch firstLatch = new CountDownLatch(1);
+        AtomicInteger result = new AtomicInteger();
+        registration.read(ByteBuffer.allocate(64), (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            result.set(size);
+            firstLatch.countDown();
+        });
+        assertTrue(firstLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(16, result.get());
+        assertEquals(16, budget.used());
+        // Paused until the bytes read are released
+        CountDownLatch secondLatch = new CountDownLatch(1);
+        registration.read(ByteBuffer.allocate(64), (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            result.set(size);
+            secondLatch.countDown();
+        });
+        assertFalse(secondLatch.await(200, TimeUnit.MILLISECONDS));
+        budget.release(16);
+        assertTrue(secondLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(16, result.get());
+        pipe.source().close();
+        pipe.sink().close();
+    }
+
+    @Test
+    void connectTest() throws IOException, InterruptedException {
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0));
+             SocketChannel socketChannel = SocketChannel.open();
+             SocketChannel refusedChannel = SocketChannel.open()) {
+            socketChannel.configureBlocking(false);
+            refusedChannel.configureBlocking(false);
+            CountDownLatch latch = new CountDownLatch(2);
+            AtomicReference<Exception> result = new AtomicReference<>();
+            AtomicReference<Exception> refusedResult = new AtomicReference<>();
+            scheduler.connect(socketChannel, server.getLocalAddress(), 5, TimeUnit.SECONDS, (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+                result.set(exception);
+                latch.countDown();
+            });
+            // Nothing listens on the port once the server is closed
+            int port;
+            try (ServerSocketChannel closed = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0))) {
+                port = ((InetSocketAddress) closed.getLocalAddress()).getPort();
+            }
+            scheduler.connect(refusedChannel, new InetSocketAddress("localhost", port), 5, TimeUnit.SECONDS, (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+                refusedResult.set(exception);
+                latch.countDown();
+            });
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertNull(result.get());
+            assertTrue(socketChannel.isConnected());
+            assertTrue(refusedResult.get() instanceof IOException);
+            assertFalse(refusedChannel.isConnected());
+        }
+    }
+
+    @Test
+    void timeoutTest() throws IOException, InterruptedException {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        Registration registration = scheduler.register(pipe.source());
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<Exception> result = new AtomicReference<>();
+        long start = System.nanoTime();
+        registration.read(ByteBuffer.allocate(16), 100, TimeUnit.MILLISECONDS, (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            result.set(exception);
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(result.get() instanceof SocketTimeoutException);
+        // The registration can be used again once timed out
+        pipe.sink().write(ByteBuffer.wrap("owl".getBytes()));
+        CountDownLatch secondLatch = new CountDownLatch(1);
+        AtomicInteger secondResult = new AtomicInteger();
+        registration.read(ByteBuffer.allocate(16), 5, TimeUnit.SECONDS, (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            assertNull(exception);
+            secondResult.set(size);
+            secondLatch.countDown();
+        });
+        assertTrue(secondLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(3, secondResult.get());
+        pipe.source().close();
+        pipe.sink().close();
+    }
+
+    @Test
+    void pinnedTest() throws IOException, InterruptedException {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        pipe.sink().configureBlocking(false);
+        CountDownLatch firstLatch = new CountDownLatch(1);
+        CountDownLatch secondLatch = new CountDownLatch(1);
+        AtomicReference<Thread> firstThread = new AtomicReference<>();
+        AtomicReference<Thread> secondThread = new AtomicReference<>();
+        scheduler.write(pipe.sink(), ByteBuffer.wrap(new byte[]{1, 2}), IOCallback.inline((Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            firstThread.set(Thread.currentThread());
+            firstLatch.countDown();
+        }));
+        assertTrue(firstLatch.await(5, TimeUnit.SECONDS));
+        scheduler.write(pipe.sink(), ByteBuffer.wrap(new byte[]{3}), IOCallback.inline((Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            secondThread.set(Thread.currentThread());
+            secondLatch.countDown();
+        }));
+        assertTrue(secondLatch.await(5, TimeUnit.SECONDS));
+        assertSame(firstThread.get(), secondThread.get());
+        pipe.source().close();
+        pipe.sink().close();
+    }
+
+    @Test
+    void pendingTest() throws IOException, InterruptedException {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<Exception> result = new AtomicReference<>();
+        scheduler.read(pipe.source(), ByteBuffer.allocate(16), (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+        });
+        scheduler.read(pipe.source(), ByteBuffer.allocate(16), (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            result.set(exception);
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(result.get() instanceof IllegalStateException);
+        pipe.source().close();
+        pipe.sink().close();
+    }
+
+    @Test
+    void concurrentPendingTest() throws IOException, InterruptedException {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        Registration registration = scheduler.register(pipe.source());
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(threads - 1);
+        AtomicInteger pending = new AtomicInteger();
+        for (int i = 0; i < threads; ++i) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // Only one of the concurrent reads is armed, the others are rejected as pending
+                registration.read(ByteBuffer.allocate(16), (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+                    if (exception instanceof ReadPendingException) {
+                        pending.incrementAndGet();
+                        latch.countDown();
+                    }
+                });
+            }).start();
+        }
+        start.countDown();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(threads - 1, pending.get());
+        pipe.source().close();
+        pipe.sink().close();
+    }
+
+    @Test
+    void registerTest() throws IOException, InterruptedException {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        Registration registration = scheduler.register(pipe.source());
+        assertSame(registration, scheduler.register(pipe.source()));
+        assertSame(pipe.source(), registration.channel());
+        pipe.sink().write(ByteBuffer.wrap("owl".getBytes()));
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger count = new AtomicInteger();
+        registration.read(ByteBuffer.allocate(1), (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            count.incrementAndGet();
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        // the channel is still readable, but the read interest is dropped once dispatched
+        assertEquals(1, count.get());
+        CountDownLatch cancelLatch = new CountDownLatch(1);
+        AtomicReference<Exception> result = new AtomicReference<>();
+        pipe.sink().configureBlocking(false);
+        Registration writeRegistration = scheduler.register(pipe.sink());
+        registration.cancel();
+        pipe.source().close();
+        pipe.sink().close();
+        writeRegistration.write(ByteBuffer.allocate(1), (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            result.set(exception);
+            cancelLatch.countDown();
+        });
+        assertTrue(cancelLatch.await(5, TimeUnit.SECONDS));
+        assertTrue(result.get() instanceof IOException);
+    }
+
+    @Test
+    void transferTest() throws IOException, InterruptedException {
+        File file = File.createTempFile("transfer", ".txt");
+        Files.write(file.toPath(), "owl:".getBytes());
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        pipe.sink().write(ByteBuffer.wrap("owl downloader".getBytes()));
+        pipe.sink().close();
+        FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        CountDownLatch latch = new CountDownLatch(2);
+        AtomicInteger transferred = new AtomicInteger();
+        AtomicInteger last = new AtomicInteger();
+        AtomicReference<String> threadName = new AtomicReference<>();
+        IOCallback[] callback = new IOCallback[1];
+        callback[0] = (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            threadName.set(Thread.currentThread().getName());
+            assertNull(buffer);
+            assertNull(exception);
+            if (size > 0) {
+                transferred.addAndGet(size);
+                scheduler.transfer(pipe.source(), fileChannel, 4 + transferred.get(), 100, callback[0]);
+            } else last.set(size);
+            latch.countDown();
+        };
+        scheduler.transfer(pipe.source(), fileChannel, 4, 100, callback[0]);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(14, transferred.get());
+        assertEquals(-1, last.get());
+        // The file io never stalls the event loop
+        assertFalse(threadName.get().startsWith("owl-event-loop-"));
+        fileChannel.close();
+        pipe.source().close();
+        assertEquals("owl:owl downloader", new String(Files.readAllBytes(file.toPath())));
+        assertTrue(file.delete());
+    }
+
+    @Test
+    void transferGapTest() throws IOException, InterruptedException {
+        // The file is shorter than the position, so transferFrom returns nothing though the stream is not ended
+        File file = File.createTempFile("transfer", ".txt");
+        Files.write(file.toPath(), "owl:".getBytes());
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        pipe.sink().write(ByteBuffer.wrap("owl".getBytes()));
+        pipe.sink().close();
+        FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger transferred = new AtomicInteger();
+        AtomicInteger last = new AtomicInteger();
+        IOCallback[] callback = new IOCallback[1];
+        callback[0] = (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            assertNull(exception);
+            if (size > 0) {
+                transferred.addAndGet(size);
+                scheduler.transfer(pipe.source(), fileChannel, 8 + transferred.get(), 100, callback[0]);
+                return;
+            }
+            last.set(size);
+            latch.countDown();
+        };
+        scheduler.transfer(pipe.source(), fileChannel, 8, 100, callback[0]);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(3, transferred.get());
+        assertEquals(-1, last.get());
+        fileChannel.close();
+        pipe.source().close();
+        assertEquals("owl:\0\0\0\0owl", new String(Files.readAllBytes(file.toPath())));
+        assertTrue(file.delete());
+    }
+}
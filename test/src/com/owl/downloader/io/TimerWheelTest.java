@@ -0,0 +1,87 @@
+package com.owl.downloader.io;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimerWheelTest {
+    private Selector selector;
+    private TimerWheel timers;
+
+    @BeforeEach
+    void openTest() throws IOException {
+        selector = Selector.open();
+        timers = new TimerWheel(selector);
+    }
+
+    @AfterEach
+    void closeTest() throws IOException {
+        selector.close();
+    }
+
+    @Test
+    void emptyTest() {
+        assertEquals(0, timers.nextTimeout());
+        timers.runExpired();
+    }
+
+    @Test
+    void expireTest() throws IOException {
+        List<Integer> expired = new ArrayList<>();
+        timers.schedule(() -> expired.add(2), TimeUnit.MILLISECONDS.toNanos(40));
+        timers.schedule(() -> expired.add(1), TimeUnit.MILLISECONDS.toNanos(20));
+        // Longer than a round of the wheel
+        timers.schedule(() -> expired.add(3), TimeUnit.MILLISECONDS.toNanos(700));
+        long start = System.nanoTime();
+        while (expired.size() < 3) {
+            long timeout = timers.nextTimeout();
+            assertNotEquals(0, timeout);
+            if (timeout > 0) selector.select(timeout);
+            timers.runExpired();
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        }
+        assertEquals(List.of(1, 2, 3), expired);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(700));
+        assertEquals(0, timers.nextTimeout());
+    }
+
+    @Test
+    void cancelTest() throws IOException {
+        List<Integer> expired = new ArrayList<>();
+        TimerWheel.Timeout first = timers.schedule(() -> expired.add(1), TimeUnit.MILLISECONDS.toNanos(10));
+        TimerWheel.Timeout second = timers.schedule(() -> expired.add(2), TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(timers.nextTimeout() != 0);
+        assertTrue(first.cancel());
+        assertFalse(first.cancel());
+        while (!second.isExpired()) {
+            long timeout = timers.nextTimeout();
+            if (timeout > 0) selector.select(timeout);
+            timers.runExpired();
+        }
+        assertEquals(List.of(2), expired);
+        assertFalse(first.isExpired());
+        assertFalse(second.cancel());
+        assertEquals(0, timers.nextTimeout());
+    }
+
+    @Test
+    void wakeupTest() throws InterruptedException, IOException {
+        assertEquals(0, timers.nextTimeout());
+        Thread thread = new Thread(() -> timers.schedule(() -> {
+        }, TimeUnit.MILLISECONDS.toNanos(1)));
+        thread.start();
+        thread.join();
+        // The selector is waken up since the loop thread plans to wait forever
+        long start = System.nanoTime();
+        selector.select(5000);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+    }
+}
@@ -0,0 +1,153 @@
+package com.owl.downloader.io;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TlsChannelTest {
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static final byte[] CONTENT = new byte[100000];
+    private static MultiReactorIOScheduler scheduler = new MultiReactorIOScheduler(2);
+    private static SSLContext serverContext;
+    private static SSLContext clientContext;
+    private static SSLServerSocket server;
+
+    // A self-signed key, trusted by the client
+    @BeforeAll
+    static void startTest() throws Exception {
+        File keyStoreFile = File.createTempFile("tls", ".p12");
+        assertTrue(keyStoreFile.delete());
+        Process keytool = new ProcessBuilder(System.getProperty("java.home") + "/bin/keytool", "-genkeypair", "-alias", "owl", "-keyalg", "EC",
+                "-dname", "CN=localhost", "-validity", "1", "-storetype", "PKCS12", "-keystore", keyStoreFile.getPath(), "-storepass", "changeit")
+                .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        assertEquals(0, keytool.waitFor());
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream input = new FileInputStream(keyStoreFile)) {
+            keyStore.load(input, PASSWORD);
+        }
+        assertTrue(keyStoreFile.delete());
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, PASSWORD);
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, trustManagerFactory.getTrustManagers(), null);
+        new Random(0).nextBytes(CONTENT);
+        server = (SSLServerSocket) serverContext.getServerSocketFactory().createServerSocket(0);
+        Thread acceptor = new Thread(TlsChannelTest::serve);
+        acceptor.setDaemon(true);
+        acceptor.start();
+        scheduler.start();
+    }
+
+    @AfterAll
+    static void stopTest() throws IOException {
+        scheduler.stop();
+        server.close();
+    }
+
+    // Reply the content to each ping, then close with close_notify
+    private static void serve() {
+        while (!server.isClosed()) {
+            try (SSLSocket socket = (SSLSocket) server.accept()) {
+                DataInputStream input = new DataInputStream(socket.getInputStream());
+                byte[] ping = new byte[4];
+                input.readFully(ping);
+                socket.getOutputStream().write(CONTENT);
+                socket.getOutputStream().flush();
+            } catch (IOException e) {
+                // The handshake is refused by the client
+            }
+        }
+    }
+
+    private static TlsChannel open(SSLContext context) throws IOException {
+        SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress("localhost", server.getLocalPort()));
+        socketChannel.configureBlocking(false);
+        SSLEngine engine = context.createSSLEngine("localhost", server.getLocalPort());
+        engine.setUseClientMode(true);
+        return new TlsChannel(socketChannel, engine, scheduler.getBufferPool());
+    }
+
+    private static CompletableFuture<Integer> future(IOCallbackAction action) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        action.run((channel, buffer, size, exception) -> {
+            if (exception != null) future.completeExceptionally(exception);
+            else future.complete(size);
+        });
+        return future;
+    }
+
+    // Read all the data until the peer closes
+    private static byte[] readAll(TlsChannel tlsChannel, Registration registration, int bufferSize) throws InterruptedException, ExecutionException, TimeoutException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        int size;
+        while ((size = future(callback -> tlsChannel.read(registration, buffer, 5, TimeUnit.SECONDS, callback)).get(5, TimeUnit.SECONDS)) != -1) {
+            assertTrue(size > 0);
+            output.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+        return output.toByteArray();
+    }
+
+    @Test
+    void transferTest() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        // Small destinations take the data decrypted into the buffer of the channel
+        for (int bufferSize : new int[]{100, 32768}) {
+            try (TlsChannel tlsChannel = open(clientContext)) {
+                Registration registration = scheduler.register(tlsChannel.socketChannel());
+                assertEquals(0, (int) future(callback -> tlsChannel.handshake(registration, 5, TimeUnit.SECONDS, callback)).get(5, TimeUnit.SECONDS));
+                ByteBuffer ping = ByteBuffer.wrap("ping".getBytes());
+                assertEquals(4, (int) future(callback -> tlsChannel.write(registration, ping, 5, TimeUnit.SECONDS, callback)).get(5, TimeUnit.SECONDS));
+                assertFalse(ping.hasRemaining());
+                assertArrayEquals(CONTENT, readAll(tlsChannel, registration, bufferSize));
+            }
+        }
+    }
+
+    @Test
+    void untrustedTest() throws IOException, NoSuchAlgorithmException {
+        // The self-signed key is not trusted by default
+        try (TlsChannel tlsChannel = open(SSLContext.getDefault())) {
+            Registration registration = scheduler.register(tlsChannel.socketChannel());
+            CompletableFuture<Integer> handshake = future(callback -> tlsChannel.handshake(registration, 5, TimeUnit.SECONDS, callback));
+            ExecutionException exception = assertThrows(ExecutionException.class, () -> handshake.get(5, TimeUnit.SECONDS));
+            assertTrue(exception.getCause() instanceof SSLException);
+        }
+    }
+
+    @Test
+    void closeTest() throws IOException {
+        TlsChannel tlsChannel = open(clientContext);
+        assertTrue(tlsChannel.isOpen());
+        tlsChannel.close();
+        tlsChannel.close();
+        assertFalse(tlsChannel.isOpen());
+        assertFalse(tlsChannel.socketChannel().isOpen());
+        assertThrows(IOException.class, () -> tlsChannel.read(ByteBuffer.allocate(1)));
+        assertThrows(IOException.class, () -> tlsChannel.write(ByteBuffer.allocate(1)));
+    }
+
+    @FunctionalInterface
+    private interface IOCallbackAction {
+        void run(IOCallback callback);
+    }
+}
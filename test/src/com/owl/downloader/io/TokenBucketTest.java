@@ -0,0 +1,50 @@
+package com.owl.downloader.io;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+    @Test
+    void rateTest() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(-1));
+        TokenBucket bucket = new TokenBucket(0);
+        assertEquals(0, bucket.getRate());
+        assertNull(bucket.getParent());
+        bucket.setRate(1024);
+        assertEquals(1024, bucket.getRate());
+        assertThrows(IllegalArgumentException.class, () -> bucket.setRate(-1));
+    }
+
+    @Test
+    void unlimitedTest() {
+        TokenBucket bucket = new TokenBucket(0);
+        assertEquals(Long.MAX_VALUE, bucket.acquire(Long.MAX_VALUE));
+        assertEquals(0, bucket.acquire(0));
+        assertEquals(0, bucket.delay());
+    }
+
+    @Test
+    void acquireTest() {
+        TokenBucket bucket = new TokenBucket(1024);
+        long granted = bucket.acquire(1 << 20);
+        assertTrue(granted >= 16 * 1024 && granted < 17 * 1024);
+        assertTrue(bucket.acquire(1 << 20) < 1024);
+        assertTrue(bucket.delay() > 0);
+        bucket.refund(4096);
+        assertEquals(4096, bucket.acquire(4096));
+    }
+
+    @Test
+    void parentTest() {
+        TokenBucket parent = new TokenBucket(1024);
+        TokenBucket child = new TokenBucket(0, parent);
+        assertSame(parent, child.getParent());
+        assertTrue(child.acquire(1 << 20) >= 16 * 1024);
+        assertTrue(child.acquire(1 << 20) < 1024);
+        assertTrue(child.delay() > 0);
+        parent.setRate(0);
+        assertEquals(1 << 20, child.acquire(1 << 20));
+        assertEquals(0, child.delay());
+    }
+}
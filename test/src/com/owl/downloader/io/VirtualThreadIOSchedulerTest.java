@@ -0,0 +1,166 @@
+package com.owl.downloader.io;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualThreadIOSchedulerTest {
+    private static VirtualThreadIOScheduler scheduler = new VirtualThreadIOScheduler();
+
+    @BeforeAll
+    static void startTest() throws IOException {
+        scheduler.start();
+    }
+
+    @AfterAll
+    static void stopTest() throws IOException {
+        scheduler.stop();
+        assertThrows(IllegalStateException.class, () -> scheduler.read(Pipe.open().source(), ByteBuffer.allocate(1), null));
+    }
+
+    @Test
+    void readWriteTest() throws IOException, InterruptedException {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        pipe.sink().configureBlocking(false);
+        CountDownLatch latch = new CountDownLatch(2);
+        AtomicInteger read = new AtomicInteger();
+        AtomicInteger written = new AtomicInteger();
+        // the read blocks until the data is written
+        scheduler.read(pipe.source(), ByteBuffer.allocate(16), (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            assertNull(exception);
+            read.set(size);
+            latch.countDown();
+        });
+        scheduler.write(pipe.sink(), ByteBuffer.wrap("owl".getBytes()), (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            assertNull(exception);
+            written.set(size);
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(3, read.get());
+        assertEquals(3, written.get());
+        assertTrue(pipe.source().isBlocking());
+        pipe.source().close();
+        pipe.sink().close();
+    }
+
+    @Test
+    void connectTest() throws IOException, InterruptedException {
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0));
+             SocketChannel socketChannel = SocketChannel.open();
+             SocketChannel refusedChannel = SocketChannel.open()) {
+            socketChannel.configureBlocking(false);
+            refusedChannel.configureBlocking(false);
+            CountDownLatch latch = new CountDownLatch(2);
+            AtomicReference<Exception> result = new AtomicReference<>();
+            AtomicReference<Exception> refusedResult = new AtomicReference<>();
+            scheduler.connect(socketChannel, server.getLocalAddress(), 5, TimeUnit.SECONDS, (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+                result.set(exception);
+                latch.countDown();
+            });
+            // Nothing listens on the port once the server is closed
+            int port;
+            try (ServerSocketChannel closed = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0))) {
+                port = ((InetSocketAddress) closed.getLocalAddress()).getPort();
+            }
+            scheduler.connect(refusedChannel, new InetSocketAddress("localhost", port), 5, TimeUnit.SECONDS, (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+                refusedResult.set(exception);
+                latch.countDown();
+            });
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertNull(result.get());
+            assertTrue(socketChannel.isConnected());
+            assertTrue(refusedResult.get() instanceof IOException);
+            assertFalse(refusedChannel.isConnected());
+        }
+    }
+
+    @Test
+    void timeoutTest() throws IOException, InterruptedException {
+        Pipe pipe = Pipe.open();
+        Registration registration = scheduler.register(pipe.source());
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<Exception> result = new AtomicReference<>();
+        registration.read(ByteBuffer.allocate(16), 100, TimeUnit.MILLISECONDS, (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            result.set(exception);
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(result.get() instanceof SocketTimeoutException);
+        // Blocking io can only be aborted by closing the channel
+        assertFalse(pipe.source().isOpen());
+        pipe.sink().close();
+    }
+
+    @Test
+    void constructorTest() {
+        assertThrows(IllegalArgumentException.class, () -> new VirtualThreadIOScheduler(0));
+        assertEquals(16, scheduler.getPlatformThreadCount());
+        assertEquals(8, new VirtualThreadIOScheduler(8).getPlatformThreadCount());
+    }
+
+    @Test
+    void budgetTimeoutTest() throws IOException, InterruptedException {
+        Pipe pipe = Pipe.open();
+        pipe.sink().write(ByteBuffer.wrap("owl".getBytes()));
+        Registration registration = scheduler.register(pipe.source());
+        ByteBudget budget = new ByteBudget(16);
+        budget.acquire(16);
+        registration.setBudget(budget);
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<Exception> result = new AtomicReference<>();
+        AtomicInteger read = new AtomicInteger();
+        // Waiting for the budget longer than the timeout is not a stall
+        registration.read(ByteBuffer.allocate(16), 200, TimeUnit.MILLISECONDS, (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            result.set(exception);
+            read.set(size);
+            latch.countDown();
+        });
+        assertFalse(latch.await(500, TimeUnit.MILLISECONDS));
+        budget.release(16);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertNull(result.get());
+        assertEquals(3, read.get());
+        pipe.source().close();
+        pipe.sink().close();
+    }
+
+    @Test
+    void cancelTest() throws IOException, InterruptedException {
+        Pipe pipe = Pipe.open();
+        Registration registration = scheduler.register(pipe.source());
+        assertSame(registration, scheduler.register(pipe.source()));
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<Exception> result = new AtomicReference<>();
+        AtomicReference<Exception> pending = new AtomicReference<>();
+        registration.read(ByteBuffer.allocate(16), (Channel channel, ByteBuffer buffer, int size, Exception exception) -> {
+            result.set(exception);
+            latch.countDown();
+        });
+        registration.read(ByteBuffer.allocate(16), (Channel channel, ByteBuffer buffer, int size, Exception exception) -> pending.set(exception));
+        assertTrue(pending.get() instanceof IllegalStateException);
+        Thread.sleep(100);
+        registration.cancel();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(result.get() instanceof AsynchronousCloseException);
+        assertFalse(pipe.source().isOpen());
+        pipe.sink().close();
+    }
+}